@@ -2,9 +2,10 @@ package com.accesscontrol;
 
 import javacard.framework.*;
 import javacard.security.*;
+import javacardx.apdu.ExtendedLength;
 import javacardx.crypto.*;
 
-public class AccessControlApplet extends Applet {
+public class AccessControlApplet extends Applet implements ExtendedLength {
     
     // Instructions APDU
     private static final byte INS_SET_PIN = (byte) 0x10;
@@ -13,41 +14,127 @@ public class AccessControlApplet extends Applet {
     private static final byte INS_GET_KEY = (byte) 0x40;
     private static final byte INS_RESET_TRIES = (byte) 0x50;
     private static final byte INS_GET_USER_ID = (byte) 0x60;
+    private static final byte INS_AUTHENTICATE = (byte) 0x70;
+    private static final byte INS_CHALLENGE = (byte) 0x80;
+    private static final byte INS_LIST_SLOTS = (byte) 0x90;
+    private static final byte INS_BIND_SESSION = (byte) 0xB0;
+    private static final byte INS_REENTER = (byte) 0xB2;
+    private static final byte INS_JOURNAL_APPEND = (byte) 0xD0;
+    private static final byte INS_JOURNAL_READ = (byte) 0xD2;
+    private static final byte INS_GET_RESPONSE = (byte) 0xC0;
+    
+    // Version et capacités annoncées dans la réponse au SELECT
+    private static final byte APPLET_VERSION = (byte) 0x04;
+    private static final byte CAP_COMBINED_AUTH = (byte) 0x01;
+    private static final byte CAP_CHALLENGE = (byte) 0x02;
+    private static final byte CAP_SLOTS = (byte) 0x04;
+    private static final byte CAP_REENTRY = (byte) 0x08;
+    private static final byte CAP_JOURNAL = (byte) 0x10;
     
     // Constantes
     private static final byte PIN_TRY_LIMIT = (byte) 3;
     private static final byte MAX_PIN_SIZE = (byte) 8;
     private static final short KEY_SIZE = (short) 16; // AES-128
     private static final short USER_ID_SIZE = (short) 16;
+    private static final short CHALLENGE_SIZE = (short) 16;
+    private static final short SESSION_ID_SIZE = (short) 16;
+    
+    // Table des identités: le slot est choisi par P1 (0 = slot par défaut)
+    private static final byte MAX_SLOTS = (byte) 4;
+    
+    // INS_AUTHENTICATE: statut renvoyé dans la réponse
+    private static final byte AUTH_OK = (byte) 0x00;
+    private static final byte AUTH_WRONG_PIN = (byte) 0x01;
+    private static final byte AUTH_BLOCKED = (byte) 0x02;
+    
+    // INS_AUTHENTICATE: copie du challenge dans le buffer APDU (au-delà de la réponse)
+    private static final short CHALLENGE_OFFSET = (short) 100;
+    
+    // Journal des passages: anneau de JOURNAL_ENTRIES entrées en EEPROM.
+    // Entrée: numéro (2) | horodatage (4) | événement (1) | slot (1) | lecteur (2);
+    // l'hôte fournit horodatage | événement | lecteur (ENTRY_DATA_SIZE octets)
+    private static final short JOURNAL_ENTRIES = (short) 256;
+    private static final short ENTRY_SIZE = (short) 10;
+    private static final short ENTRY_DATA_SIZE = (short) 7;
+    private static final short JOURNAL_HEADER = (short) 2;
+    
+    // Position du journal (RAM, reconstruite à partir des numéros après un reset)
+    private static final short JOURNAL_HEAD = (short) 0;     // prochaine entrée écrite
+    private static final short JOURNAL_COUNT = (short) 1;    // entrées valides
+    private static final short JOURNAL_SEQUENCE = (short) 2; // prochain numéro, 0 = pas encore relu
+    private static final short JOURNAL_STATE_SIZE = (short) 3;
+    
+    // Lecture en cours du journal, poursuivie par GET RESPONSE (rangs depuis la plus ancienne)
+    private static final short CURSOR_NEXT = (short) 0;
+    private static final short CURSOR_END = (short) 1;
+    private static final short CURSOR_SIZE = (short) 2;
+    
+    // IV fixe du chiffrement de la clé stockée (lu seulement, jamais réécrit)
+    private static final byte[] IV = {0x00,0x01,0x02,0x03,0x04,0x05,0x06,0x07,
+                                      0x08,0x09,0x0A,0x0B,0x0C,0x0D,0x0E,0x0F};
+    
+    // État transitoire (RAM, remis à zéro à chaque désélection).
+    // Chaque case contient slot + 1 du slot concerné, 0 si aucun.
+    private static final short STATE_PIN_VERIFIED = (short) 0;
+    private static final short STATE_ENCRYPT_READY = (short) 1;
+    private static final short STATE_DECRYPT_READY = (short) 2;
+    private static final short STATE_CHALLENGE_KEY_READY = (short) 3;
+    private static final short STATE_REENTERED = (short) 4;
+    private static final short STATE_SIZE = (short) 5;
     
     // Codes d'erreur personnalisés
     private static final short SW_PIN_VERIFICATION_REQUIRED = 0x6301;
     private static final short SW_PIN_TRIES_REMAINING = 0x63C0;
     
-    // Stockage
-    private OwnerPIN pin;
-    private byte[] encryptedKey;
-    private byte[] aesKey; 
-    private byte[] userId;
-    private short userIdLength; // ✅ nouvelle variable
-    private AESKey cryptoKey;
-    private Cipher cipher;
-    private boolean pinVerified;
+    // Stockage: une entrée par slot, adressée directement par son index
+    private OwnerPIN[] pins;
+    private byte[] encryptedKeys;
+    private byte[] userIds;
+    private byte[] userIdLengths;
+    // Session ouverte par l'hôte à la dernière authentification, complétée par des zéros
+    private byte[] sessionIds;
+    private byte[] journal;
+    private AESKey[] cryptoKeys;
+    private AESKey challengeKey;
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
+    private Signature challengeMac;
+    
+    // Tampons de travail en RAM, alloués une seule fois
+    private byte[] state;
+    private byte[] scratch;
+    private short[] journalState;
+    private short[] journalCursor;
     
     private AccessControlApplet(byte[] bArray, short bOffset, byte bLength) {
-        pin = new OwnerPIN(PIN_TRY_LIMIT, MAX_PIN_SIZE);
+        pins = new OwnerPIN[MAX_SLOTS];
+        cryptoKeys = new AESKey[MAX_SLOTS];
+        for (short slot = 0; slot < MAX_SLOTS; slot++) {
+            pins[slot] = new OwnerPIN(PIN_TRY_LIMIT, MAX_PIN_SIZE);
+            cryptoKeys[slot] = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, 
+                                                             KeyBuilder.LENGTH_AES_128, 
+                                                             false);
+        }
         
-        encryptedKey = new byte[KEY_SIZE];
-        aesKey = new byte[KEY_SIZE];
-        userId = new byte[USER_ID_SIZE];
-        userIdLength = 0;
+        encryptedKeys = new byte[(short)(MAX_SLOTS * KEY_SIZE)];
+        userIds = new byte[(short)(MAX_SLOTS * USER_ID_SIZE)];
+        userIdLengths = new byte[MAX_SLOTS];
+        sessionIds = new byte[(short)(MAX_SLOTS * SESSION_ID_SIZE)];
+        journal = new byte[(short)(JOURNAL_ENTRIES * ENTRY_SIZE)];
         
-        cryptoKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, 
-                                                  KeyBuilder.LENGTH_AES_128, 
-                                                  false);
-        cipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        encryptCipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        decryptCipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
         
-        pinVerified = false;
+        // Clé privée déchiffrée une fois par sélection, en RAM uniquement
+        challengeKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_DESELECT,
+                                                     KeyBuilder.LENGTH_AES_128,
+                                                     false);
+        challengeMac = Signature.getInstance(Signature.ALG_AES_MAC_128_NOPAD, false);
+        
+        state = JCSystem.makeTransientByteArray(STATE_SIZE, JCSystem.CLEAR_ON_DESELECT);
+        scratch = JCSystem.makeTransientByteArray(KEY_SIZE, JCSystem.CLEAR_ON_DESELECT);
+        journalState = JCSystem.makeTransientShortArray(JOURNAL_STATE_SIZE, JCSystem.CLEAR_ON_RESET);
+        journalCursor = JCSystem.makeTransientShortArray(CURSOR_SIZE, JCSystem.CLEAR_ON_DESELECT);
         
         register();
     }
@@ -57,22 +144,28 @@ public class AccessControlApplet extends Applet {
     }
     
     public boolean select() {
-        pinVerified = false;
+        // L'état transitoire est déjà remis à zéro par la désélection
         return true;
     }
     
     public void deselect() {
-        pin.reset();
-        pinVerified = false;
+        for (short slot = 0; slot < MAX_SLOTS; slot++) {
+            pins[slot].reset();
+        }
     }
     
     public void process(APDU apdu) {
         if (selectingApplet()) {
+            sendCapabilities(apdu);
             return;
         }
         
         byte[] buffer = apdu.getBuffer();
         byte ins = buffer[ISO7816.OFFSET_INS];
+        if (ins != INS_GET_RESPONSE) {
+            // Toute autre commande interrompt une lecture du journal
+            journalCursor[CURSOR_END] = journalCursor[CURSOR_NEXT];
+        }
         
         switch (ins) {
             case INS_SET_PIN: setPin(apdu); break;
@@ -81,53 +174,128 @@ public class AccessControlApplet extends Applet {
             case INS_GET_KEY: getDecryptedKey(apdu); break;
             case INS_RESET_TRIES: resetPinTries(apdu); break;
             case INS_GET_USER_ID: getUserId(apdu); break;
+            case INS_AUTHENTICATE: authenticate(apdu); break;
+            case INS_CHALLENGE: answerChallenge(apdu); break;
+            case INS_LIST_SLOTS: listSlots(apdu); break;
+            case INS_BIND_SESSION: bindSession(apdu); break;
+            case INS_REENTER: reenter(apdu); break;
+            case INS_JOURNAL_APPEND: appendJournal(apdu); break;
+            case INS_JOURNAL_READ: readJournal(apdu); break;
+            case INS_GET_RESPONSE: continueJournal(apdu); break;
             default: ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
         }
     }
     
     /**
-     * Définir le PIN initial + UserID
+     * Réponse au SELECT: version de l'applet et instructions optionnelles supportées
+     */
+    private void sendCapabilities(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        buffer[0] = APPLET_VERSION;
+        buffer[1] = (byte)(CAP_COMBINED_AUTH | CAP_CHALLENGE | CAP_SLOTS | CAP_REENTRY | CAP_JOURNAL);
+        apdu.setOutgoingAndSend((short)0, (short)2);
+    }
+    
+    /**
+     * Slot désigné par P1
+     */
+    private byte selectedSlot(byte[] buffer) {
+        byte slot = buffer[ISO7816.OFFSET_P1];
+        if (slot < 0 || slot >= MAX_SLOTS) {
+            ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+        }
+        return slot;
+    }
+    
+    private void requirePinVerified(byte slot) {
+        if (state[STATE_PIN_VERIFIED] != (byte)(slot + 1)) {
+            ISOException.throwIt(SW_PIN_VERIFICATION_REQUIRED);
+        }
+    }
+    
+    /**
+     * PIN vérifié, ou réentrée sur la session liée au slot pendant cette sélection
+     */
+    private void requireHolder(byte slot) {
+        if (state[STATE_REENTERED] != (byte)(slot + 1)) {
+            requirePinVerified(slot);
+        }
+    }
+    
+    /**
+     * Recevoir les données, en forme courte comme étendue (Lc et données
+     * décalés de deux octets): elles sont ensuite à apdu.getOffsetCdata().
+     * Toutes les données tiennent dans le tampon APDU.
+     * @return longueur des données
+     */
+    private short receiveData(APDU apdu) {
+        short length = apdu.setIncomingAndReceive();
+        if (length != apdu.getIncomingLength()) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        return length;
+    }
+    
+    /**
+     * Définir le PIN initial + UserID du slot P1
      */
     private void setPin(APDU apdu) {
         byte[] buffer = apdu.getBuffer();
-        short bytesRead = apdu.setIncomingAndReceive();
+        byte slot = selectedSlot(buffer);
+        short bytesRead = receiveData(apdu);
+        short cdata = apdu.getOffsetCdata();
 
-        byte pinLength = buffer[ISO7816.OFFSET_CDATA];
+        byte pinLength = buffer[cdata];
         if (pinLength > MAX_PIN_SIZE || pinLength <= 0) {
             ISOException.throwIt(ISO7816.SW_WRONG_DATA);
         }
+        if (bytesRead < (short)(1 + pinLength)) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
 
         // Mise à jour du PIN
-        pin.update(buffer, (short)(ISO7816.OFFSET_CDATA + 1), pinLength);
+        pins[slot].update(buffer, (short)(cdata + 1), pinLength);
 
-        // Extraction UserID
-        short userIdOffset = (short)(ISO7816.OFFSET_CDATA + 1 + pinLength);
-        userIdLength = (short)(bytesRead - 1 - pinLength);
+        // Extraction UserID: n'écrire en EEPROM que ce qui change
+        short userIdOffset = (short)(cdata + 1 + pinLength);
+        short newLength = (short)(bytesRead - 1 - pinLength);
+        if (newLength <= 0 || newLength > USER_ID_SIZE) {
+            newLength = 0;
+        }
 
-        if (userIdLength > 0 && userIdLength <= USER_ID_SIZE) {
-            Util.arrayCopy(buffer, userIdOffset, userId, (short)0, userIdLength);
-            Util.arrayFillNonAtomic(userId, userIdLength, (short)(USER_ID_SIZE - userIdLength), (byte)0);
-        } else {
-            userIdLength = 0;
-            Util.arrayFillNonAtomic(userId, (short)0, USER_ID_SIZE, (byte)0);
+        short base = (short)(slot * USER_ID_SIZE);
+        short oldLength = userIdLengths[slot];
+        if (newLength > 0
+                && Util.arrayCompare(buffer, userIdOffset, userIds, base, newLength) != 0) {
+            Util.arrayCopy(buffer, userIdOffset, userIds, base, newLength);
+        }
+        if (newLength < oldLength) {
+            Util.arrayFillNonAtomic(userIds, (short)(base + newLength), (short)(oldLength - newLength), (byte)0);
+        }
+        if (newLength != oldLength) {
+            userIdLengths[slot] = (byte) newLength;
         }
 
+        // La session liée appartenait au porteur précédent
+        clearSession(slot);
+
         // Génération clé AES dérivée du PIN
-        deriveAESKey(buffer, (short)(ISO7816.OFFSET_CDATA + 1), pinLength);
+        deriveAESKey(slot, buffer, (short)(cdata + 1), pinLength);
     }
     
     private void verifyPin(APDU apdu) {
         byte[] buffer = apdu.getBuffer();
-        byte lc = buffer[ISO7816.OFFSET_LC];
-        if (lc > MAX_PIN_SIZE) {
+        byte slot = selectedSlot(buffer);
+        short length = receiveData(apdu);
+        if (length > MAX_PIN_SIZE) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
-        apdu.setIncomingAndReceive();
         
-        if (pin.check(buffer, ISO7816.OFFSET_CDATA, lc)) {
-            pinVerified = true;
+        OwnerPIN pin = pins[slot];
+        if (pin.check(buffer, apdu.getOffsetCdata(), (byte) length)) {
+            state[STATE_PIN_VERIFIED] = (byte)(slot + 1);
         } else {
-            pinVerified = false;
+            state[STATE_PIN_VERIFIED] = 0;
             byte triesRemaining = pin.getTriesRemaining();
             if (triesRemaining == 0) {
                 ISOException.throwIt(ISO7816.SW_FILE_INVALID);
@@ -138,64 +306,398 @@ public class AccessControlApplet extends Applet {
     }
     
     private void storeEncryptedKey(APDU apdu) {
-        if (!pinVerified) {
-            ISOException.throwIt(SW_PIN_VERIFICATION_REQUIRED);
-        }
         byte[] buffer = apdu.getBuffer();
-        short bytesRead = apdu.setIncomingAndReceive();
+        byte slot = selectedSlot(buffer);
+        requirePinVerified(slot);
+        short bytesRead = receiveData(apdu);
         if (bytesRead != KEY_SIZE) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
-        encryptData(buffer, ISO7816.OFFSET_CDATA, encryptedKey, (short)0, KEY_SIZE);
+        encryptData(slot, buffer, apdu.getOffsetCdata(), encryptedKeys, (short)(slot * KEY_SIZE), KEY_SIZE);
+        if (state[STATE_CHALLENGE_KEY_READY] == (byte)(slot + 1)) {
+            state[STATE_CHALLENGE_KEY_READY] = 0;
+        }
     }
     
     private void getDecryptedKey(APDU apdu) {
-        if (!pinVerified) {
-            ISOException.throwIt(SW_PIN_VERIFICATION_REQUIRED);
-        }
         byte[] buffer = apdu.getBuffer();
-        decryptData(encryptedKey, (short)0, buffer, (short)0, KEY_SIZE);
+        byte slot = selectedSlot(buffer);
+        requirePinVerified(slot);
+        decryptData(slot, encryptedKeys, (short)(slot * KEY_SIZE), buffer, (short)0, KEY_SIZE);
         apdu.setOutgoingAndSend((short)0, KEY_SIZE);
     }
     
+    /**
+     * Répondre à un challenge de l'hôte sans exposer la clé privée.
+     * Données: challenge (16 octets). Réponse: AES-CBC-MAC du challenge sous la clé privée.
+     */
+    private void answerChallenge(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        byte slot = selectedSlot(buffer);
+        requirePinVerified(slot);
+        short bytesRead = receiveData(apdu);
+        if (bytesRead != CHALLENGE_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        prepareChallengeKey(slot);
+        short length = challengeMac.sign(buffer, apdu.getOffsetCdata(), CHALLENGE_SIZE, buffer, (short)0);
+        apdu.setOutgoingAndSend((short)0, length);
+    }
+    
     private void resetPinTries(APDU apdu) {
-        pin.resetAndUnblock();
+        pins[selectedSlot(apdu.getBuffer())].resetAndUnblock();
     }
     
     private void getUserId(APDU apdu) {
         byte[] buffer = apdu.getBuffer();
-        if (userIdLength > 0) {
-            Util.arrayCopy(userId, (short)0, buffer, (short)0, userIdLength);
-            apdu.setOutgoingAndSend((short)0, userIdLength);
+        byte slot = selectedSlot(buffer);
+        short length = userIdLengths[slot];
+        if (length > 0) {
+            Util.arrayCopyNonAtomic(userIds, (short)(slot * USER_ID_SIZE), buffer, (short)0, length);
+        }
+        apdu.setOutgoingAndSend((short)0, length);
+    }
+    
+    /**
+     * Lister les slots occupés en une seule réponse.
+     * Réponse: pour chaque slot, numéro | longueur UserID | UserID
+     */
+    private void listSlots(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        short offset = 0;
+        for (byte slot = 0; slot < MAX_SLOTS; slot++) {
+            short length = userIdLengths[slot];
+            if (length == 0) {
+                continue;
+            }
+            buffer[offset++] = slot;
+            buffer[offset++] = (byte) length;
+            Util.arrayCopyNonAtomic(userIds, (short)(slot * USER_ID_SIZE), buffer, offset, length);
+            offset += length;
+        }
+        apdu.setOutgoingAndSend((short)0, offset);
+    }
+    
+    /**
+     * Authentification en un seul échange sur le slot P1.
+     * Données: longueur PIN | PIN | challenge (16 octets)
+     * Réponse: longueur UserID | UserID | statut | essais restants | MAC du challenge (si PIN correct)
+     * Le MAC est un AES-CBC-MAC du challenge sous la clé privée stockée.
+     */
+    private void authenticate(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        byte slot = selectedSlot(buffer);
+        short bytesRead = receiveData(apdu);
+        short cdata = apdu.getOffsetCdata();
+        
+        byte pinLength = buffer[cdata];
+        if (pinLength > MAX_PIN_SIZE || pinLength <= 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        if (bytesRead != (short)(1 + pinLength + CHALLENGE_SIZE)) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        // Mettre le challenge à l'abri avant d'écrire la réponse
+        Util.arrayCopyNonAtomic(buffer, (short)(cdata + 1 + pinLength),
+                                buffer, CHALLENGE_OFFSET, CHALLENGE_SIZE);
+        
+        OwnerPIN pin = pins[slot];
+        byte status;
+        boolean pinVerified = pin.check(buffer, (short)(cdata + 1), pinLength);
+        state[STATE_PIN_VERIFIED] = pinVerified ? (byte)(slot + 1) : 0;
+        if (pinVerified) {
+            status = AUTH_OK;
+        } else if (pin.getTriesRemaining() == 0) {
+            status = AUTH_BLOCKED;
         } else {
-            apdu.setOutgoingAndSend((short)0, (short)0);
+            status = AUTH_WRONG_PIN;
+        }
+        
+        short userIdLength = userIdLengths[slot];
+        short offset = 0;
+        buffer[offset++] = (byte) userIdLength;
+        Util.arrayCopyNonAtomic(userIds, (short)(slot * USER_ID_SIZE), buffer, offset, userIdLength);
+        offset += userIdLength;
+        buffer[offset++] = status;
+        buffer[offset++] = pin.getTriesRemaining();
+        
+        if (pinVerified) {
+            prepareChallengeKey(slot);
+            offset += challengeMac.sign(buffer, CHALLENGE_OFFSET, CHALLENGE_SIZE, buffer, offset);
+        }
+        
+        apdu.setOutgoingAndSend((short)0, offset);
+    }
+    
+    /**
+     * Lier au slot P1 la session que l'hôte vient d'ouvrir (après le PIN).
+     * Données: identifiant de session (16 octets max).
+     * Une seule écriture persistante: l'identifiant complété est copié d'un bloc.
+     */
+    private void bindSession(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        byte slot = selectedSlot(buffer);
+        requirePinVerified(slot);
+        short bytesRead = receiveData(apdu);
+        if (bytesRead <= 0 || bytesRead > SESSION_ID_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        Util.arrayFillNonAtomic(scratch, (short)0, SESSION_ID_SIZE, (byte)0);
+        Util.arrayCopyNonAtomic(buffer, apdu.getOffsetCdata(), scratch, (short)0, bytesRead);
+        short base = (short)(slot * SESSION_ID_SIZE);
+        if (Util.arrayCompare(scratch, (short)0, sessionIds, base, SESSION_ID_SIZE) != 0) {
+            Util.arrayCopy(scratch, (short)0, sessionIds, base, SESSION_ID_SIZE);
+        }
+        Util.arrayFillNonAtomic(scratch, (short)0, SESSION_ID_SIZE, (byte)0);
+    }
+    
+    /**
+     * Réentrée sans PIN: prouver la possession de la clé pour la session liée.
+     * Données: challenge (16 octets).
+     * Réponse: longueur | identifiant de session | AES-CBC-MAC de (challenge | session complétée)
+     * Aucune écriture persistante (ni compteur d'essais, ni journal).
+     */
+    private void reenter(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        byte slot = selectedSlot(buffer);
+        short bytesRead = receiveData(apdu);
+        if (bytesRead != CHALLENGE_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        short base = (short)(slot * SESSION_ID_SIZE);
+        short length = 0;
+        while (length < SESSION_ID_SIZE && sessionIds[(short)(base + length)] != 0) {
+            length++;
+        }
+        if (length == 0) {
+            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        
+        // Message signé: challenge puis session, à l'abri de la réponse
+        Util.arrayCopyNonAtomic(buffer, apdu.getOffsetCdata(), buffer, CHALLENGE_OFFSET, CHALLENGE_SIZE);
+        Util.arrayCopyNonAtomic(sessionIds, base, buffer, (short)(CHALLENGE_OFFSET + CHALLENGE_SIZE),
+                                SESSION_ID_SIZE);
+        
+        buffer[0] = (byte) length;
+        Util.arrayCopyNonAtomic(sessionIds, base, buffer, (short)1, length);
+        prepareChallengeKey(slot);
+        short offset = (short)(1 + length);
+        offset += challengeMac.sign(buffer, CHALLENGE_OFFSET, (short)(CHALLENGE_SIZE + SESSION_ID_SIZE),
+                                    buffer, offset);
+        state[STATE_REENTERED] = (byte)(slot + 1);
+        apdu.setOutgoingAndSend((short)0, offset);
+    }
+    
+    /**
+     * Ajouter un passage au journal, pour le slot P1.
+     * Données: horodatage (4, fourni par le lecteur) | événement (1) | lecteur (2).
+     * L'entrée est préparée en RAM puis copiée d'un bloc: une seule écriture
+     * persistante, atomique (jamais d'entrée à moitié écrite), et aucun
+     * pointeur de tête en EEPROM; l'usure est répartie sur tout l'anneau.
+     * Réservé au porteur (PIN vérifié ou réentrée): un lecteur quelconque ne
+     * peut pas écraser l'anneau d'entrées inventées.
+     */
+    private void appendJournal(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        byte slot = selectedSlot(buffer);
+        requireHolder(slot);
+        short bytesRead = receiveData(apdu);
+        if (bytesRead != ENTRY_DATA_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
+        loadJournal();
+        short sequence = journalState[JOURNAL_SEQUENCE];
+        Util.setShort(scratch, (short)0, sequence);
+        short cdata = apdu.getOffsetCdata();
+        Util.arrayCopyNonAtomic(buffer, cdata, scratch, (short)2, (short)5);
+        scratch[7] = slot;
+        Util.arrayCopyNonAtomic(buffer, (short)(cdata + 5), scratch, (short)8, (short)2);
+        
+        short head = journalState[JOURNAL_HEAD];
+        Util.arrayCopy(scratch, (short)0, journal, (short)(head * ENTRY_SIZE), ENTRY_SIZE);
+        Util.arrayFillNonAtomic(scratch, (short)0, ENTRY_SIZE, (byte)0);
+        
+        journalState[JOURNAL_HEAD] = (short)(head + 1) == JOURNAL_ENTRIES ? 0 : (short)(head + 1);
+        if (journalState[JOURNAL_COUNT] < JOURNAL_ENTRIES) {
+            journalState[JOURNAL_COUNT]++;
+        }
+        journalState[JOURNAL_SEQUENCE] = nextSequence(sequence);
     }
     
-    private void deriveAESKey(byte[] pinData, short offset, byte length) {
-        Util.arrayFillNonAtomic(aesKey, (short)0, KEY_SIZE, (byte)0);
+    /**
+     * Lire le journal à partir du rang P2 (0 = plus ancienne entrée), pour le
+     * porteur du slot P1 (PIN vérifié ou réentrée).
+     * Réponse: nombre d'entrées (2) | entrées, autant que Le le permet: tout
+     * le journal en une réponse avec un Le étendu; sinon SW 61xx et la suite
+     * par GET RESPONSE. Les entrées partent directement de l'EEPROM.
+     */
+    private void readJournal(APDU apdu) {
+        byte[] buffer = apdu.getBuffer();
+        requireHolder(selectedSlot(buffer));
+        loadJournal();
+        short first = (short)(buffer[ISO7816.OFFSET_P2] & 0xFF);
+        short count = journalState[JOURNAL_COUNT];
+        if (first < 0 || first > count) {
+            ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+        }
+        journalCursor[CURSOR_NEXT] = first;
+        journalCursor[CURSOR_END] = count;
+        Util.setShort(buffer, (short)0, count);
+        sendJournal(apdu, JOURNAL_HEADER);
+    }
+    
+    /**
+     * GET RESPONSE: suite de la lecture du journal en cours
+     */
+    private void continueJournal(APDU apdu) {
+        if (journalCursor[CURSOR_NEXT] >= journalCursor[CURSOR_END]) {
+            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        sendJournal(apdu, (short)0);
+    }
+    
+    /**
+     * Envoyer l'en-tête déjà dans le buffer puis le plus d'entrées possible
+     */
+    private void sendJournal(APDU apdu, short header) {
+        short le = apdu.setOutgoing();
+        short next = journalCursor[CURSOR_NEXT];
+        short remaining = (short)(journalCursor[CURSOR_END] - next);
+        short entries = (short)((short)(le - header) / ENTRY_SIZE);
+        if (entries > remaining) {
+            entries = remaining;
+        }
+        if (le < header || (entries <= 0 && remaining > 0)) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        apdu.setOutgoingLength((short)(header + entries * ENTRY_SIZE));
+        if (header > 0) {
+            apdu.sendBytes((short)0, header);
+        }
+        
+        // Rang 0 = entrée la plus ancienne, juste après la tête une fois l'anneau plein
+        short index = (short)((short)(journalState[JOURNAL_HEAD] - journalState[JOURNAL_COUNT] + next
+                              + JOURNAL_ENTRIES) % JOURNAL_ENTRIES);
+        short run = (short)(JOURNAL_ENTRIES - index);
+        if (run > entries) {
+            run = entries;
+        }
+        apdu.sendBytesLong(journal, (short)(index * ENTRY_SIZE), (short)(run * ENTRY_SIZE));
+        if (run < entries) {
+            apdu.sendBytesLong(journal, (short)0, (short)((short)(entries - run) * ENTRY_SIZE));
+        }
+        
+        journalCursor[CURSOR_NEXT] = (short)(next + entries);
+        remaining -= entries;
+        if (remaining > 0) {
+            short bytes = (short)(remaining * ENTRY_SIZE);
+            ISOException.throwIt((short)(ISO7816.SW_BYTES_REMAINING_00 | (bytes > 255 ? 0 : bytes)));
+        }
+    }
+    
+    /**
+     * Retrouver tête et nombre d'entrées après un reset: les numéros se
+     * suivent jusqu'à la dernière entrée écrite (lecture seule de l'EEPROM)
+     */
+    private void loadJournal() {
+        if (journalState[JOURNAL_SEQUENCE] != 0) {
+            return;
+        }
+        short last = Util.getShort(journal, (short)0);
+        short head = 0;
+        short count = 0;
+        if (last != 0) {
+            short index = 1;
+            while (index < JOURNAL_ENTRIES) {
+                short sequence = Util.getShort(journal, (short)(index * ENTRY_SIZE));
+                if (sequence != nextSequence(last)) {
+                    break;
+                }
+                last = sequence;
+                index++;
+            }
+            head = index == JOURNAL_ENTRIES ? 0 : index;
+            count = Util.getShort(journal, (short)(head * ENTRY_SIZE)) == 0 ? head : JOURNAL_ENTRIES;
+        }
+        journalState[JOURNAL_HEAD] = head;
+        journalState[JOURNAL_COUNT] = count;
+        journalState[JOURNAL_SEQUENCE] = nextSequence(last);
+    }
+    
+    /**
+     * Numéro suivant sur 16 bits, sans 0 (réservé aux entrées jamais écrites)
+     */
+    private static short nextSequence(short sequence) {
+        sequence++;
+        return sequence == 0 ? (short)1 : sequence;
+    }
+    
+    /**
+     * Oublier la session liée au slot (une écriture, seulement si une session est liée)
+     */
+    private void clearSession(byte slot) {
+        short base = (short)(slot * SESSION_ID_SIZE);
+        if (sessionIds[base] != 0) {
+            Util.arrayFillNonAtomic(sessionIds, base, SESSION_ID_SIZE, (byte)0);
+        }
+    }
+    
+    /**
+     * Charger la clé privée déchiffrée du slot dans la clé transitoire, une fois par sélection
+     */
+    private void prepareChallengeKey(byte slot) {
+        if (state[STATE_CHALLENGE_KEY_READY] == (byte)(slot + 1)) {
+            return;
+        }
+        decryptData(slot, encryptedKeys, (short)(slot * KEY_SIZE), scratch, (short)0, KEY_SIZE);
+        challengeKey.setKey(scratch, (short)0);
+        Util.arrayFillNonAtomic(scratch, (short)0, KEY_SIZE, (byte)0);
+        challengeMac.init(challengeKey, Signature.MODE_SIGN);
+        state[STATE_CHALLENGE_KEY_READY] = (byte)(slot + 1);
+    }
+    
+    /**
+     * Dériver la clé de chiffrement du PIN: le calcul se fait en RAM, seule
+     * la clé finale est écrite en EEPROM
+     */
+    private void deriveAESKey(byte slot, byte[] pinData, short offset, byte length) {
+        Util.arrayFillNonAtomic(scratch, (short)0, KEY_SIZE, (byte)0);
         if (length <= KEY_SIZE) {
-            Util.arrayCopy(pinData, offset, aesKey, (short)0, length);
+            Util.arrayCopyNonAtomic(pinData, offset, scratch, (short)0, length);
         } else {
-            Util.arrayCopy(pinData, offset, aesKey, (short)0, KEY_SIZE);
+            Util.arrayCopyNonAtomic(pinData, offset, scratch, (short)0, KEY_SIZE);
         }
         for (short i = 0; i < KEY_SIZE; i++) {
-            aesKey[i] = (byte)(aesKey[i] ^ (byte)0xAA);
+            scratch[i] = (byte)(scratch[i] ^ (byte)0xAA);
         }
-        cryptoKey.setKey(aesKey, (short)0);
+        cryptoKeys[slot].setKey(scratch, (short)0);
+        Util.arrayFillNonAtomic(scratch, (short)0, KEY_SIZE, (byte)0);
+        
+        // Les chiffrements initialisés avec l'ancienne clé ne sont plus valables
+        state[STATE_ENCRYPT_READY] = 0;
+        state[STATE_DECRYPT_READY] = 0;
+        state[STATE_CHALLENGE_KEY_READY] = 0;
     }
     
-    private void encryptData(byte[] input, short inOff, byte[] output, short outOff, short length) {
-        byte[] iv = {0x00,0x01,0x02,0x03,0x04,0x05,0x06,0x07,
-                     0x08,0x09,0x0A,0x0B,0x0C,0x0D,0x0E,0x0F};
-        cipher.init(cryptoKey, Cipher.MODE_ENCRYPT, iv, (short)0, (short)16);
-        cipher.doFinal(input, inOff, length, output, outOff);
+    /**
+     * Chiffrer un bloc avec la clé du slot; le Cipher n'est réinitialisé que
+     * si le slot change au cours de la sélection.
+     * En CBC, doFinal réinitialise l'IV passé à init: chaque appel repart de IV.
+     */
+    private void encryptData(byte slot, byte[] input, short inOff, byte[] output, short outOff, short length) {
+        if (state[STATE_ENCRYPT_READY] != (byte)(slot + 1)) {
+            encryptCipher.init(cryptoKeys[slot], Cipher.MODE_ENCRYPT, IV, (short)0, (short)16);
+            state[STATE_ENCRYPT_READY] = (byte)(slot + 1);
+        }
+        encryptCipher.doFinal(input, inOff, length, output, outOff);
     }
     
-    private void decryptData(byte[] input, short inOff, byte[] output, short outOff, short length) {
-        byte[] iv = {0x00,0x01,0x02,0x03,0x04,0x05,0x06,0x07,
-                     0x08,0x09,0x0A,0x0B,0x0C,0x0D,0x0E,0x0F};
-        cipher.init(cryptoKey, Cipher.MODE_DECRYPT, iv, (short)0, (short)16);
-        cipher.doFinal(input, inOff, length, output, outOff);
+    private void decryptData(byte slot, byte[] input, short inOff, byte[] output, short outOff, short length) {
+        if (state[STATE_DECRYPT_READY] != (byte)(slot + 1)) {
+            decryptCipher.init(cryptoKeys[slot], Cipher.MODE_DECRYPT, IV, (short)0, (short)16);
+            state[STATE_DECRYPT_READY] = (byte)(slot + 1);
+        }
+        decryptCipher.doFinal(input, inOff, length, output, outOff);
     }
 }
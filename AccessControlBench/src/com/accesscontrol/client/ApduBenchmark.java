@@ -0,0 +1,117 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction et décodage des APDU échangés à l'initialisation et à
+ * l'authentification, sans carte: objets CommandAPDU/ResponseAPDU d'un côté,
+ * ApduCodec (tampons directs réutilisés) de l'autre.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApduBenchmark {
+
+    private final byte[] pin = "123456".getBytes();
+    private final char[] pinDigits = "123456".toCharArray();
+    private final byte[] userId = "alice.martin".getBytes();
+    private final byte[] challenge = new byte[ChallengeVerifier.CHALLENGE_SIZE];
+    private byte[] authenticateReply;
+    private byte[] slotsReply;
+    private CardChannel cannedChannel;
+
+    @Setup
+    public void setUp() {
+        // Réponse à INS_AUTHENTICATE: longueur | UserID | statut | essais | MAC, puis SW 9000
+        authenticateReply = new byte[1 + userId.length + 2 + 16 + 2];
+        authenticateReply[0] = (byte) userId.length;
+        System.arraycopy(userId, 0, authenticateReply, 1, userId.length);
+        authenticateReply[1 + userId.length + 1] = 3;
+        authenticateReply[authenticateReply.length - 2] = (byte) 0x90;
+
+        // Réponse à INS_LIST_SLOTS avec tous les slots occupés
+        slotsReply = new byte[AccessControlClient.MAX_SLOTS * (2 + userId.length)];
+        for (int slot = 0; slot < AccessControlClient.MAX_SLOTS; slot++) {
+            int offset = slot * (2 + userId.length);
+            slotsReply[offset] = (byte) slot;
+            slotsReply[offset + 1] = (byte) userId.length;
+            System.arraycopy(userId, 0, slotsReply, offset + 2, userId.length);
+        }
+
+        // Canal qui consomme la commande et renvoie la réponse à INS_AUTHENTICATE
+        cannedChannel = new CardChannel() {
+            @Override
+            public Card getCard() {
+                return null;
+            }
+
+            @Override
+            public int getChannelNumber() {
+                return 0;
+            }
+
+            @Override
+            public ResponseAPDU transmit(CommandAPDU command) {
+                return new ResponseAPDU(authenticateReply);
+            }
+
+            @Override
+            public int transmit(ByteBuffer command, ByteBuffer response) {
+                command.position(command.limit());
+                response.put(authenticateReply);
+                return authenticateReply.length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Benchmark
+    public byte[] encodeSetPin() {
+        return new CommandAPDU(0x00, AccessControlClient.INS_SET_PIN, 0x00, 0x00,
+                               ApduData.setPin(pin, userId)).getBytes();
+    }
+
+    @Benchmark
+    public byte[] encodeAuthenticate() {
+        return new CommandAPDU(0x00, AccessControlClient.INS_AUTHENTICATE, 0x00, 0x00,
+                               ApduData.authenticate(pin, challenge), 256).getBytes();
+    }
+
+    @Benchmark
+    public String decodeAuthenticate() {
+        ResponseAPDU response = new ResponseAPDU(authenticateReply);
+        byte[] reply = response.getData();
+        return response.getSW() == 0x9000 ? new String(reply, 1, reply[0]).trim() : null;
+    }
+
+    /**
+     * Échange INS_AUTHENTICATE complet par le codec: codage, envoi, lecture du statut en place
+     */
+    @Benchmark
+    public int codecAuthenticate() throws Exception {
+        ApduCodec codec = ApduCodec.get();
+        codec.begin(AccessControlClient.INS_AUTHENTICATE, 0x00, 0x00)
+            .put((byte) pinDigits.length).putPin(pinDigits).put(challenge)
+            .transmit(cannedChannel, 256);
+        return codec.byteAt(1 + codec.byteAt(0));
+    }
+
+    @Benchmark
+    public Map<Integer, String> decodeSlots() {
+        return ApduData.parseSlots(slotsReply);
+    }
+}
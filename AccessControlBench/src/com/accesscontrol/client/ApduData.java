@@ -0,0 +1,55 @@
+package com.accesscontrol.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Données d'APDU construites et décodées en tableaux d'octets, pour les bancs
+ * de mesure (le client passe par ApduCodec, sans copie).
+ */
+final class ApduData {
+
+    private ApduData() {
+    }
+
+    /**
+     * Données de INS_SET_PIN: longueur PIN | PIN | UserID
+     */
+    static byte[] setPin(byte[] pinBytes, byte[] userIdBytes) {
+        byte[] data = new byte[1 + pinBytes.length + userIdBytes.length];
+        data[0] = (byte) pinBytes.length;
+        System.arraycopy(pinBytes, 0, data, 1, pinBytes.length);
+        System.arraycopy(userIdBytes, 0, data, 1 + pinBytes.length, userIdBytes.length);
+        return data;
+    }
+
+    /**
+     * Données de INS_AUTHENTICATE: longueur PIN | PIN | challenge
+     */
+    static byte[] authenticate(byte[] pinBytes, byte[] challenge) {
+        int size = ChallengeVerifier.CHALLENGE_SIZE;
+        byte[] data = new byte[1 + pinBytes.length + size];
+        data[0] = (byte) pinBytes.length;
+        System.arraycopy(pinBytes, 0, data, 1, pinBytes.length);
+        System.arraycopy(challenge, 0, data, 1 + pinBytes.length, size);
+        return data;
+    }
+
+    /**
+     * Décoder la réponse à INS_LIST_SLOTS: slot | longueur | UserID, répété pour chaque slot occupé
+     */
+    static Map<Integer, String> parseSlots(byte[] data) {
+        Map<Integer, String> identities = new LinkedHashMap<>();
+        int offset = 0;
+        while (offset + 2 <= data.length) {
+            int slot = data[offset] & 0xFF;
+            int length = data[offset + 1] & 0xFF;
+            if (offset + 2 + length > data.length) {
+                break;
+            }
+            identities.put(slot, new String(data, offset + 2, length).trim());
+            offset += 2 + length;
+        }
+        return identities;
+    }
+}
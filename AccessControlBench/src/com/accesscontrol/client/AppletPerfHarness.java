@@ -0,0 +1,314 @@
+package com.accesscontrol.client;
+
+import com.accesscontrol.AccessControlApplet;
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.Applet;
+import javacard.framework.JCSystem;
+
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Banc de mesure par instruction de AccessControlApplet, exécutée dans le
+ * simulateur jCardSim (dans la JVM). Pour chaque INS: latence de traitement,
+ * mémoire persistante / transitoire consommée et octets persistants modifiés
+ * par appel. Tout est relevé côté simulateur, l'applet n'embarque aucune
+ * instruction de mesure: la mémoire avec JCSystem.getAvailableMemory avant et
+ * après la série, les octets modifiés en comparant l'image persistante de
+ * l'applet (tableaux non transitoires et champs atteints depuis l'instance)
+ * avant et après chaque appel d'un échantillon. Une réécriture à l'identique
+ * n'y apparaît pas.
+ *
+ * Les latences sont celles du simulateur, pas d'une carte réelle: elles
+ * servent à comparer deux versions de l'applet, pas à prédire le temps en porte.
+ *
+ * Usage: AppletPerfHarness [--iterations N] [--json fichier]
+ */
+public class AppletPerfHarness {
+
+    private static final byte INS_RESET_TRIES = (byte) 0x50;
+    private static final int WARMUP = 200;
+    private static final int IMAGE_SAMPLES = 100;
+
+    private static final byte[] PIN = "1234".getBytes();
+    private static final byte[] USER_ID = "alice.martin".getBytes();
+    private static final byte[] KEY = new byte[16];
+    private static final byte[] CHALLENGE = new byte[ChallengeVerifier.CHALLENGE_SIZE];
+    private static final byte[] SESSION_ID = "1a2b3c4d".getBytes();
+    // Horodatage | événement | lecteur
+    private static final byte[] JOURNAL_ENTRY = {0x66, 0x00, 0x00, 0x00, 0x01, 0x12, 0x34};
+
+    private final CardSimulator simulator = new CardSimulator();
+    private final List<Result> results = new ArrayList<>();
+    private Applet applet;
+    private int iterations = 2000;
+    private String jsonFile;
+
+    public static void main(String[] args) throws IOException {
+        AppletPerfHarness harness = new AppletPerfHarness();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--iterations": harness.iterations = Integer.parseInt(args[++i]); break;
+                case "--json": harness.jsonFile = args[++i]; break;
+                default: throw new IllegalArgumentException("Option inconnue: " + args[i]);
+            }
+        }
+        harness.run();
+    }
+
+    private void run() throws IOException {
+        AID aid = AIDUtil.create(AccessControlClient.APPLET_AID);
+        simulator.installApplet(aid, AccessControlApplet.class);
+        if (!simulator.selectApplet(aid)) {
+            throw new IllegalStateException("Sélection de l'applet impossible");
+        }
+        applet = findApplet();
+        for (int i = 0; i < KEY.length; i++) {
+            KEY[i] = (byte) (i * 17);
+        }
+
+        // Ordre imposé par le protocole: SET_PIN puis VERIFY_PIN avant les instructions protégées
+        measure("SET_PIN", new CommandAPDU(0x00, AccessControlClient.INS_SET_PIN, 0x00, 0x00,
+            ApduData.setPin(PIN, USER_ID)));
+        measure("VERIFY_PIN", new CommandAPDU(0x00, AccessControlClient.INS_VERIFY_PIN, 0x00, 0x00, PIN));
+        measure("STORE_KEY", new CommandAPDU(0x00, AccessControlClient.INS_STORE_KEY, 0x00, 0x00, KEY));
+        measure("GET_KEY", new CommandAPDU(0x00, AccessControlClient.INS_GET_KEY, 0x00, 0x00, 16));
+        measure("GET_USER_ID", new CommandAPDU(0x00, AccessControlClient.INS_GET_USER_ID, 0x00, 0x00, 16));
+        measure("CHALLENGE", new CommandAPDU(0x00, AccessControlClient.INS_CHALLENGE, 0x00, 0x00,
+            CHALLENGE, 256));
+        measure("AUTHENTICATE", new CommandAPDU(0x00, AccessControlClient.INS_AUTHENTICATE, 0x00, 0x00,
+            ApduData.authenticate(PIN, CHALLENGE), 256));
+        measure("BIND_SESSION", new CommandAPDU(0x00, AccessControlClient.INS_BIND_SESSION, 0x00, 0x00,
+            SESSION_ID));
+        measure("REENTER", new CommandAPDU(0x00, AccessControlClient.INS_REENTER, 0x00, 0x00, CHALLENGE, 256));
+        // Après les ajouts, l'anneau est plein: la lecture renvoie les 256 entrées (Le étendu)
+        measure("JOURNAL_APPEND", new CommandAPDU(0x00, AccessControlClient.INS_JOURNAL_APPEND, 0x00, 0x00,
+            JOURNAL_ENTRY));
+        measure("JOURNAL_READ", new CommandAPDU(0x00, AccessControlClient.INS_JOURNAL_READ, 0x00, 0x00, 65536));
+        measure("LIST_SLOTS", new CommandAPDU(0x00, AccessControlClient.INS_LIST_SLOTS, 0x00, 0x00, 256));
+        measure("RESET_TRIES", new CommandAPDU(0x00, INS_RESET_TRIES, 0x00, 0x00));
+
+        System.out.printf("%-14s %10s %10s %10s %12s %12s %12s%n",
+            "INS", "p50 (µs)", "p99 (µs)", "max (µs)", "modifiés (o)", "persist. (o)", "transit. (o)");
+        for (Result result : results) {
+            System.out.printf("%-14s %10.1f %10.1f %10.1f %12.2f %12.2f %12.2f%n",
+                result.name, result.latency.percentile(50) / 1e3, result.latency.percentile(99) / 1e3,
+                result.latency.max() / 1e3, result.changedPerCall, result.persistentPerCall,
+                result.transientPerCall);
+        }
+        if (jsonFile != null) {
+            writeJson();
+            System.out.println("Résultats écrits dans " + jsonFile);
+        }
+    }
+
+    /**
+     * Exécuter une instruction WARMUP fois puis iterations fois en mesurant chaque appel
+     */
+    private void measure(String name, CommandAPDU apdu) {
+        for (int i = 0; i < WARMUP; i++) {
+            transmit(name, apdu);
+        }
+
+        Result result = new Result(name);
+        long[] before = availableMemory();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            transmit(name, apdu);
+            result.latency.record(System.nanoTime() - start);
+        }
+        long[] after = availableMemory();
+        result.persistentPerCall = (double) (before[0] - after[0]) / iterations;
+        result.transientPerCall = (double) (before[1] - after[1] + before[2] - after[2]) / iterations;
+
+        // Hors chronométrage: l'image persistante est relevée autour de chaque appel
+        long changed = 0;
+        for (int i = 0; i < IMAGE_SAMPLES; i++) {
+            byte[] image = persistentImage();
+            transmit(name, apdu);
+            changed += changedBytes(image, persistentImage());
+        }
+        result.changedPerCall = (double) changed / IMAGE_SAMPLES;
+        results.add(result);
+    }
+
+    private ResponseAPDU transmit(String name, CommandAPDU apdu) {
+        ResponseAPDU response = simulator.transmitCommand(apdu);
+        if (response.getSW() != 0x9000) {
+            throw new IllegalStateException(name + ": SW=" + String.format("%04X", response.getSW()));
+        }
+        return response;
+    }
+
+    /**
+     * Mémoire disponible (persistante, transitoire reset, transitoire désélection),
+     * lue dans le simulateur
+     */
+    private static long[] availableMemory() {
+        byte[] types = {JCSystem.MEMORY_TYPE_PERSISTENT, JCSystem.MEMORY_TYPE_TRANSIENT_RESET,
+            JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT};
+        short[] words = new short[2];
+        long[] values = new long[types.length];
+        for (int i = 0; i < types.length; i++) {
+            JCSystem.getAvailableMemory(words, (short) 0, types[i]);
+            values[i] = ((words[0] & 0xFFFFL) << 16) | (words[1] & 0xFFFFL);
+        }
+        return values;
+    }
+
+    /**
+     * Instance de l'applet installée, retrouvée dans les objets du simulateur
+     */
+    private Applet findApplet() {
+        Deque<Object> queue = new ArrayDeque<>();
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        queue.add(simulator);
+        while (!queue.isEmpty()) {
+            Object object = queue.poll();
+            if (object instanceof AccessControlApplet) {
+                return (Applet) object;
+            }
+            if (!visited.add(object)) {
+                continue;
+            }
+            if (object instanceof Map) {
+                queue.addAll(((Map<?, ?>) object).values());
+            } else if (object instanceof Collection) {
+                queue.addAll((Collection<?>) object);
+            } else if (object instanceof Object[]) {
+                Collections.addAll(queue, (Object[]) object);
+            } else if (!object.getClass().getName().startsWith("java")) {
+                for (Object value : fieldValues(object)) {
+                    if (value != null) {
+                        queue.add(value);
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("Applet introuvable dans le simulateur");
+    }
+
+    /**
+     * Image de l'état persistant: tableaux non transitoires et champs primitifs
+     * atteints depuis l'applet (OwnerPIN, clés et conteneurs du simulateur compris)
+     */
+    private byte[] persistentImage() {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        appendImage(image, applet, Collections.newSetFromMap(new IdentityHashMap<>()), 0);
+        return image.toByteArray();
+    }
+
+    private static void appendImage(ByteArrayOutputStream image, Object object, Set<Object> visited, int depth) {
+        if (object == null || depth > 4 || !visited.add(object)) {
+            return;
+        }
+        if (object.getClass().isArray()) {
+            if (JCSystem.isTransient(object) != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+                return;
+            }
+            if (object instanceof byte[]) {
+                image.writeBytes((byte[]) object);
+            } else if (object instanceof short[]) {
+                for (short value : (short[]) object) {
+                    image.write(value >> 8);
+                    image.write(value);
+                }
+            } else if (object instanceof boolean[]) {
+                for (boolean value : (boolean[]) object) {
+                    image.write(value ? 1 : 0);
+                }
+            } else if (object instanceof Object[]) {
+                for (Object element : (Object[]) object) {
+                    appendImage(image, element, visited, depth + 1);
+                }
+            }
+            return;
+        }
+        String className = object.getClass().getName();
+        if (!(object instanceof Applet) && !className.startsWith("javacard") && !className.startsWith("com.licel")) {
+            return;
+        }
+        for (Object value : fieldValues(object)) {
+            if (value instanceof Number) {
+                long number = ((Number) value).longValue();
+                image.write((int) (number >> 8));
+                image.write((int) number);
+            } else if (value instanceof Boolean) {
+                image.write((Boolean) value ? 1 : 0);
+            } else {
+                appendImage(image, value, visited, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Valeurs des champs d'instance d'un objet, classes parentes comprises
+     */
+    private static List<Object> fieldValues(Object object) {
+        List<Object> values = new ArrayList<>();
+        for (Class<?> type = object.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || !field.trySetAccessible()) {
+                    continue;
+                }
+                try {
+                    values.add(field.get(object));
+                } catch (IllegalAccessException e) {
+                    // Champ illisible: ignoré dans l'image
+                }
+            }
+        }
+        return values;
+    }
+
+    private static long changedBytes(byte[] before, byte[] after) {
+        int common = Math.min(before.length, after.length);
+        long changed = Math.abs(before.length - after.length);
+        for (int i = 0; i < common; i++) {
+            if (before[i] != after[i]) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private void writeJson() throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(jsonFile)))) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.printf(Locale.ROOT,
+                    "  {\"ins\": \"%s\", \"iterations\": %d, \"p50Nanos\": %d, \"p99Nanos\": %d, "
+                        + "\"maxNanos\": %d, \"persistentBytesChangedPerCall\": %.3f, "
+                        + "\"persistentBytesPerCall\": %.3f, \"transientBytesPerCall\": %.3f}%s%n",
+                    result.name, result.latency.count(), result.latency.percentile(50),
+                    result.latency.percentile(99), result.latency.max(), result.changedPerCall,
+                    result.persistentPerCall, result.transientPerCall, i < results.size() - 1 ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    private static final class Result {
+
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        double changedPerCall;
+        double persistentPerCall;
+        double transientPerCall;
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lancer les benchmarks du client et publier les résultats en JSON.
+ * Usage: BenchmarkMain [fichier.json] [regex de sélection]
+ * Par défaut: bench-results.json, tous les benchmarks du paquetage.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        String resultFile = args.length > 0 ? args[0] : "bench-results.json";
+        String include = args.length > 1 ? args[1] : BenchmarkMain.class.getPackageName() + "\\..*Benchmark";
+
+        Options options = new OptionsBuilder()
+            .include(include)
+            .resultFormat(ResultFormatType.JSON)
+            .result(resultFile)
+            .build();
+        new Runner(options).run();
+        System.out.println("Résultats écrits dans " + resultFile);
+    }
+}
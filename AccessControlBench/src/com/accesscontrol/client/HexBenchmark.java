@@ -0,0 +1,40 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatage hexadécimal d'une clé AES-128: bytesToHex (String.format par
+ * octet) comparé à java.util.HexFormat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+
+    private static final HexFormat HEX = HexFormat.ofDelimiter(" ").withUpperCase();
+
+    private final byte[] key = new byte[16];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (i * 17);
+        }
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return AccessControlClient.bytesToHex(key);
+    }
+
+    @Benchmark
+    public String hexFormat() {
+        return HEX.formatHex(key);
+    }
+}
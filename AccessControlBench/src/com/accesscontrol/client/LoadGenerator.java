@@ -0,0 +1,200 @@
+package com.accesscontrol.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+
+/**
+ * Générateur de charge: une flotte de badges virtuels passe sur des lecteurs
+ * virtuels et chaque passage exécute le vrai Authenticator (logs, sessions,
+ * vérification du challenge compris).
+ *
+ * Les passages sont cadencés à heure fixe: la latence est mesurée depuis
+ * l'heure prévue du passage, un retard du système n'est donc pas masqué.
+ *
+ * Usage: LoadGenerator [--badges N] [--readers N] [--rate passages/s]
+ *                      [--duration s] [--wrong-pin ratio] [--legacy]
+ */
+public class LoadGenerator {
+
+    private static final String CORRECT_PIN = "1234";
+    private static final String WRONG_PIN = "0000";
+
+    private int badgeCount = 1000;
+    private int readerCount = 8;
+    private double rate = 500;
+    private int durationSeconds = 30;
+    private double wrongPinRatio = 0.1;
+    private boolean legacy;
+
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--badges": badgeCount = Integer.parseInt(args[++i]); break;
+                case "--readers": readerCount = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--duration": durationSeconds = Integer.parseInt(args[++i]); break;
+                case "--wrong-pin": wrongPinRatio = Double.parseDouble(args[++i]); break;
+                case "--legacy": legacy = true; break;
+                default: throw new IllegalArgumentException("Option inconnue: " + args[i]);
+            }
+        }
+        if (badgeCount < readerCount) {
+            throw new IllegalArgumentException("Il faut au moins un badge par lecteur");
+        }
+    }
+
+    private void run() throws Exception {
+        Path directory = Files.createTempDirectory("access-load");
+        AccessLogger logger = new AccessLogger(directory);
+        SessionManager sessionManager = new SessionManager(300);
+        BadgeKeyStore keyStore = new BadgeKeyStore(directory.resolve("badge_keys.properties"));
+        ChallengeVerifier verifier = new ChallengeVerifier(keyStore, badgeCount);
+        Authenticator authenticator = new Authenticator(logger, sessionManager, verifier);
+        authenticator.setQuiet(true);
+
+        SimulatedBadge[] fleet = createFleet(keyStore);
+        SimulatedCardTerminals terminals = new SimulatedCardTerminals(readerCount);
+
+        System.out.printf("%d badges, %d lecteurs, %.0f passages/s pendant %d s, %.0f %% de PIN erronés%s%n",
+            badgeCount, readerCount, rate, durationSeconds, wrongPinRatio * 100,
+            legacy ? " (applet sans échange combiné)" : "");
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) * readerCount / rate);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int r = 0; r < readerCount; r++) {
+            int reader = r;
+            Thread worker = new Thread(() -> drive(terminals.reader(reader), reader, fleet, authenticator,
+                sessionManager, start + reader * interval / readerCount, end, interval), "load-" + (r + 1));
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        sessionManager.shutdown();
+        logger.close();
+        keyStore.close();
+        deleteRecursively(directory);
+
+        long taps = responseTime.count();
+        System.out.printf("Passages: %d (%.1f/s) - accordés: %d, refusés: %d, erreurs: %d%n",
+            taps, taps / elapsed, granted.get(), denied.get(), errors.get());
+        System.out.println("Temps de réponse: " + responseTime.summary());
+        System.out.println("Temps de service: " + serviceTime.summary());
+    }
+
+    /**
+     * Personnaliser la flotte directement (sans APDU) et enregistrer les clés
+     */
+    private SimulatedBadge[] createFleet(BadgeKeyStore keyStore) {
+        SecureRandom random = new SecureRandom();
+        SimulatedBadge[] fleet = new SimulatedBadge[badgeCount];
+        Map<String, byte[]> keys = new HashMap<>();
+        for (int i = 0; i < badgeCount; i++) {
+            String userId = String.format("badge-%05d", i);
+            byte[] key = new byte[16];
+            random.nextBytes(key);
+            fleet[i] = new SimulatedBadge(legacy ? AccessControlClient.CAP_CHALLENGE : SimulatedBadge.ALL_CAPABILITIES);
+            fleet[i].personalize(0, userId, CORRECT_PIN, key);
+            keys.put(userId, key);
+        }
+        if (!keyStore.putKeys(keys)) {
+            throw new IllegalStateException("Clés de la flotte non enregistrées");
+        }
+        return fleet;
+    }
+
+    /**
+     * Boucle d'un lecteur; il n'utilise que ses badges (index % readerCount),
+     * un badge n'est donc jamais posé sur deux lecteurs à la fois
+     */
+    private void drive(SimulatedCardTerminal terminal, int reader, SimulatedBadge[] fleet,
+                       Authenticator authenticator, SessionManager sessionManager,
+                       long firstTap, long end, long interval) {
+        int owned = (fleet.length - reader + readerCount - 1) / readerCount;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (long intended = firstTap; intended < end; intended += interval) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long started = System.nanoTime();
+
+            SimulatedBadge badge = fleet[reader + random.nextInt(owned) * readerCount];
+            boolean wrongFirst = random.nextDouble() < wrongPinRatio;
+            int[] attempts = new int[1];
+            PinPad pinPad = (readerName, userId) ->
+                (wrongFirst && attempts[0]++ == 0 ? WRONG_PIN : CORRECT_PIN).toCharArray();
+
+            terminal.insert(badge);
+            Card card = null;
+            try {
+                card = terminal.connect("*");
+                CardChannel channel = card.getBasicChannel();
+                int capabilities = Authenticator.selectApplet(channel);
+                String sessionId = authenticator.authenticate(channel, terminal.getName(), pinPad, capabilities);
+                if (sessionId != null) {
+                    granted.incrementAndGet();
+                    sessionManager.closeSession(sessionId);
+                } else {
+                    denied.incrementAndGet();
+                }
+            } catch (CardException e) {
+                errors.incrementAndGet();
+            } finally {
+                if (card != null) {
+                    try {
+                        card.disconnect(false);
+                    } catch (CardException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+                terminal.remove();
+            }
+
+            long finished = System.nanoTime();
+            responseTime.record(finished - intended);
+            serviceTime.record(finished - started);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
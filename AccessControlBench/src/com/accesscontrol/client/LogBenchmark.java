@@ -0,0 +1,53 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Coût d'un logEvent vu par l'appelant: débit agrégé et distribution de
+ * latence, avec l'écriture asynchrone, l'indexation et la rotation réelles.
+ * Les fichiers sont écrits dans un répertoire temporaire supprimé à la fin.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LogBenchmark {
+
+    private Path directory;
+    private AccessLogger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("access-log-bench");
+        logger = new AccessLogger(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        logger.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void appendThroughput() {
+        logger.logEvent("bench", "ACCESS_GRANTED", "Accès autorisé - Session: bench");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void appendLatency() {
+        logger.logEvent("bench", "AUTH_FAIL", "PIN incorrect");
+    }
+}
@@ -0,0 +1,54 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Décision d'accès sur une politique compilée de 100 000 utilisateurs et
+ * 20 zones, avec et sans plage horaire.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyBenchmark {
+
+    private static final int USERS = 100_000;
+    private static final int ZONES = 20;
+
+    private PolicyEngine.Compiled policy;
+    private String[] userIds;
+    private String[] readers;
+    private int slot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> lines = new ArrayList<>();
+        readers = new String[ZONES];
+        for (int zone = 0; zone < ZONES; zone++) {
+            readers[zone] = "Lecteur " + zone;
+            lines.add("zone z" + zone + " = " + readers[zone]);
+        }
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            lines.add("user " + userIds[i] + " = z" + (i % ZONES) + ", z" + ((i + 1) % ZONES)
+                + "@LUN-VEN 08:00-18:00, z" + ((i + 2) % ZONES) + "@SAM 09:00-12:00");
+        }
+        policy = PolicyEngine.compile(lines);
+        slot = PolicyEngine.slotOf(LocalDateTime.now());
+    }
+
+    @Benchmark
+    public PolicyEngine.Decision decide() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return policy.decide(userIds[random.nextInt(USERS)], readers[random.nextInt(ZONES)], slot);
+    }
+}
@@ -0,0 +1,69 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût des agrégats d'accès: un événement compté depuis 4 threads, et les
+ * requêtes (échecs d'un utilisateur sur 24 heures, durée moyenne par zone)
+ * après 1 000 000 d'événements sur 10 000 utilisateurs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RollupBenchmark {
+
+    private static final int USERS = 10_000;
+    private static final int EVENTS = 1_000_000;
+    private static final String[] TYPES = {"ACCESS_GRANTED", "AUTH_FAIL", "SESSION_CLOSED", "ACCESS_DENIED"};
+
+    private AccessRollups rollups;
+    private String[] userIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rollups = new AccessRollups();
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < EVENTS; i++) {
+            rollups.record(userIds[i % USERS], TYPES[i % TYPES.length], now - (i % 86_400) * 1000L);
+        }
+        for (int i = 0; i < 1000; i++) {
+            SessionManager.SessionInfo session = new SessionManager.SessionInfo(userIds[i], "s" + i, now);
+            session.zone = i % 2 == 0 ? "hall" : "accueil";
+            session.duration = i;
+            rollups.sessionClosed(session);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rollups.stop();
+    }
+
+    @Benchmark
+    public void record() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        rollups.record(userIds[random.nextInt(USERS)], TYPES[random.nextInt(TYPES.length)],
+            System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public long failuresLastDay() {
+        return rollups.countLastHours(userIds[ThreadLocalRandom.current().nextInt(USERS)], "AUTH_FAIL", 24);
+    }
+
+    @Benchmark
+    public double averageSessionByZone() {
+        return rollups.averageSessionSeconds("hall", 7);
+    }
+}
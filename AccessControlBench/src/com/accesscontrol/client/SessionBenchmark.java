@@ -0,0 +1,69 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cycle de vie des sessions sous contention: création, vérification et
+ * fermeture par plusieurs threads sur le même SessionManager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SessionBenchmark {
+
+    private static final int ACTIVE_SESSIONS = 10_000;
+
+    private SessionManager sessionManager;
+    private String[] activeSessions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessionManager = new SessionManager(300);
+        activeSessions = new String[ACTIVE_SESSIONS];
+        for (int i = 0; i < ACTIVE_SESSIONS; i++) {
+            activeSessions[i] = sessionManager.createSession("user" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessionManager.shutdown();
+    }
+
+    /**
+     * Passage complet d'un badge: ouverture, contrôle puis fermeture
+     */
+    @Benchmark
+    public boolean createCheckClose() {
+        String sessionId = sessionManager.createSession("bench");
+        boolean active = sessionManager.isSessionActive(sessionId);
+        sessionManager.closeSession(sessionId);
+        return active;
+    }
+
+    /**
+     * Contrôle d'une session existante parmi ACTIVE_SESSIONS
+     */
+    @Benchmark
+    public boolean checkActive() {
+        return sessionManager.isSessionActive(
+            activeSessions[ThreadLocalRandom.current().nextInt(ACTIVE_SESSIONS)]);
+    }
+
+    /**
+     * Prolongation d'une session existante (réarmement du timeout)
+     */
+    @Benchmark
+    public void renew(Blackhole blackhole) {
+        blackhole.consume(sessionManager.renewSession(
+            activeSessions[ThreadLocalRandom.current().nextInt(ACTIVE_SESSIONS)]));
+    }
+}
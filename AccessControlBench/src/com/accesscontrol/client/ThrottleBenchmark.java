@@ -0,0 +1,61 @@
+package com.accesscontrol.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût du freinage pour un passage légitime (badge sans échec récent) et
+ * pour l'enregistrement d'un échec, avec 8 threads et 1 000 badges en échec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ThrottleBenchmark {
+
+    private static final int USERS = 10_000;
+    private static final int FAILING = 1_000;
+    private static final int READERS = 16;
+
+    private AuthThrottle throttle;
+    private String[] userIds;
+    private String[] readers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        throttle = new AuthThrottle();
+        userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+        }
+        readers = new String[READERS];
+        for (int i = 0; i < READERS; i++) {
+            readers[i] = "Lecteur " + i;
+        }
+        for (int i = 0; i < FAILING; i++) {
+            throttle.recordFailure(userIds[i], null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        throttle.stop();
+    }
+
+    @Benchmark
+    public long checkLegitimate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return throttle.check(userIds[FAILING + random.nextInt(USERS - FAILING)], readers[random.nextInt(READERS)]);
+    }
+
+    @Benchmark
+    public void recordFailure() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        throttle.recordFailure(userIds[random.nextInt(FAILING)], null);
+    }
+}
@@ -3,41 +3,155 @@ package com.accesscontrol.client;
 import javax.smartcardio.*;
 import javax.crypto.*;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 import java.io.*;
-import java.text.SimpleDateFormat;
 
 public class AccessControlClient {
 
-    private static final byte[] APPLET_AID = {
+    static final byte[] APPLET_AID = {
         (byte)0x25, (byte)0x25, (byte)0x25, (byte)0x25, (byte)0x25
     };
 
-    private static final byte INS_SET_PIN = (byte) 0x10;
-    private static final byte INS_VERIFY_PIN = (byte) 0x20;
-    private static final byte INS_STORE_KEY = (byte) 0x30;
-    private static final byte INS_GET_KEY = (byte) 0x40;
-    private static final byte INS_GET_USER_ID = (byte) 0x60;
+    static final byte INS_SET_PIN = (byte) 0x10;
+    static final byte INS_VERIFY_PIN = (byte) 0x20;
+    static final byte INS_STORE_KEY = (byte) 0x30;
+    static final byte INS_GET_KEY = (byte) 0x40;
+    static final byte INS_GET_USER_ID = (byte) 0x60;
+    static final byte INS_AUTHENTICATE = (byte) 0x70;
+    static final byte INS_CHALLENGE = (byte) 0x80;
+    static final byte INS_LIST_SLOTS = (byte) 0x90;
+    static final byte INS_BIND_SESSION = (byte) 0xB0;
+    static final byte INS_REENTER = (byte) 0xB2;
+    static final byte INS_JOURNAL_APPEND = (byte) 0xD0;
+    static final byte INS_JOURNAL_READ = (byte) 0xD2;
+    static final byte INS_GET_RESPONSE = (byte) 0xC0;
+
+    // Capacités annoncées par l'applet dans la réponse au SELECT
+    static final int CAP_COMBINED_AUTH = 0x01;
+    static final int CAP_CHALLENGE = 0x02;
+    static final int CAP_SLOTS = 0x04;
+    static final int CAP_REENTRY = 0x08;
+    static final int CAP_JOURNAL = 0x10;
+
+    // Nombre de slots d'identité de l'applet
+    static final int MAX_SLOTS = 4;
 
     private static final int SESSION_TIMEOUT = 300;
+    private static final String KEY_STORE_FILE = "badge_keys.properties";
+    private static final String CLUSTER_SECRET_FILE = "cluster.secret";
+    private static final String SESSION_DIRECTORY = "sessions";
+    private static final int VERIFIER_CACHE_SIZE = 4096;
+    private static final long CARD_WAIT_TIMEOUT = 5000;
+    private static final String POLICY_FILE = "access_policy.txt";
+    private static final long POLICY_CHECK_INTERVAL = 5;
+    private static final String REVOCATION_FILE = "revoked_badges.bin";
+    private static final long REVOCATION_CHECK_INTERVAL = 5;
+    private static final String METRICS_FILE = "metrics_snapshot.txt";
+    private static final long METRICS_DUMP_INTERVAL = 60;
 
-    private Card card;
-    private CardChannel channel;
+    private volatile CardTerminal activeReader;
+    private volatile CardChannel channel;
+    private volatile int capabilities;
+    private volatile String activeSessionId;
+    private CardPresenceMonitor monitor;
+    private ExecutorService cardEvents;
+    private ConsoleInput input;
     private Scanner scanner;
     private AccessLogger logger;
     private SessionManager sessionManager;
     private PINManager pinManager;
+    private BadgeKeyStore keyStore;
+    private ChallengeVerifier verifier;
+    private Authenticator authenticator;
+    private CardJournal cardJournal;
+    private Prefetcher prefetcher;
+    private ApduMetrics metrics;
+    private PolicyEngine policy;
+    private RevocationList revocations;
+    private AuthThrottle throttle;
+    private KeyGenerator keyGenerator;
 
     public AccessControlClient() {
-        scanner = new Scanner(System.in);
+        this(new LocalSessionStore(), Paths.get(SESSION_DIRECTORY));
+    }
+
+    /**
+     * @param sessionStore sessions locales ou partagées avec d'autres passerelles
+     * @param sessionDirectory répertoire du journal des sessions de ce processus
+     */
+    AccessControlClient(SessionStore sessionStore, Path sessionDirectory) {
+        input = new ConsoleInput(System.in);
+        scanner = new Scanner(input);
         logger = new AccessLogger();
-        sessionManager = new SessionManager(SESSION_TIMEOUT);
+        sessionManager = new SessionManager(SESSION_TIMEOUT, sessionStore);
         pinManager = new PINManager();
+        keyStore = new BadgeKeyStore(Paths.get(KEY_STORE_FILE));
+        verifier = new ChallengeVerifier(keyStore, VERIFIER_CACHE_SIZE);
+        authenticator = new Authenticator(logger, sessionManager, verifier);
+        prefetcher = new Prefetcher();
+        prefetcher.register(verifier::warm);
+        policy = new PolicyEngine(Paths.get(POLICY_FILE));
+        policy.watch(POLICY_CHECK_INTERVAL);
+        authenticator.setPolicy(policy);
+        revocations = new RevocationList(Paths.get(REVOCATION_FILE));
+        revocations.watch(REVOCATION_CHECK_INTERVAL);
+        authenticator.setRevocations(revocations);
+        prefetcher.register(revocations::warm);
+        throttle = new AuthThrottle();
+        authenticator.setThrottle(throttle);
+        cardJournal = new CardJournal();
+        authenticator.setCardJournal(cardJournal);
+        sessionManager.setListener(this::onSessionExpired);
+        sessionManager.setRollups(logger.rollups());
+        try {
+            int restored = sessionManager.attachJournal(new SessionJournal(sessionDirectory));
+            if (restored > 0) {
+                System.out.println("✓ " + restored + " session(s) restaurée(s)");
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la restauration des sessions: " + e.getMessage());
+        }
+        metrics = new ApduMetrics(sessionManager, logger);
+        metrics.register();
+        metrics.startDump(Paths.get(METRICS_FILE), METRICS_DUMP_INTERVAL);
     }
 
     public static void main(String[] args) {
+        if (args.length > 1 && args[0].equals("--revoke")) {
+            publishRevocations(Paths.get(args[1]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--gateway")) {
+            Map<String, String> options = new HashMap<>();
+            for (int i = 1; i + 1 < args.length; i += 2) {
+                options.put(args[i], args[i + 1]);
+            }
+            AccessControlClient gateway = options.containsKey("--cluster")
+                ? clusterNode(options.get("--cluster"), options.getOrDefault("--node", ""))
+                : new AccessControlClient();
+            if (gateway != null) {
+                if (options.containsKey("--reentry")) {
+                    gateway.authenticator.setReentryWindow(Integer.parseInt(options.get("--reentry")));
+                }
+                gateway.runGateway();
+            }
+            return;
+        }
         AccessControlClient client = new AccessControlClient();
+        if (args.length > 1 && args[0].equals("--provision")) {
+            client.runProvisioning(Paths.get(args[1]));
+            return;
+        }
         try {
             client.connectToSimulator();
             client.run();
@@ -49,40 +163,218 @@ public class AccessControlClient {
         }
     }
 
-    private void connectToSimulator() throws Exception {
-        
+    /**
+     * Passerelle membre d'un groupe partageant ses sessions, par exemple
+     * --gateway --cluster 7001,7002,7003 --node 7001 (un processus par port)
+     * @return null si le groupe n'a pas pu être rejoint
+     */
+    private static AccessControlClient clusterNode(String cluster, String node) {
+        try {
+            List<Integer> nodes = new ArrayList<>();
+            for (String port : cluster.split(",")) {
+                nodes.add(Integer.parseInt(port.strip()));
+            }
+            int port = Integer.parseInt(node.strip());
+            ShardedSessionStore store = new ShardedSessionStore(port, nodes,
+                ShardedSessionStore.loadSecret(Paths.get(CLUSTER_SECRET_FILE)));
+            store.start();
+            System.out.println("✓ Nœud de sessions " + port + " (groupe " + nodes + ")");
+            return new AccessControlClient(store, Paths.get(SESSION_DIRECTORY + "-" + port));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Erreur lors du démarrage du nœud de sessions: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Publier la liste de révocation à partir d'un fichier texte (un ID par ligne);
+     * les contrôleurs en marche la prennent en compte en quelques secondes
+     */
+    private static void publishRevocations(Path textFile) {
+        try {
+            RevocationList.publish(textFile, Paths.get(REVOCATION_FILE));
+            System.out.println("✓ Liste de révocation publiée: " + REVOCATION_FILE);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Erreur lors de la publication: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Ouvrir la liste des lecteurs exposés par le simulateur
+     */
+    private static CardTerminals openTerminals() throws Exception {
         TerminalFactory factory = TerminalFactory.getInstance(
         	    "SocketCardTerminalFactoryType",
         	    List.of(new InetSocketAddress("localhost", 9026)),
         	    "SocketCardTerminalProvider"
         	);
+        return factory.terminals();
+    }
 
+    /**
+     * Mode passerelle: servir tous les lecteurs en parallèle, sans menu
+     */
+    private void runGateway() {
+        ReaderGateway gateway = null;
+        try {
+            gateway = new ReaderGateway(openTerminals(), authenticator, this::promptPIN, prefetcher, metrics);
+            gateway.start();
+            System.out.println("Passerelle démarrée. Appuyez sur Entrée pour arrêter...\n");
+            synchronized (scanner) {
+                scanner.nextLine();
+            }
+        } catch (Exception e) {
+            System.err.println("Erreur: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (gateway != null) {
+                try {
+                    gateway.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            prefetcher.shutdown();
+            policy.stop();
+            revocations.stop();
+            throttle.stop();
+            metrics.stop(Paths.get(METRICS_FILE));
+            sessionManager.shutdown();
+            logger.close();
+        }
+    }
 
-        List<CardTerminal> terminals = factory.terminals().list();
-        if (terminals.isEmpty()) {
-            throw new CardException("❌ Aucun terminal détecté sur le simulateur.");
+    /**
+     * Initialisation d'un lot de badges sur tous les lecteurs (interruptible:
+     * relancer la même commande reprend le lot)
+     */
+    private void runProvisioning(Path manifest) {
+        BulkProvisioner provisioner = null;
+        try {
+            provisioner = new BulkProvisioner(openTerminals(), keyStore, verifier, logger, manifest, metrics);
+            provisioner.start();
+            provisioner.awaitCompletion();
+        } catch (Exception e) {
+            System.err.println("Erreur: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (provisioner != null) {
+                try {
+                    provisioner.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            prefetcher.shutdown();
+            policy.stop();
+            revocations.stop();
+            throttle.stop();
+            metrics.stop(Paths.get(METRICS_FILE));
+            sessionManager.shutdown();
+            logger.close();
         }
+    }
 
-        CardTerminal terminal = terminals.get(0);
-        System.out.println("✅ Connecté au terminal: " + terminal.getName());
+    /**
+     * Saisie du PIN sur la console, partagée entre les lecteurs
+     */
+    private char[] promptPIN(String readerName, String userId) {
+        synchronized (scanner) {
+            if (readerName == null) {
+                System.out.print("Entrez votre PIN: ");
+            } else if (userId == null) {
+                System.out.print("[" + readerName + "] Entrez votre PIN: ");
+            } else {
+                System.out.print("[" + readerName + "] PIN pour " + userId + ": ");
+            }
+            return PINManager.readSecret(input);
+        }
+    }
 
-        if (!terminal.waitForCardPresent(5000)) {
-            throw new CardException("❌ Aucune carte présente dans le simulateur.");
+    /**
+     * Surveiller les lecteurs du simulateur: le dernier badge posé devient le
+     * badge actif, il est reconnecté automatiquement s'il est retiré puis reposé
+     */
+    private void connectToSimulator() throws Exception {
+        CardTerminals terminals = openTerminals();
+        List<CardTerminal> readers = terminals.list();
+        if (readers.isEmpty()) {
+            throw new CardException("❌ Aucun terminal détecté sur le simulateur.");
+        }
+        for (CardTerminal reader : readers) {
+            System.out.println("✅ Connecté au terminal: " + reader.getName());
         }
 
-        card = terminal.connect("*");
-        channel = card.getBasicChannel();
+        cardEvents = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "card-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor = new CardPresenceMonitor(terminals, new CardPresenceMonitor.Listener() {
+            @Override
+            public void cardInserted(CardTerminal reader, CardChannel newChannel, int newCapabilities) {
+                onCardInserted(reader, newChannel, newCapabilities);
+            }
 
-        ResponseAPDU response = channel.transmit(
-            new CommandAPDU(0x00, 0xA4, 0x04, 0x00, APPLET_AID)
-        );
+            @Override
+            public void cardRemoved(CardTerminal reader) {
+                onCardRemoved(reader);
+            }
+        }, cardEvents, metrics);
+        monitor.start();
 
-        if (response.getSW() != 0x9000) {
-            throw new CardException("❌ Échec de sélection de l'applet, SW=" + String.format("%04X", response.getSW()));
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + CARD_WAIT_TIMEOUT;
+            while (channel == null && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        }
+        if (channel == null) {
+            System.out.println("⚠ Aucune carte présente: posez un badge sur un lecteur.\n");
         }
+    }
 
-        System.out.println("✅ Applet sélectionnée avec succès\n");
+    private synchronized void onCardInserted(CardTerminal reader, CardChannel newChannel, int newCapabilities) {
+        // Précharger les données des identités du badge avant même le choix du menu
+        try {
+            for (String userId : Authenticator.listSlots(newChannel, newCapabilities).values()) {
+                prefetcher.prefetch(userId);
+            }
+        } catch (CardException e) {
+            System.err.println("Erreur lors de la lecture des identités: " + e.getMessage());
+        }
+        activeReader = reader;
+        capabilities = newCapabilities;
+        channel = newChannel;
+        System.out.println("\n✅ Badge détecté sur " + reader.getName() + ", applet sélectionnée\n");
+        notifyAll();
+    }
+
+    /**
+     * Retrait du badge actif: plus de canal, la session en cours est fermée
+     */
+    private synchronized void onCardRemoved(CardTerminal reader) {
+        if (reader != activeReader) {
+            return;
+        }
+        channel = null;
+        activeReader = null;
+        System.out.println("\n⚠ Badge retiré de " + reader.getName());
+        String sessionId = activeSessionId;
+        if (sessionId != null) {
+            authenticator.closeSession(sessionId, null, "Badge retiré");
+        }
+    }
+
+    /**
+     * Canal du badge actif, ou null (avec un message) si aucun badge n'est posé
+     */
+    private CardChannel requireCard() {
+        CardChannel current = channel;
+        if (current == null) {
+            System.out.println("Aucun badge présent sur le lecteur\n");
+        }
+        return current;
     }
 
     /**
@@ -98,15 +390,24 @@ public class AccessControlClient {
             
             switch (choice) {
                 case 1:
-                    initializeUser();
+                    runCardAction(this::initializeUser);
                     break;
                 case 2:
-                    authenticate();
+                    runCardAction(this::authenticate);
                     break;
                 case 3:
                     displayAccessLogs();
                     break;
                 case 4:
+                    searchAccessLogs();
+                    break;
+                case 5:
+                    runCardAction(this::readCardJournal);
+                    break;
+                case 6:
+                    displayStatistics();
+                    break;
+                case 7:
                     running = false;
                     System.out.println("Au revoir!");
                     break;
@@ -116,6 +417,26 @@ public class AccessControlClient {
         }
     }
     
+    /**
+     * Action sur le badge: une erreur carte (badge retiré en cours d'échange)
+     * ramène au menu au lieu de quitter l'application
+     */
+    private void runCardAction(CardAction action) throws Exception {
+        CardChannel current = requireCard();
+        if (current == null) {
+            return;
+        }
+        try {
+            action.run(current);
+        } catch (CardException | IllegalStateException e) {
+            System.out.println("Erreur carte: " + e.getMessage() + "\n");
+        }
+    }
+
+    private interface CardAction {
+        void run(CardChannel channel) throws Exception;
+    }
+    
     /**
      * Afficher le menu principal
      */
@@ -124,14 +445,17 @@ public class AccessControlClient {
         System.out.println("1. Initialiser un nouveau badge");
         System.out.println("2. S'authentifier");
         System.out.println("3. Afficher les logs d'accès");
-        System.out.println("4. Quitter");
+        System.out.println("4. Rechercher dans les logs");
+        System.out.println("5. Lire le journal du badge");
+        System.out.println("6. Statistiques d'accès");
+        System.out.println("7. Quitter");
         System.out.print("Choix: ");
     }
     
     /**
      * Initialiser un nouvel utilisateur
      */
-    private void initializeUser() throws Exception {
+    private void initializeUser(CardChannel channel) throws Exception {
         System.out.println("\n=== INITIALISATION DU BADGE ===");
         
         // Demander l'ID utilisateur
@@ -142,51 +466,59 @@ public class AccessControlClient {
             userId = userId.substring(0, 16);
         }
         
+        int slot = 0;
+        if ((capabilities & CAP_SLOTS) != 0) {
+            slot = requestSlot(channel);
+            if (slot < 0) {
+                System.out.println("Slot invalide\n");
+                return;
+            }
+        }
+        
         // Demander le PIN
-        String pin = pinManager.requestNewPIN(scanner);
+        char[] pin = pinManager.requestNewPIN(input);
         
         if (pin == null) {
             System.out.println("Initialisation annulée\n");
             return;
         }
         
-        // Envoyer PIN et UserID à la carte
-        byte[] pinBytes = pin.getBytes();
-        byte[] userIdBytes = userId.getBytes();
-        byte[] data = new byte[1 + pinBytes.length + userIdBytes.length];
-        
-        data[0] = (byte) pinBytes.length;
-        System.arraycopy(pinBytes, 0, data, 1, pinBytes.length);
-        System.arraycopy(userIdBytes, 0, data, 1 + pinBytes.length, userIdBytes.length);
-        
-        ResponseAPDU response = channel.transmit(
-            new CommandAPDU(0x00, INS_SET_PIN, 0x00, 0x00, data)
-        );
-        
-        if (response.getSW() != 0x9000) {
-            System.out.println("Erreur lors de la configuration du PIN\n");
-            return;
+        // Envoyer PIN et UserID à la carte (longueur PIN | PIN | UserID)
+        ApduCodec codec = ApduCodec.get();
+        byte[] privateKey;
+        try {
+            int sw = codec.begin(INS_SET_PIN, slot, 0x00)
+                .put((byte) pin.length).putPin(pin).put(userId.getBytes())
+                .transmit(channel, 0);
+            
+            if (sw != ApduCodec.SW_OK) {
+                System.out.println("Erreur lors de la configuration du PIN\n");
+                return;
+            }
+            
+            // Générer et stocker la clé privée
+            privateKey = generatePrivateKey();
+            
+            // Vérifier le PIN avant de stocker la clé
+            sw = codec.begin(INS_VERIFY_PIN, slot, 0x00).putPin(pin).transmit(channel, 0);
+            
+            if (sw != ApduCodec.SW_OK) {
+                System.out.println("Erreur de vérification du PIN\n");
+                return;
+            }
+        } finally {
+            Arrays.fill(pin, '\0');
         }
         
-        // Générer et stocker la clé privée
-        byte[] privateKey = generatePrivateKey();
-        
-        // Vérifier le PIN avant de stocker la clé
-        response = channel.transmit(
-            new CommandAPDU(0x00, INS_VERIFY_PIN, 0x00, 0x00, pinBytes)
-        );
-        
-        if (response.getSW() != 0x9000) {
-            System.out.println("Erreur de vérification du PIN\n");
+        // Enregistrer la clé côté contrôleur avant de la confier au badge
+        if (!keyStore.putKey(userId, privateKey)) {
+            System.out.println("Erreur lors de l'enregistrement de la clé\n");
             return;
         }
+        verifier.invalidate(userId);
         
         // Stocker la clé chiffrée
-        response = channel.transmit(
-            new CommandAPDU(0x00, INS_STORE_KEY, 0x00, 0x00, privateKey)
-        );
-        
-        if (response.getSW() != 0x9000) {
+        if (codec.begin(INS_STORE_KEY, slot, 0x00).put(privateKey).transmit(channel, 0) != ApduCodec.SW_OK) {
             System.out.println("Erreur lors du stockage de la clé\n");
             return;
         }
@@ -199,123 +531,78 @@ public class AccessControlClient {
     }
     
     /**
-     * Processus d'authentification A2F
+     * Demander le slot à initialiser
+     * @return le slot, ou -1 si la saisie est invalide
      */
-    private void authenticate() throws Exception {
-        System.out.println("\n=== AUTHENTIFICATION A2F ===");
-        
-        // Récupérer l'ID utilisateur depuis la carte
-        ResponseAPDU response = channel.transmit(
-            new CommandAPDU(0x00, INS_GET_USER_ID, 0x00, 0x00, 16)
-        );
-        
-        if (response.getSW() != 0x9000) {
-            System.out.println("Erreur lors de la lecture de la carte\n");
-            return;
+    private int requestSlot(CardChannel channel) throws CardException {
+        Map<Integer, String> identities = Authenticator.listSlots(channel, capabilities);
+        System.out.println("Slots occupés: " + (identities.isEmpty() ? "aucun" : identities));
+        System.out.print("Slot (0-" + (MAX_SLOTS - 1) + ", vide = 0): ");
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) {
+            return 0;
         }
-        
-        String userId = new String(response.getData()).trim();
-        System.out.println("Badge détecté: " + userId);
-        
-        // FACTEUR 1: Vérification du PIN
-        System.out.println("\n--- Facteur 1: Vérification PIN ---");
-        boolean pinValid = false;
-        int attempts = 0;
-        int maxAttempts = 3;
-        
-        while (!pinValid && attempts < maxAttempts) {
-            System.out.print("Entrez votre PIN: ");
-            String pin = scanner.nextLine();
-            
-            response = channel.transmit(
-                new CommandAPDU(0x00, INS_VERIFY_PIN, 0x00, 0x00, pin.getBytes())
-            );
-            
-            int sw = response.getSW();
-            
-            if (sw == 0x9000) {
-                pinValid = true;
-                System.out.println("✓ PIN correct");
-            } else if ((sw & 0xFFF0) == 0x63C0) {
-                attempts++;
-                int remaining = sw & 0x000F;
-                System.out.println("✗ PIN incorrect. Tentatives restantes: " + remaining);
-                logger.logEvent(userId, "AUTH_FAIL", "PIN incorrect");
-            } else if (sw == 0x6983) {
-                System.out.println("✗ Carte bloquée. Contactez l'administrateur.\n");
-                logger.logEvent(userId, "BLOCKED", "Carte bloquée");
-                return;
-            } else {
-                System.out.println("✗ Erreur de vérification\n");
-                return;
-            }
+        try {
+            int slot = Integer.parseInt(input);
+            return slot >= 0 && slot < MAX_SLOTS ? slot : -1;
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        
-        if (!pinValid) {
-            System.out.println("Nombre maximum de tentatives atteint\n");
-            return;
+    }
+    
+    /**
+     * Choisir l'identité à authentifier quand la carte en porte plusieurs
+     */
+    private int chooseSlot(Map<Integer, String> identities) {
+        if (identities.size() <= 1) {
+            return identities.isEmpty() ? 0 : identities.keySet().iterator().next();
         }
-        
-        // FACTEUR 2: Vérification de la clé privée
-        System.out.println("\n--- Facteur 2: Vérification Clé Privée ---");
-        
-        response = channel.transmit(
-            new CommandAPDU(0x00, INS_GET_KEY, 0x00, 0x00, 16)
-        );
-        
-        if (response.getSW() != 0x9000) {
-            System.out.println("✗ Erreur lors de la récupération de la clé\n");
-            logger.logEvent(userId, "AUTH_FAIL", "Erreur clé privée");
-            return;
+        System.out.println("Identités présentes sur le badge:");
+        for (Map.Entry<Integer, String> entry : identities.entrySet()) {
+            System.out.println("  " + entry.getKey() + ". " + entry.getValue());
         }
-        
-        byte[] retrievedKey = response.getData();
-        
-        // Challenge cryptographique simple
-        if (verifyCryptographicChallenge(retrievedKey)) {
-            System.out.println("✓ Clé privée validée");
-            
-            // Authentification réussie
-            System.out.println("\n✓✓✓ ACCÈS ACCORDÉ ✓✓✓");
-            
-            // Démarrer une session
-            String sessionId = sessionManager.createSession(userId);
-            logger.logEvent(userId, "ACCESS_GRANTED", "Accès autorisé - Session: " + sessionId);
-            
-            // Simuler la gestion de session
-            manageSession(userId, sessionId);
-            
-        } else {
-            System.out.println("✗ Clé privée invalide");
-            System.out.println("\n✗✗✗ ACCÈS REFUSÉ ✗✗✗\n");
-            logger.logEvent(userId, "AUTH_FAIL", "Clé privée invalide");
+        System.out.print("Slot: ");
+        String input = scanner.nextLine().trim();
+        try {
+            int slot = Integer.parseInt(input);
+            if (identities.containsKey(slot)) {
+                return slot;
+            }
+        } catch (NumberFormatException e) {
+            // Repli sur la première identité
+        }
+        return identities.keySet().iterator().next();
+    }
+    
+    /**
+     * Processus d'authentification A2F
+     */
+    private void authenticate(CardChannel channel) throws Exception {
+        Map<Integer, String> identities = Authenticator.listSlots(channel, capabilities);
+        int slot = chooseSlot(identities);
+        String sessionId = authenticator.authenticate(channel, null, this::promptPIN, capabilities,
+                                                      slot, identities.get(slot));
+        if (sessionId != null) {
+            // La session est fermée au retrait du badge (voir onCardRemoved)
+            activeSessionId = sessionId;
+            try {
+                manageSession(sessionManager.getUserId(sessionId), sessionId);
+            } finally {
+                activeSessionId = null;
+            }
         }
     }
     
     /**
      * Gérer la session active
      */
-    private void manageSession(String userId, String sessionId) throws InterruptedException {
+    private void manageSession(String userId, String sessionId) {
         System.out.println("\n=== SESSION ACTIVE ===");
         System.out.println("Session ID: " + sessionId);
-        System.out.println("Timeout: " + SESSION_TIMEOUT + " secondes");
+        System.out.println("Timeout: " + sessionManager.getTimeout(userId) + " secondes");
         System.out.println("Appuyez sur Entrée pour terminer la session manuellement...\n");
         
-        // Thread pour surveiller le timeout
-        Thread timeoutThread = new Thread(() -> {
-            try {
-                Thread.sleep(SESSION_TIMEOUT * 1000);
-                if (sessionManager.isSessionActive(sessionId)) {
-                    System.out.println("\n⚠ SESSION EXPIRÉE (timeout)");
-                    sessionManager.closeSession(sessionId);
-                    logger.logEvent(userId, "SESSION_TIMEOUT", "Session expirée");
-                }
-            } catch (InterruptedException e) {
-                // Thread interrompu
-            }
-        });
-        
-        timeoutThread.start();
+        // L'expiration est surveillée par le SessionManager (voir onSessionExpired)
         scanner.nextLine(); // Attendre l'entrée utilisateur
         
         // Fermer la session manuellement
@@ -325,7 +612,60 @@ public class AccessControlClient {
             logger.logEvent(userId, "SESSION_CLOSED", "Session fermée par l'utilisateur");
         }
         
-        timeoutThread.interrupt();
+        System.out.println();
+    }
+    
+    /**
+     * Notification d'expiration d'une session par le SessionManager
+     */
+    private void onSessionExpired(SessionManager.SessionInfo session) {
+        System.out.println("\n⚠ SESSION EXPIRÉE (timeout) - " + session.sessionId);
+        logger.logEvent(session.userId, "SESSION_TIMEOUT", "Session expirée");
+    }
+    
+    /**
+     * Relire le journal tenu par le badge et le reporter dans les logs
+     * (passages notés par des lecteurs hors ligne, par exemple).
+     * La carte ne le livre qu'au porteur: PIN d'un des slots d'abord.
+     */
+    private void readCardJournal(CardChannel channel) throws CardException {
+        if ((capabilities & CAP_JOURNAL) == 0) {
+            System.out.println("Ce badge ne tient pas de journal\n");
+            return;
+        }
+        Map<Integer, String> identities = Authenticator.listSlots(channel, capabilities);
+        int slot = chooseSlot(identities);
+        char[] pin = promptPIN(null, null);
+        if (pin == null) {
+            System.out.println("Lecture du journal annulée\n");
+            return;
+        }
+        int sw;
+        try {
+            sw = ApduCodec.get().begin(INS_VERIFY_PIN, slot, 0x00).putPin(pin).transmit(channel, 0);
+        } finally {
+            Arrays.fill(pin, '\0');
+        }
+        if ((sw & 0xFFF0) == 0x63C0) {
+            System.out.println("✗ PIN incorrect. Tentatives restantes: " + (sw & 0x000F) + "\n");
+            logger.logEvent(identities.getOrDefault(slot, "slot " + slot), "AUTH_FAIL",
+                "PIN incorrect (lecture du journal)");
+            return;
+        }
+        if (sw != ApduCodec.SW_OK) {
+            System.out.println("✗ Erreur de vérification\n");
+            return;
+        }
+        List<CardJournal.Entry> entries = cardJournal.read(channel, slot, null);
+        System.out.println("\n=== JOURNAL DU BADGE (" + entries.size() + " passages) ===");
+        for (CardJournal.Entry entry : entries) {
+            String userId = identities.getOrDefault(entry.slot, "slot " + entry.slot);
+            String time = AsyncLogWriter.DATE_FORMAT.format(Instant.ofEpochSecond(entry.timestamp));
+            String reader = cardJournal.readerName(entry.readerId);
+            System.out.printf("#%-5d %s  %-14s %-16s %s%n", entry.sequence, time, entry.eventName(), userId, reader);
+            logger.logEvent(userId, "CARD_JOURNAL",
+                entry.eventName() + " - " + reader + " - " + time + " (n° " + entry.sequence + ")");
+        }
         System.out.println();
     }
     
@@ -339,39 +679,91 @@ public class AccessControlClient {
     }
     
     /**
-     * Générer une clé privée aléatoire (16 bytes pour AES-128)
+     * Statistiques tenues à jour à chaque événement: activité d'un utilisateur
+     * et durée des sessions par zone, sans relire les logs
      */
-    private byte[] generatePrivateKey() throws NoSuchAlgorithmException {
-        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-        keyGen.init(128);
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+    private void displayStatistics() {
+        AccessRollups rollups = logger.rollups();
+        System.out.println("\n=== STATISTIQUES D'ACCÈS ===");
+        System.out.print("Utilisateur (vide = aucun): ");
+        String userId = scanner.nextLine().trim();
+        if (!userId.isEmpty()) {
+            System.out.println(String.format("%-16s %10s %10s %10s", "Type", "1 heure", "24 heures", "30 jours"));
+            System.out.println("-".repeat(49));
+            for (String eventType : rollups.eventTypes()) {
+                long month = rollups.countLastDays(userId, eventType, 30);
+                if (month > 0) {
+                    System.out.println(String.format("%-16s %10d %10d %10d", eventType,
+                        rollups.countLastHours(userId, eventType, 1),
+                        rollups.countLastHours(userId, eventType, 24), month));
+                }
+            }
+        }
+        System.out.println(String.format("%n%-16s %10s %16s", "Zone (7 jours)", "Sessions", "Durée moyenne"));
+        System.out.println("-".repeat(44));
+        for (String zone : rollups.zones()) {
+            long sessions = Arrays.stream(rollups.durationHistogram(zone, 7)).sum();
+            if (sessions > 0) {
+                System.out.println(String.format("%-16s %10d %14.0f s", zone, sessions,
+                    rollups.averageSessionSeconds(zone, 7)));
+            }
+        }
+        System.out.println();
     }
     
     /**
-     * Vérifier un challenge cryptographique avec la clé
+     * Rechercher dans le journal indexé par utilisateur, type et période
      */
-    private boolean verifyCryptographicChallenge(byte[] key) {
-        // Challenge simple: vérifier que la clé a la bonne taille et n'est pas nulle
-        if (key == null || key.length != 16) {
-            return false;
+    private void searchAccessLogs() {
+        System.out.println("\n=== RECHERCHE DANS LES LOGS ===");
+        System.out.print("Utilisateur (vide = tous): ");
+        String userId = scanner.nextLine().trim();
+        System.out.print("Type d'événement (vide = tous): ");
+        String eventType = scanner.nextLine().trim();
+        System.out.print("Du (yyyy-MM-dd, vide = début): ");
+        String from = scanner.nextLine().trim();
+        System.out.print("Au (yyyy-MM-dd, vide = aujourd'hui): ");
+        String to = scanner.nextLine().trim();
+        
+        long fromMillis;
+        long toMillis;
+        try {
+            fromMillis = from.isEmpty() ? Long.MIN_VALUE : startOfDay(LocalDate.parse(from));
+            toMillis = to.isEmpty() ? Long.MAX_VALUE : startOfDay(LocalDate.parse(to).plusDays(1)) - 1;
+        } catch (DateTimeParseException e) {
+            System.out.println("Date invalide\n");
+            return;
         }
         
-        boolean allZeros = true;
-        for (byte b : key) {
-            if (b != 0) {
-                allZeros = false;
-                break;
-            }
+        try (Stream<AccessLogger.LogEntry> results = logger.query(
+                userId.isEmpty() ? null : userId,
+                eventType.isEmpty() ? null : eventType.toUpperCase(),
+                fromMillis, toMillis)) {
+            AccessLogger.displayEntries(results);
         }
-        
-        return !allZeros;
+        System.out.println();
+    }
+    
+    private static long startOfDay(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Générer une clé privée aléatoire (16 bytes pour AES-128)
+     */
+    private byte[] generatePrivateKey() throws NoSuchAlgorithmException {
+        if (keyGenerator == null) {
+            keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(128);
+        }
+        SecretKey secretKey = keyGenerator.generateKey();
+        return secretKey.getEncoded();
     }
     
     /**
      * Convertir bytes en hexadécimal
      */
-    private String bytesToHex(byte[] bytes) {
+    static String bytesToHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
         for (byte b : bytes) {
             sb.append(String.format("%02X ", b));
@@ -383,14 +775,24 @@ public class AccessControlClient {
      * Déconnexion de la carte
      */
     private void disconnect() {
-        try {
-            if (card != null) {
-                card.disconnect(false);
-                System.out.println("Carte déconnectée");
+        if (monitor != null) {
+            try {
+                monitor.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } catch (CardException e) {
-            System.err.println("Erreur lors de la déconnexion: " + e.getMessage());
         }
+        if (cardEvents != null) {
+            cardEvents.shutdown();
+        }
+        prefetcher.shutdown();
+        policy.stop();
+        revocations.stop();
+        throttle.stop();
+        metrics.stop(Paths.get(METRICS_FILE));
+        sessionManager.shutdown();
+        logger.close();
+        System.out.println("Carte déconnectée");
     }
 }
 
@@ -399,164 +801,63 @@ public class AccessControlClient {
  */
 class PINManager {
     
-    public String requestNewPIN(Scanner scanner) {
+    public char[] requestNewPIN(ConsoleInput input) {
         System.out.print("Définir un PIN (4-8 chiffres): ");
-        String pin = scanner.nextLine();
+        char[] pin = readSecret(input);
         
         if (!isValidPIN(pin)) {
             System.out.println("PIN invalide (doit contenir 4-8 chiffres)");
+            wipe(pin);
             return null;
         }
         
         System.out.print("Confirmer le PIN: ");
-        String confirmPin = scanner.nextLine();
+        char[] confirmPin = readSecret(input);
+        boolean confirmed = Arrays.equals(pin, confirmPin);
+        wipe(confirmPin);
         
-        if (!pin.equals(confirmPin)) {
+        if (!confirmed) {
             System.out.println("Les PINs ne correspondent pas");
+            wipe(pin);
             return null;
         }
         
         return pin;
     }
     
-    private boolean isValidPIN(String pin) {
-        if (pin == null || pin.length() < 4 || pin.length() > 8) {
-            return false;
+    /**
+     * Lire un secret sans écho depuis la console, dans un char[] effaçable;
+     * sans console (entrée redirigée), repli sur la ligne suivante de l'entrée standard
+     * @return null en fin d'entrée
+     */
+    static char[] readSecret(ConsoleInput input) {
+        Console console = System.console();
+        if (console != null) {
+            return console.readPassword();
+        }
+        try {
+            return input.readLine();
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la lecture du PIN: " + e.getMessage());
+            return null;
         }
-        return pin.matches("\\d+");
-    }
-}
-
-/**
- * Gestionnaire de sessions
- */
-class SessionManager {
-    
-    private Map<String, SessionInfo> activeSessions;
-    private int timeoutSeconds;
-    
-    public SessionManager(int timeoutSeconds) {
-        this.activeSessions = new HashMap<>();
-        this.timeoutSeconds = timeoutSeconds;
-    }
-    
-    public String createSession(String userId) {
-        String sessionId = UUID.randomUUID().toString().substring(0, 8);
-        SessionInfo session = new SessionInfo(userId, sessionId, System.currentTimeMillis());
-        activeSessions.put(sessionId, session);
-        return sessionId;
     }
     
-    public boolean isSessionActive(String sessionId) {
-        SessionInfo session = activeSessions.get(sessionId);
-        if (session == null) {
+    private boolean isValidPIN(char[] pin) {
+        if (pin == null || pin.length < 4 || pin.length > 8) {
             return false;
         }
-        
-        long elapsed = System.currentTimeMillis() - session.startTime;
-        if (elapsed > timeoutSeconds * 1000) {
-            activeSessions.remove(sessionId);
-            return false;
+        for (char digit : pin) {
+            if (digit < '0' || digit > '9') {
+                return false;
+            }
         }
-        
         return true;
     }
     
-    public void closeSession(String sessionId) {
-        SessionInfo session = activeSessions.remove(sessionId);
-        if (session != null) {
-            long duration = System.currentTimeMillis() - session.startTime;
-            session.duration = duration / 1000; // en secondes
-        }
-    }
-    
-    static class SessionInfo {
-        String userId;
-        String sessionId;
-        long startTime;
-        long duration;
-        
-        SessionInfo(String userId, String sessionId, long startTime) {
-            this.userId = userId;
-            this.sessionId = sessionId;
-            this.startTime = startTime;
-            this.duration = 0;
-        }
-    }
-}
-
-/**
- * Logger pour la traçabilité des accès
- */
-class AccessLogger {
-    
-    private List<LogEntry> logs;
-    private SimpleDateFormat dateFormat;
-    
-    public AccessLogger() {
-        this.logs = new ArrayList<>();
-        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    }
-    
-    public void logEvent(String userId, String eventType, String details) {
-        LogEntry entry = new LogEntry(
-            userId,
-            eventType,
-            details,
-            new Date()
-        );
-        logs.add(entry);
-        
-        // Écrire aussi dans un fichier
-        saveToFile(entry);
-    }
-    
-    public void displayLogs() {
-        if (logs.isEmpty()) {
-            System.out.println("Aucun log disponible");
-            return;
-        }
-        
-        System.out.println(String.format("%-20s %-20s %-15s %-30s",
-            "Date/Heure", "Utilisateur", "Type", "Détails"));
-        System.out.println("-".repeat(90));
-        
-        for (LogEntry log : logs) {
-            System.out.println(String.format("%-20s %-20s %-15s %-30s",
-                dateFormat.format(log.timestamp),
-                log.userId,
-                log.eventType,
-                log.details));
-        }
-    }
-    
-    private void saveToFile(LogEntry entry) {
-        try (FileWriter fw = new FileWriter("access_logs.txt", true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            
-            out.println(String.format("%s | %s | %s | %s",
-                dateFormat.format(entry.timestamp),
-                entry.userId,
-                entry.eventType,
-                entry.details));
-                
-        } catch (IOException e) {
-            System.err.println("Erreur lors de l'écriture du log: " + e.getMessage());
-        }
-    }
-    
-    static class LogEntry {
-        String userId;
-        String eventType;
-        String details;
-        Date timestamp;
-        
-        LogEntry(String userId, String eventType, String details, Date timestamp) {
-            this.userId = userId;
-            this.eventType = eventType;
-            this.details = details;
-            this.timestamp = timestamp;
+    private static void wipe(char[] secret) {
+        if (secret != null) {
+            Arrays.fill(secret, '\0');
         }
     }
 }
@@ -0,0 +1,175 @@
+package com.accesscontrol.client;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Logger pour la traçabilité des accès
+ */
+class AccessLogger {
+
+    private static final String LOG_FILE = "access_logs.txt";
+    private static final String SEGMENT_DIR = "access_logs";
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+
+    // Historique en mémoire: seules les dernières entrées sont conservées
+    private static final int TAIL_CAPACITY = 1000;
+
+    // Rotation et rétention du fichier texte et du journal indexé
+    private static final long MAX_LOG_BYTES = 10L * 1024 * 1024;
+    private static final long ROTATION_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_ARCHIVES = 30;
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(90);
+
+    private final AccessRollups rollups = new AccessRollups();
+    private final LogEntry[] tail;
+    private int tailNext;
+    private int tailSize;
+    private AsyncLogWriter writer;
+    private LogSegmentStore segments;
+
+    public AccessLogger() {
+        this(Paths.get(""));
+    }
+
+    /**
+     * @param directory répertoire du fichier de log et du journal indexé
+     */
+    AccessLogger(Path directory) {
+        this.tail = new LogEntry[TAIL_CAPACITY];
+        Path logFile = directory.resolve(LOG_FILE);
+        try {
+            this.segments = new LogSegmentStore(directory.resolve(SEGMENT_DIR), LogSegmentStore.DEFAULT_SEGMENT_RECORDS);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'ouverture du journal indexé: " + e.getMessage());
+        }
+        try {
+            LogRotator rotator = new LogRotator(logFile, MAX_LOG_BYTES, ROTATION_INTERVAL_MILLIS,
+                MAX_ARCHIVES, RETENTION_MILLIS);
+            this.writer = new AsyncLogWriter(logFile, rotator, segments, QUEUE_CAPACITY, BATCH_SIZE,
+                FLUSH_INTERVAL_MILLIS, AsyncLogWriter.FsyncPolicy.NONE, AsyncLogWriter.OverflowPolicy.BLOCK);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'ouverture du log: " + e.getMessage());
+        }
+    }
+
+    public void logEvent(String userId, String eventType, String details) {
+        LogEntry entry = new LogEntry(
+            userId,
+            eventType,
+            details,
+            System.currentTimeMillis()
+        );
+        synchronized (this) {
+            tail[tailNext] = entry;
+            tailNext = (tailNext + 1) % tail.length;
+            tailSize = Math.min(tailSize + 1, tail.length);
+        }
+        try {
+            rollups.record(userId, eventType, entry.timestamp);
+        } catch (RuntimeException e) {
+            // Les statistiques ne doivent jamais empêcher la journalisation
+            System.err.println("Erreur lors de la mise à jour des statistiques: " + e.getMessage());
+        }
+
+        // Écrire aussi dans un fichier (thread d'écriture dédié)
+        if (writer != null) {
+            writer.append(entry);
+        }
+    }
+
+    public synchronized void displayLogs() {
+        if (tailSize == 0) {
+            System.out.println("Aucun log disponible");
+            return;
+        }
+
+        displayEntries(recentEntries().stream());
+    }
+
+    /**
+     * Dernières entrées, de la plus ancienne à la plus récente
+     */
+    public synchronized List<LogEntry> recentEntries() {
+        List<LogEntry> entries = new ArrayList<>(tailSize);
+        int start = (tailNext - tailSize + tail.length) % tail.length;
+        for (int i = 0; i < tailSize; i++) {
+            entries.add(tail[(start + i) % tail.length]);
+        }
+        return entries;
+    }
+
+    /**
+     * Entrées abandonnées par le thread d'écriture (file pleine) depuis le démarrage
+     */
+    long getDroppedCount() {
+        return writer == null ? 0 : writer.getDroppedCount();
+    }
+
+    /**
+     * Agrégats tenus à jour à chaque événement (compteurs et durées de session)
+     */
+    AccessRollups rollups() {
+        return rollups;
+    }
+
+    /**
+     * Afficher des entrées sous forme de tableau
+     */
+    static void displayEntries(Stream<LogEntry> entries) {
+        System.out.println(String.format("%-20s %-20s %-15s %-30s",
+            "Date/Heure", "Utilisateur", "Type", "Détails"));
+        System.out.println("-".repeat(90));
+
+        entries.forEach(log -> System.out.println(String.format("%-20s %-20s %-15s %-30s",
+            AsyncLogWriter.DATE_FORMAT.format(Instant.ofEpochMilli(log.timestamp)),
+            log.userId,
+            log.eventType,
+            log.details)));
+    }
+
+    /**
+     * Rechercher dans le journal indexé (critère null = pas de filtre).
+     * Les entrées encore dans la file d'écriture ne sont visibles qu'après leur validation.
+     */
+    public Stream<LogEntry> query(String userId, String eventType, long fromMillis, long toMillis) {
+        if (segments == null) {
+            return Stream.empty();
+        }
+        return segments.query(userId, eventType, fromMillis, toMillis);
+    }
+
+    /**
+     * Écrire les entrées en attente et fermer le fichier de log
+     */
+    public void close() {
+        rollups.stop();
+        if (writer != null) {
+            writer.close();
+        }
+        if (segments != null) {
+            segments.close();
+        }
+    }
+
+    static class LogEntry {
+        String userId;
+        String eventType;
+        String details;
+        long timestamp; // millisecondes epoch
+
+        LogEntry(String userId, String eventType, String details, long timestamp) {
+            this.userId = userId;
+            this.eventType = eventType;
+            this.details = details;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.accesscontrol.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrégats d'accès tenus à jour au fil de l'eau, sans relire le fichier de
+ * log: compteurs par utilisateur et par type d'événement en tranches horaires
+ * et journalières, histogrammes des durées de session par zone.
+ *
+ * Chaque couple (utilisateur, type) est une série; ses compteurs sont rangés
+ * dans des int[] communs (série * tranches + tranche), les tranches formant
+ * des anneaux: HOURS heures et DAYS jours glissants. Une tranche est remise à
+ * zéro quand l'anneau la réutilise. Les durées de session sont comptées en
+ * tranches de puissances de 2 secondes, par zone et par jour.
+ *
+ * Un événement coûte deux recherches de table et quelques incréments sous
+ * verrou; une requête lit quelques cases, quel que soit le volume des logs.
+ * Le compactage périodique fait avancer les anneaux et retire les séries,
+ * utilisateurs et zones sans activité sur toute la fenêtre.
+ */
+class AccessRollups {
+
+    static final int HOURS = 48;
+    static final int DAYS = 90;
+    static final int DURATION_BUCKETS = 18; // 1 s à 36 h, dernière tranche ouverte
+
+    /** Zone des sessions sans politique d'accès, ou ouvertes avant un redémarrage */
+    static final String NO_ZONE = "*";
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MAX_EVENTS = 32;
+    private static final String OTHER_EVENT = "AUTRE";
+    private static final int INITIAL_SERIES = 64;
+    private static final long COMPACT_MINUTES = 10;
+
+    // Noms internés: utilisateur, type d'événement, zone -> index
+    private final Map<String, Integer> users = new HashMap<>();
+    private final Map<String, Integer> events = new HashMap<>();
+    private final Map<String, Integer> zones = new HashMap<>();
+    private final List<String> eventNames = new ArrayList<>();
+    private final List<String> zoneNames = new ArrayList<>();
+
+    // Série de chaque couple: seriesOf[utilisateur * MAX_EVENTS + type], -1 si aucune
+    private int[] seriesOf = new int[INITIAL_SERIES * MAX_EVENTS];
+    private int[] hourly = new int[INITIAL_SERIES * HOURS];
+    private int[] daily = new int[INITIAL_SERIES * DAYS];
+    private int[] seriesUser = new int[INITIAL_SERIES];
+    private int seriesCount;
+
+    // Par zone: histogramme [zone][jour][tranche] et somme des durées [zone][jour], en secondes
+    private int[] durations = new int[0];
+    private long[] durationTotals = new long[0];
+
+    private final TimeZone timeZone = TimeZone.getDefault();
+    private long currentHour;
+    private long currentDay;
+    private final ScheduledExecutorService compactor;
+
+    AccessRollups() {
+        Arrays.fill(seriesOf, -1);
+        long now = System.currentTimeMillis();
+        currentHour = now / HOUR_MILLIS;
+        currentDay = dayOf(now);
+        compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "rollup-compact");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactQuietly, COMPACT_MINUTES, COMPACT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Compter un événement du log
+     */
+    synchronized void record(String userId, String eventType, long timestamp) {
+        advance(timestamp);
+        int user = users.computeIfAbsent(String.valueOf(userId), key -> users.size());
+        int series = series(user, event(eventType));
+        long hour = timestamp / HOUR_MILLIS;
+        if (hour > currentHour - HOURS) {
+            hourly[series * HOURS + (int) (hour % HOURS)]++;
+        }
+        long day = dayOf(timestamp);
+        if (day > currentDay - DAYS) {
+            daily[series * DAYS + (int) (day % DAYS)]++;
+        }
+    }
+
+    /**
+     * Compter la durée d'une session fermée ou expirée
+     */
+    synchronized void sessionClosed(SessionManager.SessionInfo session) {
+        long now = System.currentTimeMillis();
+        advance(now);
+        Integer known = zones.get(zoneName(session.zone));
+        int zone = known != null ? known : addZone(zoneName(session.zone));
+        int slot = (int) (currentDay % DAYS);
+        durations[(zone * DAYS + slot) * DURATION_BUCKETS + durationBucket(session.duration)]++;
+        durationTotals[zone * DAYS + slot] += session.duration;
+    }
+
+    /**
+     * Événements d'un utilisateur dans l'heure contenant timestamp (0 hors fenêtre)
+     */
+    synchronized int hourlyCount(String userId, String eventType, long timestamp) {
+        advance(System.currentTimeMillis());
+        int series = find(userId, eventType);
+        long hour = timestamp / HOUR_MILLIS;
+        if (series < 0 || hour > currentHour || hour <= currentHour - HOURS) {
+            return 0;
+        }
+        return hourly[series * HOURS + (int) (hour % HOURS)];
+    }
+
+    /**
+     * Événements d'un utilisateur sur les dernières heures (heure en cours comprise)
+     */
+    synchronized long countLastHours(String userId, String eventType, int hours) {
+        advance(System.currentTimeMillis());
+        int series = find(userId, eventType);
+        return series < 0 ? 0 : sum(hourly, series * HOURS, HOURS, currentHour, Math.min(hours, HOURS));
+    }
+
+    /**
+     * Événements d'un utilisateur sur les derniers jours (jour en cours compris)
+     */
+    synchronized long countLastDays(String userId, String eventType, int days) {
+        advance(System.currentTimeMillis());
+        int series = find(userId, eventType);
+        return series < 0 ? 0 : sum(daily, series * DAYS, DAYS, currentDay, Math.min(days, DAYS));
+    }
+
+    /**
+     * Histogramme des durées de session d'une zone sur les derniers jours:
+     * la tranche i compte les sessions de 2^(i-1) à 2^i secondes (0 s pour i = 0)
+     */
+    synchronized long[] durationHistogram(String zone, int days) {
+        advance(System.currentTimeMillis());
+        long[] histogram = new long[DURATION_BUCKETS];
+        Integer index = zones.get(zoneName(zone));
+        if (index == null) {
+            return histogram;
+        }
+        for (int i = 0; i < Math.min(days, DAYS); i++) {
+            int base = (index * DAYS + (int) ((currentDay - i) % DAYS)) * DURATION_BUCKETS;
+            for (int bucket = 0; bucket < DURATION_BUCKETS; bucket++) {
+                histogram[bucket] += durations[base + bucket];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Durée moyenne des sessions d'une zone sur les derniers jours, en secondes (0 sans session)
+     */
+    synchronized double averageSessionSeconds(String zone, int days) {
+        long[] histogram = durationHistogram(zone, days);
+        long sessions = 0;
+        for (long count : histogram) {
+            sessions += count;
+        }
+        Integer index = zones.get(zoneName(zone));
+        if (sessions == 0 || index == null) {
+            return 0;
+        }
+        long total = sum(durationTotals, index * DAYS, DAYS, currentDay, Math.min(days, DAYS));
+        return (double) total / sessions;
+    }
+
+    synchronized List<String> eventTypes() {
+        return new ArrayList<>(eventNames);
+    }
+
+    synchronized List<String> zones() {
+        return new ArrayList<>(zoneNames);
+    }
+
+    void stop() {
+        compactor.shutdownNow();
+    }
+
+    /**
+     * Faire avancer les anneaux et retirer séries, utilisateurs et zones
+     * sans activité dans la fenêtre; les séries restantes sont resserrées
+     * en tête des tableaux, réduits s'ils sont devenus trop grands
+     */
+    synchronized void compact() {
+        advance(System.currentTimeMillis());
+
+        // Ancien index -> nouveau (-1: retiré), pour les séries et les utilisateurs
+        int[] seriesMap = new int[seriesCount];
+        int[] userMap = new int[users.size()];
+        Arrays.fill(userMap, -1);
+        int live = 0;
+        int liveUsers = 0;
+        for (int series = 0; series < seriesCount; series++) {
+            if (isZero(hourly, series * HOURS, HOURS) && isZero(daily, series * DAYS, DAYS)) {
+                seriesMap[series] = -1;
+                continue;
+            }
+            int user = seriesUser[series];
+            if (userMap[user] < 0) {
+                userMap[user] = liveUsers++;
+            }
+            if (live != series) {
+                System.arraycopy(hourly, series * HOURS, hourly, live * HOURS, HOURS);
+                System.arraycopy(daily, series * DAYS, daily, live * DAYS, DAYS);
+            }
+            seriesUser[live] = userMap[user];
+            seriesMap[series] = live++;
+        }
+
+        int[] compacted = new int[Math.max(liveUsers, INITIAL_SERIES) * MAX_EVENTS];
+        Arrays.fill(compacted, -1);
+        for (int user = 0; user < userMap.length; user++) {
+            for (int event = 0; userMap[user] >= 0 && event < MAX_EVENTS; event++) {
+                int key = user * MAX_EVENTS + event;
+                int series = key < seriesOf.length ? seriesOf[key] : -1;
+                if (series >= 0 && seriesMap[series] >= 0) {
+                    compacted[userMap[user] * MAX_EVENTS + event] = seriesMap[series];
+                }
+            }
+        }
+        seriesOf = compacted;
+        users.entrySet().removeIf(entry -> userMap[entry.getValue()] < 0);
+        users.replaceAll((userId, user) -> userMap[user]);
+
+        // Effacer les séries libérées avant de réduire les tableaux
+        Arrays.fill(hourly, live * HOURS, seriesCount * HOURS, 0);
+        Arrays.fill(daily, live * DAYS, seriesCount * DAYS, 0);
+        seriesCount = live;
+        int capacity = Math.max(INITIAL_SERIES, live * 2);
+        if (capacity < seriesUser.length) {
+            seriesUser = Arrays.copyOf(seriesUser, capacity);
+            hourly = Arrays.copyOf(hourly, capacity * HOURS);
+            daily = Arrays.copyOf(daily, capacity * DAYS);
+        }
+        compactZones();
+    }
+
+    /**
+     * Compactage planifié: une erreur est signalée sans arrêter les suivants
+     */
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            System.err.println("Erreur lors du compactage des statistiques: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retirer les zones sans session dans la fenêtre
+     */
+    private void compactZones() {
+        int width = DAYS * DURATION_BUCKETS;
+        int kept = 0;
+        for (int zone = 0; zone < zoneNames.size(); zone++) {
+            if (isZero(durations, zone * width, width)) {
+                continue;
+            }
+            if (kept != zone) {
+                System.arraycopy(durations, zone * width, durations, kept * width, width);
+                System.arraycopy(durationTotals, zone * DAYS, durationTotals, kept * DAYS, DAYS);
+                zoneNames.set(kept, zoneNames.get(zone));
+            }
+            kept++;
+        }
+        zoneNames.subList(kept, zoneNames.size()).clear();
+        zones.clear();
+        for (int zone = 0; zone < kept; zone++) {
+            zones.put(zoneNames.get(zone), zone);
+        }
+        durations = Arrays.copyOf(durations, kept * width);
+        durationTotals = Arrays.copyOf(durationTotals, kept * DAYS);
+    }
+
+    private int event(String eventType) {
+        Integer event = events.get(eventType);
+        if (event != null) {
+            return event;
+        }
+        String name = events.size() < MAX_EVENTS - 1 ? String.valueOf(eventType) : OTHER_EVENT;
+        return events.computeIfAbsent(name, key -> {
+            eventNames.add(key);
+            return eventNames.size() - 1;
+        });
+    }
+
+    private int series(int user, int event) {
+        int key = user * MAX_EVENTS + event;
+        if (key >= seriesOf.length) {
+            int length = seriesOf.length;
+            seriesOf = Arrays.copyOf(seriesOf, Math.max(length * 2, key + MAX_EVENTS));
+            Arrays.fill(seriesOf, length, seriesOf.length, -1);
+        }
+        int series = seriesOf[key];
+        if (series >= 0) {
+            return series;
+        }
+        series = seriesCount++;
+        if (series == seriesUser.length) {
+            seriesUser = Arrays.copyOf(seriesUser, series * 2);
+            hourly = Arrays.copyOf(hourly, series * 2 * HOURS);
+            daily = Arrays.copyOf(daily, series * 2 * DAYS);
+        }
+        seriesUser[series] = user;
+        seriesOf[key] = series;
+        return series;
+    }
+
+    private int find(String userId, String eventType) {
+        Integer user = users.get(userId);
+        Integer event = events.get(eventType);
+        return user == null || event == null ? -1 : seriesOf[user * MAX_EVENTS + event];
+    }
+
+    private int addZone(String name) {
+        int zone = zoneNames.size();
+        zones.put(name, zone);
+        zoneNames.add(name);
+        durations = Arrays.copyOf(durations, (zone + 1) * DAYS * DURATION_BUCKETS);
+        durationTotals = Arrays.copyOf(durationTotals, (zone + 1) * DAYS);
+        return zone;
+    }
+
+    /**
+     * Avancer les anneaux jusqu'à l'heure et au jour de timestamp en vidant
+     * les tranches réutilisées (un anneau entier au plus)
+     */
+    private void advance(long timestamp) {
+        long hour = timestamp / HOUR_MILLIS;
+        for (long next = Math.max(currentHour + 1, hour - HOURS + 1); next <= hour; next++) {
+            clearSlot(hourly, HOURS, (int) (next % HOURS), seriesCount, 1);
+        }
+        currentHour = Math.max(currentHour, hour);
+
+        long day = dayOf(timestamp);
+        for (long next = Math.max(currentDay + 1, day - DAYS + 1); next <= day; next++) {
+            int slot = (int) (next % DAYS);
+            clearSlot(daily, DAYS, slot, seriesCount, 1);
+            clearSlot(durations, DAYS * DURATION_BUCKETS, slot * DURATION_BUCKETS, zoneNames.size(),
+                      DURATION_BUCKETS);
+            for (int zone = 0; zone < zoneNames.size(); zone++) {
+                durationTotals[zone * DAYS + slot] = 0;
+            }
+        }
+        currentDay = Math.max(currentDay, day);
+    }
+
+    private static void clearSlot(int[] counters, int stride, int offset, int rows, int width) {
+        for (int row = 0; row < rows; row++) {
+            Arrays.fill(counters, row * stride + offset, row * stride + offset + width, 0);
+        }
+    }
+
+    /**
+     * Somme des count dernières tranches d'un anneau, la plus récente étant current
+     */
+    private static long sum(int[] ring, int base, int size, long current, int count) {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += ring[base + (int) ((current - i) % size)];
+        }
+        return total;
+    }
+
+    private static long sum(long[] ring, int base, int size, long current, int count) {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += ring[base + (int) ((current - i) % size)];
+        }
+        return total;
+    }
+
+    private static boolean isZero(int[] counters, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (counters[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tranche d'une durée: 0 pour 0 s, puis i pour [2^(i-1), 2^i[ secondes
+     */
+    static int durationBucket(long seconds) {
+        int bucket = seconds <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(seconds);
+        return Math.min(bucket, DURATION_BUCKETS - 1);
+    }
+
+    /**
+     * Jour local (fuseau du système) d'un horodatage
+     */
+    private long dayOf(long timestamp) {
+        return Math.floorDiv(timestamp + timeZone.getOffset(timestamp), DAY_MILLIS);
+    }
+
+    private static String zoneName(String zone) {
+        return zone != null ? zone : NO_ZONE;
+    }
+}
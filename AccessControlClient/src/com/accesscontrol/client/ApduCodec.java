@@ -0,0 +1,150 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codage des APDU sans allocation: la commande est écrite dans un tampon
+ * direct réutilisé et envoyée avec CardChannel.transmit(ByteBuffer, ByteBuffer);
+ * le status word et les données sont lus en place dans le tampon de réponse.
+ *
+ * Un codec par thread (chaque lecteur est servi par son propre thread), si
+ * bien qu'un échange ne crée ni CommandAPDU, ni ResponseAPDU, ni copie des
+ * données. Le PIN est écrit octet par octet depuis un char[] et le tampon de
+ * commande est effacé après l'envoi.
+ *
+ * Usage: sw = ApduCodec.get().begin(ins, p1, p2).put(...).transmit(channel, le),
+ * puis length() et byteAt() jusqu'au prochain begin().
+ */
+final class ApduCodec {
+
+    static final int SW_OK = 0x9000;
+
+    private static final int HEADER = 5;
+    private static final int MAX_DATA = 255;
+    private static final int MAX_RESPONSE = 256 + 2;
+    private static final ThreadLocal<ApduCodec> CODECS = ThreadLocal.withInitial(ApduCodec::new);
+
+    private final ByteBuffer command = ByteBuffer.allocateDirect(HEADER + MAX_DATA + 1);
+    private final ByteBuffer response = ByteBuffer.allocateDirect(MAX_RESPONSE);
+    private final byte[] challenge = new byte[ChallengeVerifier.CHALLENGE_SIZE];
+    private final byte[] text = new byte[MAX_RESPONSE];
+    private boolean secret;
+    private int length;
+
+    private ApduCodec() {
+    }
+
+    /**
+     * Codec du thread courant
+     */
+    static ApduCodec get() {
+        return CODECS.get();
+    }
+
+    /**
+     * Commencer une commande (CLA 00); l'octet Lc est réservé
+     */
+    ApduCodec begin(byte ins, int p1, int p2) {
+        command.clear();
+        command.put((byte) 0x00).put(ins).put((byte) p1).put((byte) p2).put((byte) 0);
+        return this;
+    }
+
+    ApduCodec put(byte value) {
+        command.put(value);
+        return this;
+    }
+
+    ApduCodec put(byte[] bytes) {
+        command.put(bytes);
+        return this;
+    }
+
+    /**
+     * Ajouter le PIN (chiffres ASCII); la commande sera effacée après l'envoi
+     */
+    ApduCodec putPin(char[] pin) {
+        secret = true;
+        for (char digit : pin) {
+            command.put((byte) digit);
+        }
+        return this;
+    }
+
+    /**
+     * Envoyer la commande préparée
+     * @param le longueur de réponse attendue: 0 sans Le, 256 pour "jusqu'à 256 octets"
+     * @return le status word
+     */
+    int transmit(CardChannel channel, int le) throws CardException {
+        int lc = command.position() - HEADER;
+        if (lc == 0) {
+            // Sans données: l'octet réservé devient Le, ou disparaît
+            command.position(HEADER - 1);
+        } else {
+            command.put(HEADER - 1, (byte) lc);
+        }
+        if (le > 0) {
+            command.put((byte) le);
+        }
+        command.flip();
+        response.clear();
+        int received;
+        try {
+            received = channel.transmit(command, response);
+        } finally {
+            if (secret) {
+                wipe();
+            }
+        }
+        if (received < 2) {
+            throw new CardException("Réponse APDU incomplète");
+        }
+        length = received - 2;
+        return ((response.get(received - 2) & 0xFF) << 8) | (response.get(received - 1) & 0xFF);
+    }
+
+    /**
+     * Longueur des données de la réponse (sans le status word)
+     */
+    int length() {
+        return length;
+    }
+
+    byte byteAt(int index) {
+        return response.get(index);
+    }
+
+    /**
+     * Tampon de réponse, à lire en accès absolu uniquement
+     */
+    ByteBuffer response() {
+        return response;
+    }
+
+    /**
+     * Texte des données de la réponse, espaces de bourrage retirés
+     */
+    String text(int offset, int count) {
+        response.get(offset, text, 0, count);
+        return new String(text, 0, count, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Tampon du challenge de l'échange en cours, réutilisé à chaque authentification
+     */
+    byte[] challenge() {
+        return challenge;
+    }
+
+    private void wipe() {
+        command.clear();
+        for (int i = 0; i < command.capacity(); i++) {
+            command.put(i, (byte) 0);
+        }
+        secret = false;
+    }
+}
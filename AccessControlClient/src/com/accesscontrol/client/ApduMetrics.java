@@ -0,0 +1,275 @@
+package com.accesscontrol.client;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.smartcardio.CardChannel;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métriques des échanges avec les badges: latence par instruction, compteurs
+ * de status words, taux d'erreur par lecteur, plus les jauges de sessions
+ * et le nombre d'entrées de log abandonnées.
+ *
+ * L'enregistrement (appelé par InstrumentedChannel à chaque APDU) n'alloue
+ * rien: les histogrammes sont créés d'avance pour chaque instruction connue,
+ * l'instruction est trouvée par une table de 256 octets et les status words
+ * sont comptés dans un tableau de 65536 compteurs.
+ */
+class ApduMetrics implements ApduMetricsMBean {
+
+    static final String OBJECT_NAME = "com.accesscontrol:type=ApduMetrics";
+
+    private static final byte INS_SELECT = (byte) 0xA4;
+    private static final byte INS_RESET_TRIES = (byte) 0x50;
+
+    private static final byte[] INSTRUCTIONS = {
+        INS_SELECT, AccessControlClient.INS_SET_PIN, AccessControlClient.INS_VERIFY_PIN,
+        AccessControlClient.INS_STORE_KEY, AccessControlClient.INS_GET_KEY, INS_RESET_TRIES,
+        AccessControlClient.INS_GET_USER_ID, AccessControlClient.INS_AUTHENTICATE,
+        AccessControlClient.INS_CHALLENGE, AccessControlClient.INS_LIST_SLOTS,
+        AccessControlClient.INS_BIND_SESSION, AccessControlClient.INS_REENTER,
+        AccessControlClient.INS_JOURNAL_APPEND, AccessControlClient.INS_JOURNAL_READ,
+        AccessControlClient.INS_GET_RESPONSE
+    };
+    private static final String[] NAMES = {
+        "SELECT", "SET_PIN", "VERIFY_PIN", "STORE_KEY", "GET_KEY", "RESET_TRIES",
+        "GET_USER_ID", "AUTHENTICATE", "CHALLENGE", "LIST_SLOTS", "BIND_SESSION", "REENTER",
+        "JOURNAL_APPEND", "JOURNAL_READ", "GET_RESPONSE", "AUTRE"
+    };
+    private static final int OTHER = INSTRUCTIONS.length;
+
+    private final byte[] instructionIndex = new byte[256];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[NAMES.length];
+    private final AtomicLongArray statusWords = new AtomicLongArray(65536);
+    private final Map<String, ReaderStats> readers = new ConcurrentHashMap<>();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final SessionManager sessionManager;
+    private final AccessLogger logger;
+    private ScheduledExecutorService dumper;
+
+    ApduMetrics(SessionManager sessionManager, AccessLogger logger) {
+        this.sessionManager = sessionManager;
+        this.logger = logger;
+        java.util.Arrays.fill(instructionIndex, (byte) OTHER);
+        for (int i = 0; i < INSTRUCTIONS.length; i++) {
+            instructionIndex[INSTRUCTIONS[i] & 0xFF] = (byte) i;
+        }
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Envelopper le canal d'un lecteur pour mesurer chaque échange
+     */
+    CardChannel instrument(CardChannel channel, String readerName) {
+        return new InstrumentedChannel(channel, this, readers.computeIfAbsent(readerName, name -> new ReaderStats()));
+    }
+
+    /**
+     * Enregistrer un échange terminé (sw = -1 si la transmission a échoué)
+     */
+    void record(byte ins, int sw, long nanos, ReaderStats reader) {
+        latencies[instructionIndex[ins & 0xFF]].record(nanos);
+        commands.increment();
+        reader.commands.increment();
+        if (sw >= 0) {
+            statusWords.incrementAndGet(sw & 0xFFFF);
+        }
+        if (isError(sw)) {
+            errors.increment();
+            reader.errors.increment();
+        }
+    }
+
+    /**
+     * Erreur: échec de transmission ou SW autre que 9000 / 61xx / 63Cx (PIN faux)
+     */
+    private static boolean isError(int sw) {
+        return sw < 0 || (sw != 0x9000 && (sw & 0xFF00) != 0x6100 && (sw & 0xFFF0) != 0x63C0);
+    }
+
+    /**
+     * Publier le MBean sur le serveur JMX de la plateforme
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Erreur lors de l'enregistrement JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Écrire périodiquement l'instantané dans un fichier (remplacé à chaque fois)
+     */
+    void startDump(Path file, long intervalSeconds) {
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop(Path file) {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dump(file);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // Pas enregistré
+        }
+    }
+
+    private void dump(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, snapshot().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'écriture des métriques: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getTotalCommands() {
+        return commands.sum();
+    }
+
+    @Override
+    public long getTotalErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return sessionManager.getActiveSessionCount();
+    }
+
+    @Override
+    public long getSessionsCreated() {
+        return sessionManager.getCreatedCount();
+    }
+
+    @Override
+    public long getSessionsClosed() {
+        return sessionManager.getClosedCount();
+    }
+
+    @Override
+    public long getSessionsExpired() {
+        return sessionManager.getExpiredCount();
+    }
+
+    @Override
+    public long getLogEntriesDropped() {
+        return logger.getDroppedCount();
+    }
+
+    @Override
+    public String[] getInstructionLatencies() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < latencies.length; i++) {
+            if (latencies[i].count() > 0) {
+                lines.add(String.format("%-14s %s", NAMES[i], latencies[i].summary()));
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getStatusWords() {
+        List<String> lines = new ArrayList<>();
+        for (int sw = 0; sw < statusWords.length(); sw++) {
+            long count = statusWords.get(sw);
+            if (count > 0) {
+                lines.add(String.format("%04X=%d", sw, count));
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getReaderErrorRates() {
+        List<String> lines = new ArrayList<>();
+        readers.forEach((name, stats) -> {
+            long total = stats.commands.sum();
+            long failed = stats.errors.sum();
+            lines.add(String.format("%s: %d commandes, %d erreurs (%.2f %%)",
+                name, total, failed, total == 0 ? 0.0 : 100.0 * failed / total));
+        });
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String snapshot() {
+        StringBuilder out = new StringBuilder();
+        out.append("=== Métriques ").append(AsyncLogWriter.DATE_FORMAT.format(Instant.now())).append(" ===\n");
+        out.append(String.format("Commandes: %d, erreurs: %d%n", getTotalCommands(), getTotalErrors()));
+        out.append(String.format("Sessions: %d actives, %d ouvertes, %d fermées, %d expirées%n",
+            getActiveSessions(), getSessionsCreated(), getSessionsClosed(), getSessionsExpired()));
+        out.append(String.format("Logs abandonnés: %d%n", getLogEntriesDropped()));
+        out.append("-- Latence par instruction\n");
+        for (String line : getInstructionLatencies()) {
+            out.append(line).append('\n');
+        }
+        out.append("-- Status words\n");
+        for (String line : getStatusWords()) {
+            out.append(line).append('\n');
+        }
+        out.append("-- Lecteurs\n");
+        for (String line : getReaderErrorRates()) {
+            out.append(line).append('\n');
+        }
+        return out.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        for (int sw = 0; sw < statusWords.length(); sw++) {
+            statusWords.set(sw, 0);
+        }
+        for (ReaderStats stats : readers.values()) {
+            stats.commands.reset();
+            stats.errors.reset();
+        }
+        commands.reset();
+        errors.reset();
+    }
+
+    /**
+     * Compteurs d'un lecteur, créés une fois à la première connexion
+     */
+    static final class ReaderStats {
+        final LongAdder commands = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+}
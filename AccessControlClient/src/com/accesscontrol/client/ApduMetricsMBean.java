@@ -0,0 +1,46 @@
+package com.accesscontrol.client;
+
+/**
+ * Vue JMX des métriques APDU et des sessions (com.accesscontrol:type=ApduMetrics)
+ */
+public interface ApduMetricsMBean {
+
+    long getTotalCommands();
+
+    long getTotalErrors();
+
+    int getActiveSessions();
+
+    long getSessionsCreated();
+
+    long getSessionsClosed();
+
+    long getSessionsExpired();
+
+    /**
+     * Entrées de log abandonnées faute de place dans la file d'écriture
+     */
+    long getLogEntriesDropped();
+
+    /**
+     * Une ligne par instruction: nombre d'appels et percentiles de latence
+     */
+    String[] getInstructionLatencies();
+
+    /**
+     * Une ligne par status word reçu: "SW=nombre"
+     */
+    String[] getStatusWords();
+
+    /**
+     * Une ligne par lecteur: commandes, erreurs et taux d'erreur
+     */
+    String[] getReaderErrorRates();
+
+    /**
+     * Instantané complet au format texte
+     */
+    String snapshot();
+
+    void reset();
+}
@@ -0,0 +1,271 @@
+package com.accesscontrol.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Écriture asynchrone des logs par validation groupée (group commit).
+ * Les producteurs déposent les entrées dans une LogRingBuffer; un thread
+ * unique les formate et les écrit dans un FileChannel ouvert une seule fois,
+ * tous les batchSize entrées ou toutes les flushIntervalMillis millisecondes.
+ * Le même thread alimente le journal binaire indexé (LogSegmentStore) et
+ * déclenche la rotation du fichier texte (LogRotator) s'ils sont fournis.
+ */
+class AsyncLogWriter implements AutoCloseable {
+
+    static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * Politique de synchronisation disque
+     */
+    enum FsyncPolicy {
+        /** Laisser le système vider ses caches */
+        NONE,
+        /** force() après chaque validation groupée */
+        EVERY_COMMIT
+    }
+
+    /**
+     * Comportement quand la file est pleine
+     */
+    enum OverflowPolicy {
+        /** Abandonner l'entrée et la comptabiliser */
+        DROP,
+        /** Attendre qu'une place se libère */
+        BLOCK
+    }
+
+    private final Path file;
+    private final LogRotator rotator;
+    private final LogSegmentStore segments;
+    private final LogRingBuffer<AccessLogger.LogEntry> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final FsyncPolicy fsyncPolicy;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(256);
+    private final Thread writer;
+    private FileChannel channel;
+    private long fileSize;
+    private long openedAt;
+    private int uncommitted;
+    private long lastCommit;
+    private volatile boolean running = true;
+
+    AsyncLogWriter(Path file, LogRotator rotator, LogSegmentStore segments, int capacity, int batchSize,
+                   long flushIntervalMillis, FsyncPolicy fsyncPolicy, OverflowPolicy overflowPolicy) throws IOException {
+        this.file = file;
+        this.rotator = rotator;
+        this.segments = segments;
+        this.queue = new LogRingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.fsyncPolicy = fsyncPolicy;
+        this.overflowPolicy = overflowPolicy;
+        openChannel();
+        this.writer = new Thread(this::run, "access-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Déposer une entrée dans la file
+     * @return false si l'entrée a été abandonnée (file pleine ou writer arrêté)
+     */
+    boolean append(AccessLogger.LogEntry entry) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        while (!queue.offer(entry)) {
+            if (overflowPolicy == OverflowPolicy.DROP || !running) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        if (queue.size() >= batchSize) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Nombre d'entrées abandonnées depuis le démarrage
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Vider la file, écrire les dernières entrées et fermer le fichier
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        lastCommit = System.nanoTime();
+        long reportedDrops = 0;
+        while (running || queue.size() > 0) {
+            int drained = queue.drain(this::encode, batchSize - uncommitted);
+            uncommitted += drained;
+
+            long lost = dropped.get();
+            if (lost != reportedDrops) {
+                encodeNotice((lost - reportedDrops) + " entrée(s) de log abandonnée(s): file pleine");
+                reportedDrops = lost;
+            }
+
+            long now = System.nanoTime();
+            if (uncommitted >= batchSize || (uncommitted > 0 && now - lastCommit >= flushIntervalNanos)) {
+                commit();
+            } else if (drained == 0 && running) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+        commit();
+        closeChannel();
+        if (rotator != null) {
+            rotator.close();
+        }
+    }
+
+    private void encode(AccessLogger.LogEntry entry) {
+        line.setLength(0);
+        DATE_FORMAT.formatTo(Instant.ofEpochMilli(entry.timestamp), line);
+        line.append(" | ").append(entry.userId)
+            .append(" | ").append(entry.eventType)
+            .append(" | ").append(entry.details)
+            .append(System.lineSeparator());
+        put(line.toString().getBytes(StandardCharsets.UTF_8));
+
+        if (segments != null) {
+            try {
+                segments.append(entry.timestamp, entry.userId, entry.eventType, entry.details);
+            } catch (IOException e) {
+                System.err.println("Erreur lors de l'indexation du log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void encodeNotice(String message) {
+        line.setLength(0);
+        DATE_FORMAT.formatTo(Instant.now(), line);
+        line.append(" | - | LOG_DROP | ").append(message).append(System.lineSeparator());
+        put(line.toString().getBytes(StandardCharsets.UTF_8));
+        uncommitted++;
+    }
+
+    private void put(byte[] bytes) {
+        if (bytes.length > buffer.remaining()) {
+            writeBuffer();
+        }
+        if (bytes.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Validation groupée: écrire le tampon puis synchroniser selon la politique
+     */
+    private void commit() {
+        writeBuffer();
+        if (fsyncPolicy == FsyncPolicy.EVERY_COMMIT && uncommitted > 0 && channel != null) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la synchronisation du log: " + e.getMessage());
+            }
+            if (segments != null) {
+                segments.force();
+            }
+        }
+        uncommitted = 0;
+        lastCommit = System.nanoTime();
+
+        if (rotator != null && rotator.shouldRotate(fileSize, openedAt)) {
+            rotate();
+        }
+    }
+
+    /**
+     * Archiver le fichier courant; le suivant est ouvert à la prochaine écriture
+     */
+    private void rotate() {
+        closeChannel();
+        rotator.rotate();
+        if (segments != null) {
+            segments.deleteOlderThan(System.currentTimeMillis() - rotator.getRetentionMillis());
+        }
+    }
+
+    private void writeBuffer() {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) {
+        if (!source.hasRemaining()) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                openChannel();
+            }
+            while (source.hasRemaining()) {
+                fileSize += channel.write(source);
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'écriture du log: " + e.getMessage());
+            source.position(source.limit());
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la fermeture du log: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        openedAt = rotator != null ? rotator.openedAt() : System.currentTimeMillis();
+    }
+}
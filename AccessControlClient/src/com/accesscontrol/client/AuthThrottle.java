@@ -0,0 +1,177 @@
+package com.accesscontrol.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Freinage des attaques par force brute, côté contrôleur et tous lecteurs
+ * confondus: le blocage du PIN sur la carte ne freine pas quelqu'un qui
+ * essaie beaucoup de badges volés, ou un même badge sur plusieurs lecteurs.
+ *
+ * Les échecs (AUTH_FAIL, BLOCKED) sont comptés sur une fenêtre glissante
+ * par badge et par lecteur. Au-delà d'un seuil, les tentatives suivantes
+ * sont retardées (délai doublé à chaque échec), puis refusées sans
+ * atteindre la carte tant que la fenêtre n'est pas retombée.
+ *
+ * Les compteurs sont répartis sur plusieurs tables (stripes) et mis à jour
+ * par CAS, sans verrou; un badge sans échec récent ne coûte qu'une recherche
+ * infructueuse par clé. Les compteurs inactifs sont purgés périodiquement.
+ */
+class AuthThrottle {
+
+    /** Tentative refusée (résultat de check) */
+    static final long REJECT = -1;
+
+    private static final int STRIPES = 16;
+    private static final int BUCKETS = 6;
+    private static final long BUCKET_MILLIS = 10_000;
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    // Seuils sur la fenêtre glissante (BUCKETS * BUCKET_MILLIS = 1 minute)
+    private static final int USER_DELAY_AFTER = 3;
+    private static final int USER_REJECT_AFTER = 6;
+    private static final int READER_DELAY_AFTER = 10;
+    private static final int READER_REJECT_AFTER = 30;
+    private static final long BASE_DELAY = 250;
+    private static final long MAX_DELAY = 5_000;
+
+    private final List<Map<String, Window>> users = newStripes();
+    private final List<Map<String, Window>> readers = newStripes();
+    private final ScheduledExecutorService sweeper;
+
+    AuthThrottle() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "throttle-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = BUCKETS * BUCKET_MILLIS;
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Décider d'une tentative avant de l'envoyer à la carte
+     * @param readerName nom du lecteur, ou null en mode interactif
+     * @return 0 pour laisser passer, un délai en millisecondes, ou REJECT
+     */
+    long check(String userId, String readerName) {
+        long now = System.currentTimeMillis();
+        long delay = 0;
+        if (userId != null) {
+            delay = verdict(count(users, userId, now), USER_DELAY_AFTER, USER_REJECT_AFTER);
+        }
+        if (delay != REJECT && readerName != null) {
+            long readerDelay = verdict(count(readers, readerName, now), READER_DELAY_AFTER, READER_REJECT_AFTER);
+            delay = readerDelay == REJECT ? REJECT : Math.max(delay, readerDelay);
+        }
+        return delay;
+    }
+
+    /**
+     * Compter un échec (PIN faux, clé invalide, carte bloquée)
+     */
+    void recordFailure(String userId, String readerName) {
+        long now = System.currentTimeMillis();
+        if (userId != null) {
+            stripe(users, userId).computeIfAbsent(userId, key -> new Window()).increment(now);
+        }
+        if (readerName != null) {
+            stripe(readers, readerName).computeIfAbsent(readerName, key -> new Window()).increment(now);
+        }
+    }
+
+    /**
+     * Authentification réussie: oublier les échecs du badge (pas ceux du lecteur)
+     */
+    void recordSuccess(String userId) {
+        if (userId != null) {
+            stripe(users, userId).remove(userId);
+        }
+    }
+
+    void stop() {
+        sweeper.shutdownNow();
+    }
+
+    private static long verdict(int failures, int delayAfter, int rejectAfter) {
+        if (failures >= rejectAfter) {
+            return REJECT;
+        }
+        if (failures < delayAfter) {
+            return 0;
+        }
+        return Math.min(MAX_DELAY, BASE_DELAY << Math.min(failures - delayAfter, 16));
+    }
+
+    private static int count(List<Map<String, Window>> stripes, String key, long now) {
+        Window window = stripe(stripes, key).get(key);
+        return window == null ? 0 : window.count(now);
+    }
+
+    private static Map<String, Window> stripe(List<Map<String, Window>> stripes, String key) {
+        int hash = key.hashCode();
+        return stripes.get((hash ^ (hash >>> 16)) & (STRIPES - 1));
+    }
+
+    /**
+     * Retirer les compteurs sans échec dans la fenêtre
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (List<Map<String, Window>> stripes : List.of(users, readers)) {
+            for (Map<String, Window> stripe : stripes) {
+                stripe.entrySet().removeIf(entry -> entry.getValue().count(now) == 0);
+            }
+        }
+    }
+
+    private static List<Map<String, Window>> newStripes() {
+        List<Map<String, Window>> stripes = new ArrayList<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new ConcurrentHashMap<>());
+        }
+        return List.copyOf(stripes);
+    }
+
+    /**
+     * Fenêtre glissante de BUCKETS tranches; chaque tranche contient son
+     * numéro de période et son compteur dans un seul long, mis à jour par CAS
+     */
+    static final class Window {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void increment(long now) {
+            long period = now / BUCKET_MILLIS;
+            int index = (int) (period % BUCKETS);
+            while (true) {
+                long current = buckets.get(index);
+                long next = current >>> COUNT_BITS == period
+                    ? current + ((current & COUNT_MASK) < COUNT_MASK ? 1 : 0)
+                    : (period << COUNT_BITS) | 1;
+                if (buckets.compareAndSet(index, current, next)) {
+                    return;
+                }
+            }
+        }
+
+        int count(long now) {
+            long period = now / BUCKET_MILLIS;
+            int total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long value = buckets.get(i);
+                if (period - (value >>> COUNT_BITS) < BUCKETS) {
+                    total += (int) (value & COUNT_MASK);
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Processus d'authentification A2F, partagé entre le mode interactif
+ * et le mode passerelle multi-lecteurs.
+ * Une instance est utilisable depuis plusieurs threads à la fois : seul le
+ * canal passé en paramètre est propre à chaque lecteur.
+ * Les échanges passent par le codec APDU du thread (ApduCodec): pas de
+ * CommandAPDU ni de copie de réponse par badge, et le PIN saisi est effacé
+ * dès qu'il a été envoyé.
+ */
+class Authenticator {
+
+    private static final int CHALLENGE_SIZE = ChallengeVerifier.CHALLENGE_SIZE;
+
+    // Statuts de la réponse à INS_AUTHENTICATE
+    private static final int AUTH_OK = 0x00;
+    private static final int AUTH_BLOCKED = 0x02;
+
+    // Résultat de reenter(): passage refusé sans repli sur l'authentification complète
+    private static final String DENIED = "";
+
+    private final AccessLogger logger;
+    private final SessionManager sessionManager;
+    private final ChallengeVerifier verifier;
+    private final SecureRandom random = new SecureRandom();
+    private volatile boolean quiet;
+    private volatile PolicyEngine policy;
+    private volatile RevocationList revocations;
+    private volatile AuthThrottle throttle;
+    private volatile long reentryWindowMillis;
+    private volatile CardJournal cardJournal;
+
+    Authenticator(AccessLogger logger, SessionManager sessionManager, ChallengeVerifier verifier) {
+        this.logger = logger;
+        this.sessionManager = sessionManager;
+        this.verifier = verifier;
+    }
+
+    /**
+     * Ne plus afficher le déroulement (générateur de charge); les logs restent écrits
+     */
+    void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Vérifier les droits (zone, horaires) après le second facteur; null pour tout autoriser
+     */
+    void setPolicy(PolicyEngine policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Refuser les badges révoqués avant la saisie du PIN; null pour ne pas vérifier
+     */
+    void setRevocations(RevocationList revocations) {
+        this.revocations = revocations;
+    }
+
+    /**
+     * Freiner les tentatives après des échecs répétés; null pour ne pas freiner
+     */
+    void setThrottle(AuthThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Réentrée rapide: pendant windowSeconds après une authentification A2F,
+     * un nouveau passage du badge ne demande qu'une preuve de la carte liée à
+     * la session (un échange, sans PIN); 0 pour désactiver
+     */
+    void setReentryWindow(int windowSeconds) {
+        this.reentryWindowMillis = windowSeconds * 1000L;
+    }
+
+    /**
+     * Noter chaque décision dans le journal du badge (un échange de plus par
+     * passage); null pour ne rien écrire sur la carte
+     */
+    void setCardJournal(CardJournal cardJournal) {
+        this.cardJournal = cardJournal;
+    }
+
+    /**
+     * Sélectionner l'applet sur le canal
+     * @return les capacités annoncées par l'applet (0 pour une applet sans annonce)
+     */
+    static int selectApplet(CardChannel channel) throws CardException {
+        ApduCodec codec = ApduCodec.get();
+        int sw = codec.begin((byte) 0xA4, 0x04, 0x00).put(AccessControlClient.APPLET_AID).transmit(channel, 0);
+
+        if (sw != ApduCodec.SW_OK) {
+            throw new CardException("❌ Échec de sélection de l'applet, SW=" + String.format("%04X", sw));
+        }
+
+        return codec.length() >= 2 ? codec.byteAt(1) & 0xFF : 0;
+    }
+
+    /**
+     * Lister les identités enregistrées sur la carte en un seul échange
+     * @return slot -> UserID, dans l'ordre des slots (vide si l'applet n'a pas de slots)
+     */
+    static Map<Integer, String> listSlots(CardChannel channel, int capabilities) throws CardException {
+        if ((capabilities & AccessControlClient.CAP_SLOTS) == 0) {
+            return new LinkedHashMap<>();
+        }
+        ApduCodec codec = ApduCodec.get();
+        int sw = codec.begin(AccessControlClient.INS_LIST_SLOTS, 0x00, 0x00).transmit(channel, 256);
+        if (sw != ApduCodec.SW_OK) {
+            throw new CardException("Échec de la lecture des slots, SW=" + String.format("%04X", sw));
+        }
+        Map<Integer, String> identities = new LinkedHashMap<>();
+        int offset = 0;
+        while (offset + 2 <= codec.length()) {
+            int slot = codec.byteAt(offset) & 0xFF;
+            int length = codec.byteAt(offset + 1) & 0xFF;
+            if (offset + 2 + length > codec.length()) {
+                break;
+            }
+            identities.put(slot, codec.text(offset + 2, length));
+            offset += 2 + length;
+        }
+        return identities;
+    }
+
+    /**
+     * Lire l'identité d'un slot (INS_GET_USER_ID)
+     * @return l'identité, ou null si la carte refuse la lecture
+     */
+    static String readUserId(CardChannel channel, int slot) throws CardException {
+        ApduCodec codec = ApduCodec.get();
+        int sw = codec.begin(AccessControlClient.INS_GET_USER_ID, slot, 0x00).transmit(channel, 16);
+        return sw == ApduCodec.SW_OK ? codec.text(0, codec.length()) : null;
+    }
+
+    /**
+     * Processus d'authentification A2F sur le slot par défaut
+     */
+    String authenticate(CardChannel channel, String readerName, PinPad pinPad, int capabilities)
+            throws CardException {
+        return authenticate(channel, readerName, pinPad, capabilities, 0, null);
+    }
+
+    String authenticate(CardChannel channel, String readerName, PinPad pinPad, int capabilities, int slot)
+            throws CardException {
+        return authenticate(channel, readerName, pinPad, capabilities, slot, null);
+    }
+
+    /**
+     * Processus d'authentification A2F
+     * @param readerName nom du lecteur, ou null en mode interactif
+     * @param capabilities capacités renvoyées par selectApplet
+     * @param slot slot de la carte portant l'identité à authentifier (P1 des commandes)
+     * @param knownUserId identité déjà lue à l'insertion (préchargement), ou null
+     * @return l'identifiant de la session ouverte, ou null si l'accès est refusé
+     */
+    String authenticate(CardChannel channel, String readerName, PinPad pinPad, int capabilities, int slot,
+                        String knownUserId) throws CardException {
+        boolean reentry = reentryWindowMillis > 0 && (capabilities & AccessControlClient.CAP_REENTRY) != 0;
+        if (reentry) {
+            String sessionId = reenter(channel, readerName, slot, knownUserId);
+            if (sessionId != null) {
+                boolean granted = !DENIED.equals(sessionId);
+                recordOnCard(channel, readerName, capabilities, slot,
+                             granted ? CardJournal.REENTRY : CardJournal.DENIED);
+                return granted ? sessionId : null;
+            }
+        }
+
+        report(readerName, "\n=== AUTHENTIFICATION A2F ===");
+        String sessionId = authenticateA2F(channel, readerName, pinPad, capabilities, slot, knownUserId);
+        if (sessionId != null && reentry) {
+            bindSession(channel, readerName, slot, sessionId);
+        }
+        recordOnCard(channel, readerName, capabilities, slot,
+                     sessionId != null ? CardJournal.GRANTED : CardJournal.DENIED);
+        return sessionId;
+    }
+
+    /**
+     * Noter la décision dans le journal du badge, si l'applet en tient un
+     */
+    private void recordOnCard(CardChannel channel, String readerName, int capabilities, int slot, int event)
+            throws CardException {
+        CardJournal current = cardJournal;
+        if (current == null || (capabilities & AccessControlClient.CAP_JOURNAL) == 0) {
+            return;
+        }
+        // La carte n'accepte l'entrée qu'après le PIN ou une réentrée: un refus
+        // avant PIN correct n'y est donc pas noté (il reste dans les logs)
+        if (!current.append(channel, slot, readerName, event) && event != CardJournal.DENIED) {
+            report(readerName, "⚠ Passage non noté sur le badge");
+        }
+    }
+
+    private String authenticateA2F(CardChannel channel, String readerName, PinPad pinPad, int capabilities,
+                                   int slot, String knownUserId) throws CardException {
+        if ((capabilities & AccessControlClient.CAP_COMBINED_AUTH) != 0) {
+            if (knownUserId == null && (revocations != null || throttle != null)) {
+                // L'identité n'arrive sinon qu'avec la réponse, après le PIN
+                knownUserId = readUserId(channel, slot);
+            }
+            if (knownUserId != null && isRevoked(knownUserId, readerName)) {
+                return null;
+            }
+            return authenticateCombined(channel, readerName, pinPad, capabilities, slot, knownUserId);
+        }
+
+        // Récupérer l'ID utilisateur depuis la carte, sauf s'il a déjà été lu
+        String userId = knownUserId != null ? knownUserId : readUserId(channel, slot);
+        if (userId == null) {
+            report(readerName, "Erreur lors de la lecture de la carte\n");
+            return null;
+        }
+        report(readerName, "Badge détecté: " + userId);
+        if (isRevoked(userId, readerName)) {
+            return null;
+        }
+        if (!canProve(userId, readerName, capabilities)) {
+            return null;
+        }
+
+        ApduCodec codec = ApduCodec.get();
+
+        // FACTEUR 1: Vérification du PIN
+        report(readerName, "\n--- Facteur 1: Vérification PIN ---");
+        boolean pinValid = false;
+        int attempts = 0;
+        int maxAttempts = 3;
+
+        while (!pinValid && attempts < maxAttempts) {
+            if (!admit(userId, readerName)) {
+                return null;
+            }
+            char[] pin = pinPad.readPIN(readerName, userId);
+            if (pin == null) {
+                report(readerName, "Saisie du PIN abandonnée\n");
+                return null;
+            }
+
+            int sw;
+            try {
+                sw = codec.begin(AccessControlClient.INS_VERIFY_PIN, slot, 0x00).putPin(pin).transmit(channel, 0);
+            } finally {
+                Arrays.fill(pin, '\0');
+            }
+
+            if (sw == ApduCodec.SW_OK) {
+                pinValid = true;
+                report(readerName, "✓ PIN correct");
+            } else if ((sw & 0xFFF0) == 0x63C0) {
+                attempts++;
+                int remaining = sw & 0x000F;
+                report(readerName, "✗ PIN incorrect. Tentatives restantes: " + remaining);
+                failure(userId, readerName, "AUTH_FAIL", "PIN incorrect");
+            } else if (sw == 0x6983) {
+                report(readerName, "✗ Carte bloquée. Contactez l'administrateur.\n");
+                failure(userId, readerName, "BLOCKED", "Carte bloquée");
+                return null;
+            } else {
+                report(readerName, "✗ Erreur de vérification\n");
+                return null;
+            }
+        }
+
+        if (!pinValid) {
+            report(readerName, "Nombre maximum de tentatives atteint\n");
+            return null;
+        }
+
+        // FACTEUR 2: Vérification de la clé privée
+        report(readerName, "\n--- Facteur 2: Vérification Clé Privée ---");
+
+        // La clé reste sur la carte: seule la réponse au challenge circule
+        byte[] challenge = newChallenge(codec);
+        int sw = codec.begin(AccessControlClient.INS_CHALLENGE, slot, 0x00).put(challenge).transmit(channel, 256);
+        boolean valid = sw == ApduCodec.SW_OK
+            && verifier.verify(userId, challenge, codec.response(), 0, codec.length());
+        return conclude(userId, readerName, valid);
+    }
+
+    /**
+     * Authentification en un seul échange (INS_AUTHENTICATE): PIN et challenge
+     * partent ensemble, l'identité, le statut du PIN et la réponse au challenge
+     * reviennent dans la même réponse APDU.
+     */
+    private String authenticateCombined(CardChannel channel, String readerName, PinPad pinPad, int capabilities,
+                                        int slot, String knownUserId) throws CardException {
+        report(readerName, "\n--- Facteur 1: Vérification PIN ---");
+        ApduCodec codec = ApduCodec.get();
+        int attempts = 0;
+        int maxAttempts = 3;
+
+        while (attempts < maxAttempts) {
+            if (!admit(knownUserId, readerName)) {
+                return null;
+            }
+            char[] pin = pinPad.readPIN(readerName, knownUserId);
+            if (pin == null) {
+                report(readerName, "Saisie du PIN abandonnée\n");
+                return null;
+            }
+            long start = System.nanoTime();
+
+            // Données: longueur PIN | PIN | challenge
+            byte[] challenge = newChallenge(codec);
+            int sw;
+            try {
+                sw = codec.begin(AccessControlClient.INS_AUTHENTICATE, slot, 0x00)
+                    .put((byte) pin.length).putPin(pin).put(challenge)
+                    .transmit(channel, 256);
+            } finally {
+                Arrays.fill(pin, '\0');
+            }
+
+            // Réponse: longueur | UserID | statut | essais restants | MAC
+            int length = codec.length();
+            if (sw != ApduCodec.SW_OK || length < 3 || length < 3 + codec.byteAt(0)) {
+                report(readerName, "Erreur lors de la lecture de la carte\n");
+                return null;
+            }
+
+            int userIdLength = codec.byteAt(0);
+            String userId = codec.text(1, userIdLength);
+            int status = codec.byteAt(1 + userIdLength);
+            int remaining = codec.byteAt(2 + userIdLength);
+            report(readerName, "Badge détecté: " + userId);
+            if (!userId.equals(knownUserId) && isRevoked(userId, readerName)) {
+                return null;
+            }
+
+            if (status == AUTH_BLOCKED) {
+                report(readerName, "✗ Carte bloquée. Contactez l'administrateur.\n");
+                failure(userId, readerName, "BLOCKED", "Carte bloquée");
+                return null;
+            }
+            if (status != AUTH_OK) {
+                attempts++;
+                report(readerName, "✗ PIN incorrect. Tentatives restantes: " + remaining);
+                failure(userId, readerName, "AUTH_FAIL", "PIN incorrect");
+                continue;
+            }
+            report(readerName, "✓ PIN correct");
+
+            // FACTEUR 2: réponse de la carte au challenge
+            report(readerName, "\n--- Facteur 2: Vérification Clé Privée ---");
+            int macOffset = 3 + userIdLength;
+            if (!canProve(userId, readerName, capabilities)) {
+                return null;
+            }
+            boolean valid = verifier.verify(userId, challenge, codec.response(), macOffset, length - macOffset);
+
+            String sessionId = conclude(userId, readerName, valid);
+            report(readerName, "Décision en " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return sessionId;
+        }
+
+        report(readerName, "Nombre maximum de tentatives atteint\n");
+        return null;
+    }
+
+    /**
+     * Passage sur une session déjà ouverte (INS_REENTER): la carte renvoie la
+     * session qui lui a été liée et prouve la possession de sa clé
+     * @return la session reprise, DENIED si le passage est refusé, ou null pour
+     *         poursuivre par l'authentification complète
+     */
+    private String reenter(CardChannel channel, String readerName, int slot, String knownUserId)
+            throws CardException {
+        ApduCodec codec = ApduCodec.get();
+        byte[] challenge = newChallenge(codec);
+        int sw = codec.begin(AccessControlClient.INS_REENTER, slot, 0x00).put(challenge).transmit(channel, 256);
+        int length = codec.length();
+        if (sw != ApduCodec.SW_OK || length < 1 || length != 1 + codec.byteAt(0) + CHALLENGE_SIZE) {
+            // Aucune session liée à la carte
+            return null;
+        }
+
+        int idLength = codec.byteAt(0);
+        String sessionId = codec.text(1, idLength);
+        long age = sessionManager.getSessionAge(sessionId);
+        if (age < 0 || age > reentryWindowMillis) {
+            return null;
+        }
+        String userId = sessionManager.getUserId(sessionId);
+        if (userId == null || (knownUserId != null && !knownUserId.equals(userId))) {
+            return null;
+        }
+        if (!verifier.verifyBound(userId, challenge, codec.response(), 1, idLength, 1 + idLength, CHALLENGE_SIZE)) {
+            failure(userId, readerName, "AUTH_FAIL", "Preuve de réentrée invalide");
+            return null;
+        }
+
+        report(readerName, "Badge détecté: " + userId);
+        if (isRevoked(userId, readerName) || !authorized(userId, readerName)) {
+            return DENIED;
+        }
+        sessionManager.renewSession(sessionId);
+        report(readerName, "✓ Réentrée sur la session " + sessionId + " - ACCÈS ACCORDÉ");
+        logger.logEvent(userId, "REENTRY", "Passage autorisé - Session: " + sessionId);
+        return sessionId;
+    }
+
+    /**
+     * Lier la session ouverte à la carte pour les passages suivants; en cas
+     * d'échec, le prochain passage refait simplement l'authentification complète
+     */
+    private void bindSession(CardChannel channel, String readerName, int slot, String sessionId)
+            throws CardException {
+        byte[] id = sessionId.getBytes(StandardCharsets.US_ASCII);
+        if (id.length > 16) {
+            return;
+        }
+        int sw = ApduCodec.get().begin(AccessControlClient.INS_BIND_SESSION, slot, 0x00).put(id).transmit(channel, 0);
+        if (sw != ApduCodec.SW_OK) {
+            report(readerName, "⚠ Session non liée au badge, SW=" + String.format("%04X", sw));
+        }
+    }
+
+    /**
+     * Badge retiré du lecteur: la session est fermée, sauf en mode réentrée
+     * où elle reste ouverte pour les portes suivantes jusqu'à son expiration
+     */
+    void badgeRemoved(String sessionId, String readerName) {
+        if (reentryWindowMillis == 0) {
+            closeSession(sessionId, readerName, "Badge retiré");
+        }
+    }
+
+    /**
+     * Fermer une session encore active et tracer la raison
+     */
+    void closeSession(String sessionId, String readerName, String reason) {
+        String userId = sessionManager.getUserId(sessionId);
+        if (userId == null || !sessionManager.isSessionActive(sessionId)) {
+            return;
+        }
+        sessionManager.closeSession(sessionId);
+        report(readerName, "Session fermée: " + reason);
+        logger.logEvent(userId, "SESSION_CLOSED", reason);
+    }
+
+    /**
+     * Accorder ou refuser l'accès après le second facteur
+     */
+    private String conclude(String userId, String readerName, boolean keyValid) {
+        if (keyValid) {
+            report(readerName, "✓ Clé privée validée");
+
+            // Autorisation: zone du lecteur et plage horaire
+            if (!authorized(userId, readerName)) {
+                return null;
+            }
+
+            // Authentification réussie
+            report(readerName, "\n✓✓✓ ACCÈS ACCORDÉ ✓✓✓");
+
+            // Démarrer une session
+            PolicyEngine currentPolicy = policy;
+            String zone = currentPolicy == null ? null : currentPolicy.zoneOf(readerName);
+            String sessionId = sessionManager.createSession(userId, zone);
+            logger.logEvent(userId, "ACCESS_GRANTED", "Accès autorisé - Session: " + sessionId);
+            AuthThrottle currentThrottle = throttle;
+            if (currentThrottle != null) {
+                currentThrottle.recordSuccess(userId);
+            }
+            return sessionId;
+        }
+
+        report(readerName, "✗ Clé privée invalide");
+        report(readerName, "\n✗✗✗ ACCÈS REFUSÉ ✗✗✗\n");
+        failure(userId, readerName, "AUTH_FAIL", "Clé privée invalide");
+        return null;
+    }
+
+    /**
+     * Droits de l'utilisateur sur ce lecteur à l'heure courante; un refus est tracé
+     */
+    private boolean authorized(String userId, String readerName) {
+        PolicyEngine current = policy;
+        PolicyEngine.Decision decision = current == null
+            ? PolicyEngine.Decision.GRANTED : current.decide(userId, readerName);
+        if (decision != PolicyEngine.Decision.GRANTED) {
+            report(readerName, "✗ " + decision.message);
+            report(readerName, "\n✗✗✗ ACCÈS REFUSÉ ✗✗✗\n");
+            logger.logEvent(userId, "ACCESS_DENIED", decision.message);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Freinage avant d'envoyer une tentative à la carte
+     * @return false si la tentative est refusée
+     */
+    private boolean admit(String userId, String readerName) {
+        AuthThrottle current = throttle;
+        if (current == null) {
+            return true;
+        }
+        long delay = current.check(userId, readerName);
+        if (delay == AuthThrottle.REJECT) {
+            report(readerName, "✗ Trop d'échecs récents, réessayez plus tard\n");
+            logger.logEvent(String.valueOf(userId), "THROTTLED", "Tentative refusée (échecs récents)");
+            return false;
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Échec d'authentification: tracer et compter pour le freinage
+     */
+    private void failure(String userId, String readerName, String eventType, String details) {
+        logger.logEvent(userId, eventType, details);
+        AuthThrottle current = throttle;
+        if (current != null) {
+            current.recordFailure(userId, readerName);
+        }
+    }
+
+    /**
+     * Badge révoqué: tracer et refuser
+     */
+    private boolean isRevoked(String userId, String readerName) {
+        RevocationList current = revocations;
+        if (current == null || !current.isRevoked(userId)) {
+            return false;
+        }
+        report(readerName, "✗ Badge révoqué. Contactez l'administrateur.\n");
+        logger.logEvent(userId, "REVOKED", "Badge révoqué");
+        return true;
+    }
+
+    private byte[] newChallenge(ApduCodec codec) {
+        byte[] challenge = codec.challenge();
+        random.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * Le second facteur n'est accepté que sur la réponse au challenge: un badge
+     * dont le contrôleur ignore la clé, ou qui ne sait pas répondre, est refusé
+     */
+    private boolean canProve(String userId, String readerName, int capabilities) {
+        if (!verifier.knows(userId)) {
+            report(readerName, "✗ Clé du badge inconnue du contrôleur\n");
+            failure(userId, readerName, "AUTH_FAIL", "Clé du badge inconnue");
+            return false;
+        }
+        if ((capabilities & AccessControlClient.CAP_CHALLENGE) == 0) {
+            report(readerName, "✗ Badge sans challenge (applet à mettre à jour)\n");
+            failure(userId, readerName, "AUTH_FAIL", "Challenge non supporté");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Afficher un message, préfixé par le lecteur en mode passerelle
+     */
+    private void report(String readerName, String message) {
+        if (quiet) {
+            return;
+        }
+        if (readerName == null) {
+            System.out.println(message);
+        } else {
+            System.out.println("[" + readerName + "] " + message.strip());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.accesscontrol.client;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clés privées des badges connues du contrôleur, par utilisateur.
+ * Renseignée à l'initialisation d'un badge, elle permet de vérifier la
+ * réponse de la carte à un challenge sans que la clé ne circule.
+ *
+ * Chaque nouvelle clé est ajoutée au journal (fichier + ".journal", une
+ * ligne "clé userId") et forcée sur le disque avant de rendre la main: elle
+ * peut alors être envoyée au badge. Le fichier de propriétés n'est réécrit
+ * qu'au compactage (au chargement et en fin de lot), qui vide le journal.
+ */
+class BadgeKeyStore {
+
+    private static final int KEY_HEX = 32;
+
+    private final Path file;
+    private final Path journal;
+    private final Map<String, byte[]> keys = new ConcurrentHashMap<>();
+    private FileChannel journalChannel;
+
+    BadgeKeyStore(Path file) {
+        this.file = file;
+        this.journal = file.resolveSibling(file.getFileName() + ".journal");
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la lecture des clés: " + e.getMessage());
+            }
+            for (String userId : properties.stringPropertyNames()) {
+                keys.put(userId, HexFormat.of().parseHex(properties.getProperty(userId)));
+            }
+        }
+        if (replayJournal() > 0) {
+            compact();
+        }
+    }
+
+    /**
+     * Clé du badge, ou null si le badge n'a pas été initialisé par ce contrôleur
+     */
+    byte[] getKey(String userId) {
+        return keys.get(userId);
+    }
+
+    /**
+     * Enregistrer la clé d'un badge, sur le disque au retour
+     * @return false si le journal n'a pas pu être écrit (clé non enregistrée)
+     */
+    boolean putKey(String userId, byte[] key) {
+        return putKeys(Collections.singletonMap(userId, key));
+    }
+
+    /**
+     * Enregistrer les clés d'un lot de badges, forcées ensemble sur le disque
+     * @return false si le journal n'a pas pu être écrit (aucune clé enregistrée)
+     */
+    boolean putKeys(Map<String, byte[]> batch) {
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+            lines.append(HexFormat.of().formatHex(entry.getValue())).append(' ').append(entry.getKey()).append('\n');
+        }
+        FileChannel channel;
+        try {
+            // Seul l'ajout est sous verrou: les lecteurs d'un lot forcent le journal en parallèle
+            synchronized (this) {
+                channel = openJournal();
+                long size = channel.size();
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    // Pas de ligne coupée devant l'ajout suivant
+                    channel.truncate(size);
+                    throw e;
+                }
+                for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                    keys.put(entry.getKey(), entry.getValue().clone());
+                }
+            }
+            channel.force(false);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'enregistrement des clés: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Réécrire le fichier de propriétés avec toutes les clés, puis vider le journal
+     * @return false si le fichier n'a pas pu être écrit (le journal est alors conservé)
+     */
+    synchronized boolean compact() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, byte[]> entry : keys.entrySet()) {
+            properties.setProperty(entry.getKey(), HexFormat.of().formatHex(entry.getValue()));
+        }
+        // Fichier temporaire forcé sur le disque puis remplacement atomique:
+        // l'ancienne version reste intacte si l'écriture échoue en cours de route
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(temp);
+            createPrivate(temp);
+            StringWriter content = new StringWriter();
+            properties.store(content, "Clés des badges");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(file.toAbsolutePath().getParent());
+            if (journalChannel != null) {
+                journalChannel.truncate(0);
+                journalChannel.force(true);
+            } else {
+                Files.deleteIfExists(journal);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'enregistrement des clés: " + e.getMessage());
+            return false;
+        }
+    }
+
+    synchronized void close() {
+        if (journalChannel != null) {
+            try {
+                journalChannel.close();
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture du journal des clés: " + e.getMessage());
+            }
+            journalChannel = null;
+        }
+    }
+
+    /**
+     * Reprendre les clés du journal (la dernière ligne d'un utilisateur l'emporte;
+     * une ligne coupée par un arrêt brutal est ignorée)
+     * @return nombre de clés lues
+     */
+    private int replayJournal() {
+        if (!Files.exists(journal)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() <= KEY_HEX + 1 || line.charAt(KEY_HEX) != ' ') {
+                    continue;
+                }
+                try {
+                    keys.put(line.substring(KEY_HEX + 1), HexFormat.of().parseHex(line, 0, KEY_HEX));
+                    replayed++;
+                } catch (IllegalArgumentException e) {
+                    // Ligne incomplète
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la lecture du journal des clés: " + e.getMessage());
+        }
+        return replayed;
+    }
+
+    private FileChannel openJournal() throws IOException {
+        if (journalChannel == null) {
+            if (!Files.exists(journal)) {
+                createPrivate(journal);
+                forceDirectory(journal.toAbsolutePath().getParent());
+            }
+            journalChannel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return journalChannel;
+    }
+
+    /**
+     * Créer le fichier lisible par son seul propriétaire (les clés y sont en clair)
+     */
+    static void createPrivate(Path path) throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            return;
+        }
+        File created = Files.createFile(path).toFile();
+        created.setReadable(false, false);
+        created.setWritable(false, false);
+        created.setReadable(true, true);
+        created.setWritable(true, true);
+    }
+
+    /**
+     * Forcer sur le disque les entrées d'un répertoire (création, renommage);
+     * sans effet là où un répertoire ne s'ouvre pas (Windows)
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Répertoire non ouvrable sur ce système: le renommage reste atomique
+        }
+    }
+}
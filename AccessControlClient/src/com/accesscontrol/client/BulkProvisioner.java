@@ -0,0 +1,456 @@
+package com.accesscontrol.client;
+
+import javax.crypto.KeyGenerator;
+import javax.smartcardio.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Initialisation d'un lot de badges à partir d'un manifeste, sur tous les
+ * lecteurs à la fois: chaque badge vierge posé sur n'importe quel lecteur
+ * reçoit l'entrée suivante du manifeste.
+ *
+ * Les clés sont générées d'avance sur un pool dédié (un KeyGenerator par
+ * thread). Un échec d'échange est retenté sur le même badge, puis l'entrée
+ * repasse en tête de file pour le badge suivant. Le journal du lot
+ * (manifeste + ".journal") liste les badges terminés: relancer le même
+ * manifeste reprend là où le lot s'était arrêté. Chaque clé est enregistrée
+ * dans le BadgeKeyStore (ajout forcé sur le disque) avant d'être envoyée au
+ * badge: un arrêt brutal ne laisse jamais un badge remis avec une clé
+ * inconnue du contrôleur. Seules les lignes du journal du lot sont écrites
+ * par paquets; le fichier de clés est compacté en fin de lot.
+ *
+ * Manifeste CSV (userId,pin[,slot], en-tête facultatif) ou JSON
+ * ([{"userId": "alice", "pin": "1234", "slot": 0}, ...]).
+ */
+class BulkProvisioner implements CardPresenceMonitor.Listener {
+
+    private static final int CARD_ATTEMPTS = 3;
+    private static final int MAX_BADGES_PER_ENTRY = 3;
+    private static final int FLUSH_SIZE = 32;
+    private static final long FLUSH_INTERVAL = 2;
+
+    private static final Pattern JSON_OBJECT = Pattern.compile("\\{[^}]*\\}");
+    private static final Pattern JSON_FIELD =
+        Pattern.compile("\"(\\w+)\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|(-?\\d+))");
+
+    /**
+     * Une ligne du manifeste
+     */
+    static final class Entry {
+        final String userId;
+        final String pin;
+        final int slot;
+        CompletableFuture<byte[]> key;
+        int badges;
+
+        Entry(String userId, String pin, int slot) {
+            this.userId = userId;
+            this.pin = pin;
+            this.slot = slot;
+        }
+    }
+
+    private final CardTerminals terminals;
+    private final BadgeKeyStore keyStore;
+    private final ChallengeVerifier verifier;
+    private final AccessLogger logger;
+    private final Path manifest;
+    private final Path journal;
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private final List<String> unflushed = new ArrayList<>();
+    private final ExecutorService workers;
+    private final ExecutorService keyPool;
+    private final ScheduledExecutorService flusher;
+    private final CardPresenceMonitor monitor;
+    private final ThreadLocal<KeyGenerator> keyGenerators = ThreadLocal.withInitial(BulkProvisioner::newKeyGenerator);
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private int total;
+    private int remaining;
+    private BufferedWriter journalWriter;
+
+    BulkProvisioner(CardTerminals terminals, BadgeKeyStore keyStore, ChallengeVerifier verifier,
+                    AccessLogger logger, Path manifest, ApduMetrics metrics) {
+        this.terminals = terminals;
+        this.keyStore = keyStore;
+        this.verifier = verifier;
+        this.logger = logger;
+        this.manifest = manifest;
+        this.journal = manifest.resolveSibling(manifest.getFileName() + ".journal");
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "provision-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger keyCounter = new AtomicInteger();
+        this.keyPool = Executors.newFixedThreadPool(2, task -> {
+            Thread thread = new Thread(task, "keygen-" + keyCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "provision-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.monitor = new CardPresenceMonitor(terminals, this, workers, metrics);
+    }
+
+    /**
+     * Lire le manifeste et le journal, lancer la génération des clés et la
+     * surveillance des lecteurs
+     */
+    void start() throws IOException, CardException {
+        List<Entry> entries = readManifest(manifest);
+        Set<String> completed = readJournal();
+        for (Entry entry : entries) {
+            if (!completed.contains(entry.userId)) {
+                entry.key = generateKey();
+                pending.add(entry);
+            }
+        }
+        total = entries.size();
+        remaining = pending.size();
+        done.set(total - remaining);
+        System.out.println("Lot: " + total + " badges, " + done.get() + " déjà faits, " + remaining + " à initialiser");
+        if (remaining == 0) {
+            finished.countDown();
+            return;
+        }
+
+        List<CardTerminal> readers = terminals.list();
+        if (readers.isEmpty()) {
+            throw new CardException("❌ Aucun terminal détecté sur le simulateur.");
+        }
+        for (CardTerminal reader : readers) {
+            System.out.println("✅ Lecteur pris en charge: " + reader.getName());
+        }
+        journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+        monitor.start();
+        System.out.println("Posez les badges vierges sur les lecteurs...\n");
+    }
+
+    /**
+     * Attendre la fin du lot (toutes les entrées faites ou abandonnées)
+     */
+    void awaitCompletion() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * Arrêter les lecteurs et enregistrer les badges terminés
+     */
+    void stop() throws InterruptedException {
+        monitor.stop();
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+        keyPool.shutdownNow();
+        flusher.shutdownNow();
+        flush();
+        // Les clés du lot passent du journal au fichier de clés
+        keyStore.compact();
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture du journal: " + e.getMessage());
+            }
+        }
+        System.out.println("Lot terminé: " + done.get() + "/" + total + " badges initialisés, "
+            + failed.get() + " en échec");
+    }
+
+    @Override
+    public void cardInserted(CardTerminal reader, CardChannel channel, int capabilities) {
+        String readerName = reader.getName();
+        Entry entry = next();
+        if (entry == null) {
+            return;
+        }
+        if (entry.slot != 0 && (capabilities & AccessControlClient.CAP_SLOTS) == 0) {
+            System.out.println("[" + readerName + "] Ce badge n'a qu'un slot, " + entry.userId
+                + " demande le slot " + entry.slot + ": posez un autre badge");
+            requeue(entry);
+            return;
+        }
+        try {
+            String existing = (capabilities & AccessControlClient.CAP_SLOTS) != 0
+                ? Authenticator.listSlots(channel, capabilities).get(entry.slot)
+                : Authenticator.readUserId(channel, entry.slot);
+            if (existing != null && !existing.isEmpty()) {
+                System.out.println("[" + readerName + "] Badge déjà initialisé (" + existing
+                    + "), posez un badge vierge");
+                requeue(entry);
+                return;
+            }
+        } catch (CardException e) {
+            System.out.println("[" + readerName + "] Badge illisible: " + e.getMessage());
+            requeue(entry);
+            return;
+        }
+
+        String error = null;
+        for (int attempt = 1; attempt <= CARD_ATTEMPTS; attempt++) {
+            try {
+                byte[] key = entry.key.join();
+                if (!keyStore.putKey(entry.userId, key)) {
+                    error = "enregistrement de la clé";
+                    continue;
+                }
+                verifier.invalidate(entry.userId);
+                error = personalize(channel, entry, key);
+                if (error == null) {
+                    completed(entry, readerName);
+                    return;
+                }
+            } catch (CardException | CompletionException e) {
+                error = e.getMessage();
+            }
+        }
+        retry(entry, readerName, error);
+    }
+
+    @Override
+    public void cardRemoved(CardTerminal reader) {
+        // Rien à faire: le badge suivant recevra l'entrée suivante
+    }
+
+    /**
+     * Envoyer PIN, identité et clé au badge
+     * @return null si le badge est initialisé, sinon l'étape en échec
+     */
+    static String personalize(CardChannel channel, Entry entry, byte[] key) throws CardException {
+        ApduCodec codec = ApduCodec.get();
+        char[] pin = entry.pin.toCharArray();
+        try {
+            // longueur PIN | PIN | UserID
+            int sw = codec.begin(AccessControlClient.INS_SET_PIN, entry.slot, 0x00)
+                .put((byte) pin.length).putPin(pin).put(entry.userId.getBytes())
+                .transmit(channel, 0);
+            if (sw != ApduCodec.SW_OK) {
+                return String.format("configuration du PIN (SW=%04X)", sw);
+            }
+            sw = codec.begin(AccessControlClient.INS_VERIFY_PIN, entry.slot, 0x00).putPin(pin).transmit(channel, 0);
+            if (sw != ApduCodec.SW_OK) {
+                return String.format("vérification du PIN (SW=%04X)", sw);
+            }
+        } finally {
+            Arrays.fill(pin, '\0');
+        }
+        int sw = codec.begin(AccessControlClient.INS_STORE_KEY, entry.slot, 0x00).put(key).transmit(channel, 0);
+        if (sw != ApduCodec.SW_OK) {
+            return String.format("stockage de la clé (SW=%04X)", sw);
+        }
+        return null;
+    }
+
+    private synchronized Entry next() {
+        return pending.poll();
+    }
+
+    private synchronized void requeue(Entry entry) {
+        pending.addFirst(entry);
+    }
+
+    private void completed(Entry entry, String readerName) {
+        synchronized (this) {
+            unflushed.add(entry.userId);
+            remaining--;
+        }
+        int count = done.incrementAndGet();
+        System.out.println("[" + readerName + "] ✓ " + entry.userId + " (" + count + "/" + total
+            + "), retirez le badge");
+        logger.logEvent(entry.userId, "INIT", "Badge initialisé (lot)");
+        if (unflushedCount() >= FLUSH_SIZE) {
+            flusher.execute(this::flush);
+        }
+        checkFinished();
+    }
+
+    /**
+     * Badge en échec: l'entrée repart en tête de file avec une nouvelle clé
+     */
+    private void retry(Entry entry, String readerName, String error) {
+        entry.badges++;
+        if (entry.badges >= MAX_BADGES_PER_ENTRY) {
+            giveUp(entry, readerName, error);
+            return;
+        }
+        System.out.println("[" + readerName + "] ✗ " + entry.userId + ": " + error
+            + ", retirez le badge (nouvel essai sur le badge suivant)");
+        entry.key = generateKey();
+        requeue(entry);
+    }
+
+    private void giveUp(Entry entry, String readerName, String error) {
+        synchronized (this) {
+            remaining--;
+            appendJournal("FAILED", entry.userId, error);
+        }
+        failed.incrementAndGet();
+        System.out.println("[" + readerName + "] ✗ " + entry.userId + " abandonné: " + error);
+        checkFinished();
+    }
+
+    private void checkFinished() {
+        synchronized (this) {
+            if (remaining > 0) {
+                return;
+            }
+        }
+        flush();
+        finished.countDown();
+    }
+
+    private synchronized int unflushedCount() {
+        return unflushed.size();
+    }
+
+    /**
+     * Marquer au journal les badges terminés (leurs clés sont déjà enregistrées)
+     */
+    private synchronized void flush() {
+        if (unflushed.isEmpty()) {
+            return;
+        }
+        for (String userId : unflushed) {
+            appendJournal("DONE", userId, "");
+        }
+        unflushed.clear();
+        try {
+            journalWriter.flush();
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'écriture du journal: " + e.getMessage());
+        }
+    }
+
+    private void appendJournal(String status, String userId, String detail) {
+        try {
+            journalWriter.write(status + "\t" + userId + "\t" + System.currentTimeMillis() + "\t" + detail);
+            journalWriter.newLine();
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'écriture du journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Badges marqués terminés lors d'un lancement précédent
+     */
+    private Set<String> readJournal() throws IOException {
+        Set<String> completed = new HashSet<>();
+        if (!Files.exists(journal)) {
+            return completed;
+        }
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length >= 2 && fields[0].equals("DONE")) {
+                completed.add(fields[1]);
+            }
+        }
+        return completed;
+    }
+
+    private CompletableFuture<byte[]> generateKey() {
+        return CompletableFuture.supplyAsync(() -> keyGenerators.get().generateKey().getEncoded(), keyPool);
+    }
+
+    private static KeyGenerator newKeyGenerator() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(128);
+            return generator;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lire un manifeste CSV ou JSON
+     * @throws IllegalArgumentException entrée invalide ou en double
+     */
+    static List<Entry> readManifest(Path manifest) throws IOException {
+        String content = Files.readString(manifest, StandardCharsets.UTF_8);
+        List<Entry> entries = content.stripLeading().startsWith("[") ? parseJson(content) : parseCsv(content);
+        Set<String> seen = new HashSet<>();
+        for (Entry entry : entries) {
+            if (entry.userId.isEmpty() || entry.userId.getBytes(StandardCharsets.UTF_8).length > 16) {
+                throw new IllegalArgumentException("ID invalide (1 à 16 octets): " + entry.userId);
+            }
+            if (!entry.pin.matches("\\d{4,8}")) {
+                throw new IllegalArgumentException("PIN invalide pour " + entry.userId + " (4-8 chiffres)");
+            }
+            if (entry.slot < 0 || entry.slot >= AccessControlClient.MAX_SLOTS) {
+                throw new IllegalArgumentException("Slot invalide pour " + entry.userId + ": " + entry.slot);
+            }
+            if (!seen.add(entry.userId)) {
+                throw new IllegalArgumentException("ID en double dans le manifeste: " + entry.userId);
+            }
+        }
+        return entries;
+    }
+
+    private static List<Entry> parseCsv(String content) {
+        List<Entry> entries = new ArrayList<>();
+        String[] lines = content.split("\\R");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (entries.isEmpty() && fields.length > 1 && !fields[1].strip().matches("\\d+")) {
+                continue; // En-tête
+            }
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalArgumentException("ligne " + (i + 1) + ": attendu userId,pin[,slot]");
+            }
+            int slot = fields.length == 3 ? parseSlot(fields[2].strip(), i + 1) : 0;
+            entries.add(new Entry(fields[0].strip(), fields[1].strip(), slot));
+        }
+        return entries;
+    }
+
+    private static int parseSlot(String value, int line) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ligne " + line + ": slot invalide: " + value);
+        }
+    }
+
+    private static List<Entry> parseJson(String content) {
+        List<Entry> entries = new ArrayList<>();
+        Matcher object = JSON_OBJECT.matcher(content);
+        while (object.find()) {
+            Map<String, String> fields = new HashMap<>();
+            Matcher field = JSON_FIELD.matcher(object.group());
+            while (field.find()) {
+                String value = field.group(2) != null ? field.group(2).replaceAll("\\\\(.)", "$1") : field.group(3);
+                fields.put(field.group(1), value);
+            }
+            String userId = fields.get("userId");
+            String pin = fields.get("pin");
+            if (userId == null || pin == null) {
+                throw new IllegalArgumentException("objet sans userId ou pin: " + object.group());
+            }
+            String slot = fields.getOrDefault("slot", "0");
+            entries.add(new Entry(userId, pin, parseSlot(slot, entries.size() + 1)));
+        }
+        return entries;
+    }
+}
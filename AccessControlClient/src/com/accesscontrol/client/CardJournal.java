@@ -0,0 +1,179 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Journal des passages tenu par le badge lui-même (INS_JOURNAL_APPEND /
+ * INS_JOURNAL_READ): chaque lecteur y note sa décision, si bien qu'un lecteur
+ * coupé du contrôleur laisse une trace que le contrôleur relit plus tard.
+ * La carte garde les 256 derniers passages dans un anneau en EEPROM.
+ *
+ * L'ajout est un échange court par passage (codec du thread). La lecture
+ * demande tout le journal en une seule réponse APDU étendue; si le lecteur
+ * ou la carte la refusent, elle repasse en APDU courtes pour ce lecteur, la
+ * carte découpant alors le journal en réponses 61xx suivies de GET RESPONSE.
+ */
+class CardJournal {
+
+    // Événements notés sur le badge
+    static final int GRANTED = 1;
+    static final int DENIED = 2;
+    static final int REENTRY = 3;
+
+    private static final int HEADER = 2;
+    private static final int ENTRY_SIZE = 10;
+    private static final int EXTENDED_LE = 65536;
+    private static final int SHORT_LE = 256;
+
+    // Identifiant sur 2 octets -> nom du lecteur, pour relire les entrées notées ici
+    private final Map<Integer, String> readers = new ConcurrentHashMap<>();
+    // Lecteurs sans APDU étendues (constaté à la première lecture)
+    private final Set<String> shortOnly = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Noter un passage sur le badge, horodaté par le lecteur
+     * @param readerName nom du lecteur, ou null en mode interactif
+     * @return false si la carte a refusé l'entrée
+     */
+    boolean append(CardChannel channel, int slot, String readerName, int event) throws CardException {
+        int reader = readerId(readerName);
+        long now = System.currentTimeMillis() / 1000;
+        int sw = ApduCodec.get().begin(AccessControlClient.INS_JOURNAL_APPEND, slot, 0x00)
+            .put((byte) (now >>> 24)).put((byte) (now >>> 16)).put((byte) (now >>> 8)).put((byte) now)
+            .put((byte) event)
+            .put((byte) (reader >> 8)).put((byte) reader)
+            .transmit(channel, 0);
+        return sw == ApduCodec.SW_OK;
+    }
+
+    /**
+     * Relire tout le journal du badge, du passage le plus ancien au plus récent
+     * (PIN du slot vérifié ou réentrée au préalable)
+     * @param readerName nom du lecteur, ou null en mode interactif
+     */
+    List<Entry> read(CardChannel channel, int slot, String readerName) throws CardException {
+        List<Entry> entries = new ArrayList<>();
+        int total = -1;
+        while (total < 0 || entries.size() < total) {
+            byte[] data = readFrom(channel, slot, readerName, entries.size());
+            if (data.length < HEADER) {
+                throw new CardException("Réponse du journal incomplète");
+            }
+            total = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+            int count = (data.length - HEADER) / ENTRY_SIZE;
+            if (count == 0 && entries.size() < total) {
+                throw new CardException("Journal du badge illisible");
+            }
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(data, HEADER + i * ENTRY_SIZE));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Nom d'un lecteur noté dans le journal (identifiant brut pour un lecteur inconnu ici)
+     */
+    String readerName(int readerId) {
+        if (readerId == 0) {
+            return "console";
+        }
+        String name = readers.get(readerId);
+        return name != null ? name : String.format("lecteur #%04X", readerId);
+    }
+
+    /**
+     * Identifiant du lecteur sur 2 octets: CRC32 du nom, 0 pour le mode interactif
+     */
+    private int readerId(String readerName) {
+        if (readerName == null) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(readerName.getBytes());
+        int id = (int) crc.getValue() & 0xFFFF;
+        int readerId = id == 0 ? 1 : id;
+        readers.putIfAbsent(readerId, readerName);
+        return readerId;
+    }
+
+    /**
+     * Lire à partir du rang first: Le étendu, sinon Le court et chaînage
+     */
+    private byte[] readFrom(CardChannel channel, int slot, String readerName, int first) throws CardException {
+        String key = readerName != null ? readerName : "";
+        if (!shortOnly.contains(key)) {
+            try {
+                ResponseAPDU response = channel.transmit(new CommandAPDU(0x00,
+                    AccessControlClient.INS_JOURNAL_READ, slot, first, EXTENDED_LE));
+                if (response.getSW1() != 0x67 && response.getSW1() != 0x6C) {
+                    return collect(channel, response);
+                }
+            } catch (IllegalArgumentException | CardException e) {
+                // Lecteur ou pilote sans APDU étendues: repli ci-dessous
+            }
+            shortOnly.add(key);
+        }
+        return collect(channel, channel.transmit(new CommandAPDU(0x00,
+            AccessControlClient.INS_JOURNAL_READ, slot, first, SHORT_LE)));
+    }
+
+    /**
+     * Réunir les réponses chaînées (61xx) quand la pile PC/SC ne l'a pas déjà fait
+     */
+    private static byte[] collect(CardChannel channel, ResponseAPDU response) throws CardException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.writeBytes(response.getData());
+        while (response.getSW1() == 0x61) {
+            int remaining = response.getSW2();
+            response = channel.transmit(new CommandAPDU(0x00, AccessControlClient.INS_GET_RESPONSE, 0x00, 0x00,
+                remaining == 0 ? SHORT_LE : remaining));
+            data.writeBytes(response.getData());
+        }
+        if (response.getSW() != ApduCodec.SW_OK) {
+            throw new CardException("Échec de la lecture du journal du badge, SW="
+                + String.format("%04X", response.getSW()));
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * Une entrée: numéro (2) | horodatage (4, secondes) | événement (1) | slot (1) | lecteur (2)
+     */
+    static final class Entry {
+
+        final int sequence;
+        final long timestamp;
+        final int event;
+        final int slot;
+        final int readerId;
+
+        Entry(byte[] data, int offset) {
+            sequence = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+            timestamp = ((data[offset + 2] & 0xFFL) << 24) | ((data[offset + 3] & 0xFFL) << 16)
+                | ((data[offset + 4] & 0xFFL) << 8) | (data[offset + 5] & 0xFFL);
+            event = data[offset + 6] & 0xFF;
+            slot = data[offset + 7] & 0xFF;
+            readerId = ((data[offset + 8] & 0xFF) << 8) | (data[offset + 9] & 0xFF);
+        }
+
+        String eventName() {
+            switch (event) {
+                case GRANTED: return "ACCESS_GRANTED";
+                case DENIED: return "ACCESS_DENIED";
+                case REENTRY: return "REENTRY";
+                default: return "EVENT_" + event;
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Surveillance de la présence des badges sur tous les lecteurs avec un seul
+ * thread bloqué dans CardTerminals.waitForChange(): pas d'attente active ni
+ * de thread par lecteur.
+ *
+ * À chaque insertion, le moniteur se connecte au badge et sélectionne
+ * l'applet (avec quelques nouvelles tentatives si le badge est mal posé),
+ * puis prévient l'écouteur; au retrait, il prévient l'écouteur puis ferme
+ * la connexion. Les événements d'un même lecteur sont traités dans l'ordre,
+ * ceux de lecteurs différents en parallèle sur l'Executor fourni.
+ * Si des ApduMetrics sont fournies, le canal de chaque badge est instrumenté.
+ */
+class CardPresenceMonitor {
+
+    private static final long CHANGE_TIMEOUT = 1000;
+    private static final int CONNECT_ATTEMPTS = 3;
+    private static final long CONNECT_RETRY_DELAY = 50;
+
+    /**
+     * Réaction aux insertions et retraits de badge
+     */
+    interface Listener {
+
+        /**
+         * Badge posé, connecté et applet sélectionnée
+         * @param capabilities capacités renvoyées par Authenticator.selectApplet
+         */
+        void cardInserted(CardTerminal reader, CardChannel channel, int capabilities);
+
+        /**
+         * Badge retiré; appelé avant la fermeture de la connexion
+         */
+        void cardRemoved(CardTerminal reader);
+    }
+
+    private final CardTerminals terminals;
+    private final Listener listener;
+    private final Executor workers;
+    private final ApduMetrics metrics;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final Set<String> present = new HashSet<>();
+    private Thread thread;
+    private volatile boolean running;
+
+    CardPresenceMonitor(CardTerminals terminals, Listener listener, Executor workers) {
+        this(terminals, listener, workers, null);
+    }
+
+    CardPresenceMonitor(CardTerminals terminals, Listener listener, Executor workers, ApduMetrics metrics) {
+        this.terminals = terminals;
+        this.listener = listener;
+        this.workers = workers;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Démarrer la surveillance; les badges déjà posés sont traités comme des insertions
+     */
+    void start() {
+        running = true;
+        thread = new Thread(this::run, "card-presence");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Arrêter la surveillance et traiter le retrait des badges encore posés
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void run() {
+        try {
+            reconcile(terminals.list(CardTerminals.State.CARD_PRESENT), Collections.emptyList(),
+                      Collections.emptyList());
+        } catch (CardException e) {
+            System.err.println("Erreur de surveillance des lecteurs: " + e.getMessage());
+        }
+
+        while (running) {
+            try {
+                if (!terminals.waitForChange(CHANGE_TIMEOUT)) {
+                    continue;
+                }
+                reconcile(terminals.list(CardTerminals.State.CARD_PRESENT),
+                          terminals.list(CardTerminals.State.CARD_INSERTION),
+                          terminals.list(CardTerminals.State.CARD_REMOVAL));
+            } catch (CardException e) {
+                if (!running) {
+                    break;
+                }
+                // Service PC/SC indisponible: réessayer sans saturer le processeur
+                System.err.println("Erreur de surveillance des lecteurs: " + e.getMessage());
+                try {
+                    Thread.sleep(CHANGE_TIMEOUT);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+
+        for (String name : new ArrayList<>(present)) {
+            lanes.get(name).submit(this::removed);
+        }
+        present.clear();
+    }
+
+    /**
+     * Comparer l'état annoncé par les lecteurs à l'état connu. Un badge retiré
+     * puis reposé entre deux appels apparaît à la fois présent et inséré:
+     * il donne un retrait suivi d'une insertion.
+     */
+    private void reconcile(List<CardTerminal> cardPresent, List<CardTerminal> insertions,
+                           List<CardTerminal> removals) {
+        Set<String> nowPresent = new HashSet<>();
+        for (CardTerminal reader : cardPresent) {
+            nowPresent.add(reader.getName());
+        }
+        Set<String> inserted = new HashSet<>();
+        for (CardTerminal reader : insertions) {
+            inserted.add(reader.getName());
+        }
+
+        for (CardTerminal reader : removals) {
+            String name = reader.getName();
+            if (present.remove(name)) {
+                lane(reader).submit(this::removed);
+            }
+        }
+        for (Iterator<String> known = present.iterator(); known.hasNext(); ) {
+            String name = known.next();
+            if (!nowPresent.contains(name)) {
+                known.remove();
+                lanes.get(name).submit(this::removed);
+            }
+        }
+        for (CardTerminal reader : cardPresent) {
+            String name = reader.getName();
+            Lane lane = lane(reader);
+            if (present.contains(name) && inserted.contains(name)) {
+                lane.submit(this::removed);
+                present.remove(name);
+            }
+            if (present.add(name)) {
+                lane.submit(this::inserted);
+            }
+        }
+    }
+
+    private Lane lane(CardTerminal reader) {
+        return lanes.computeIfAbsent(reader.getName(), name -> new Lane(reader));
+    }
+
+    /**
+     * Insertion: connexion, SELECT puis notification (thread de la voie du lecteur)
+     */
+    private void inserted(Lane lane) {
+        int capabilities = 0;
+        for (int attempt = 1; lane.card == null; attempt++) {
+            Card card = null;
+            try {
+                card = lane.reader.connect("*");
+                CardChannel channel = card.getBasicChannel();
+                if (metrics != null) {
+                    channel = metrics.instrument(channel, lane.reader.getName());
+                }
+                capabilities = Authenticator.selectApplet(channel);
+                lane.card = card;
+                lane.channel = channel;
+            } catch (CardNotPresentException e) {
+                return;
+            } catch (CardException e) {
+                disconnect(card);
+                if (attempt == CONNECT_ATTEMPTS) {
+                    System.err.println("[" + lane.reader.getName() + "] Badge illisible: " + e.getMessage());
+                    return;
+                }
+                try {
+                    Thread.sleep(CONNECT_RETRY_DELAY);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        listener.cardInserted(lane.reader, lane.channel, capabilities);
+    }
+
+    /**
+     * Retrait: notification puis fermeture de la connexion
+     */
+    private void removed(Lane lane) {
+        if (lane.card == null) {
+            return;
+        }
+        try {
+            listener.cardRemoved(lane.reader);
+        } finally {
+            disconnect(lane.card);
+            lane.card = null;
+            lane.channel = null;
+        }
+    }
+
+    private static void disconnect(Card card) {
+        if (card == null) {
+            return;
+        }
+        try {
+            card.disconnect(false);
+        } catch (CardException | IllegalStateException e) {
+            // Badge déjà parti: rien à fermer
+        }
+    }
+
+    /**
+     * File d'événements d'un lecteur, exécutée séquentiellement sur l'Executor
+     */
+    private final class Lane implements Runnable {
+
+        final CardTerminal reader;
+        final Queue<Consumer<Lane>> events = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        Card card;
+        CardChannel channel;
+
+        Lane(CardTerminal reader) {
+            this.reader = reader;
+        }
+
+        void submit(Consumer<Lane> event) {
+            events.add(event);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Consumer<Lane> event;
+            while ((event = events.poll()) != null) {
+                try {
+                    event.accept(this);
+                } catch (RuntimeException e) {
+                    System.err.println("[" + reader.getName() + "] Erreur: " + e.getMessage());
+                }
+            }
+            scheduled.set(false);
+            if (!events.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.accesscontrol.client;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Vérification des réponses de la carte à un challenge (AES-CBC-MAC, IV nul).
+ *
+ * Les Cipher initialisés sont gardés par badge dans un cache LRU borné, découpé
+ * en segments indépendants pour limiter la contention: une vérification ne
+ * refait pas le key schedule AES et n'alloue pas de tampon de sortie.
+ */
+class ChallengeVerifier {
+
+    static final int CHALLENGE_SIZE = 16;
+
+    private static final int STRIPES = 16;
+
+    private final BadgeKeyStore keyStore;
+    private final Stripe[] stripes;
+
+    /**
+     * @param capacity nombre maximal de badges gardés en cache
+     */
+    ChallengeVerifier(BadgeKeyStore keyStore, int capacity) {
+        this.keyStore = keyStore;
+        this.stripes = new Stripe[STRIPES];
+        int perStripe = Math.max(1, capacity / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * Le contrôleur connaît-il la clé de ce badge ?
+     */
+    boolean knows(String userId) {
+        return keyStore.getKey(userId) != null;
+    }
+
+    /**
+     * Vérifier la réponse au challenge lue en place dans le tampon de réponse APDU
+     * @param offset position de la réponse dans le tampon
+     */
+    boolean verify(String userId, byte[] challenge, ByteBuffer response, int offset, int length) {
+        if (challenge.length != CHALLENGE_SIZE || length != CHALLENGE_SIZE) {
+            return false;
+        }
+        Verifier verifier = verifierFor(userId);
+        return verifier != null && verifier.verify(challenge, response, offset);
+    }
+
+    /**
+     * Vérifier une preuve de réentrée lue en place: AES-CBC-MAC de
+     * (challenge | identifiant de session complété par des zéros)
+     * @param idOffset position de l'identifiant de session dans le tampon
+     * @param macOffset position du MAC dans le tampon
+     */
+    boolean verifyBound(String userId, byte[] challenge, ByteBuffer response, int idOffset, int idLength,
+                        int macOffset, int macLength) {
+        if (challenge.length != CHALLENGE_SIZE || idLength > CHALLENGE_SIZE || macLength != CHALLENGE_SIZE) {
+            return false;
+        }
+        Verifier verifier = verifierFor(userId);
+        return verifier != null && verifier.verifyBound(challenge, response, idOffset, idLength, macOffset);
+    }
+
+    /**
+     * Préparer à l'avance le vérificateur d'un badge
+     */
+    void warm(String userId) {
+        verifierFor(userId);
+    }
+
+    /**
+     * Oublier le vérificateur d'un badge (clé modifiée)
+     */
+    void invalidate(String userId) {
+        stripeFor(userId).remove(userId);
+    }
+
+    private Verifier verifierFor(String userId) {
+        Stripe stripe = stripeFor(userId);
+        Verifier verifier = stripe.get(userId);
+        if (verifier != null) {
+            return verifier;
+        }
+        byte[] key = keyStore.getKey(userId);
+        if (key == null) {
+            return null;
+        }
+        try {
+            verifier = new Verifier(key);
+        } catch (GeneralSecurityException e) {
+            System.err.println("Erreur lors de la préparation du vérificateur: " + e.getMessage());
+            return null;
+        }
+        stripe.put(userId, verifier);
+        return verifier;
+    }
+
+    private Stripe stripeFor(String userId) {
+        return stripes[(userId.hashCode() & 0x7FFFFFFF) % STRIPES];
+    }
+
+    /**
+     * Cipher initialisé pour un badge et son tampon de sortie réutilisable
+     */
+    private static final class Verifier {
+
+        private final Cipher cipher;
+        private final byte[] expected = new byte[CHALLENGE_SIZE];
+
+        Verifier(byte[] key) throws GeneralSecurityException {
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        }
+
+        synchronized boolean verify(byte[] challenge, ByteBuffer response, int offset) {
+            try {
+                cipher.doFinal(challenge, 0, CHALLENGE_SIZE, expected, 0);
+            } catch (GeneralSecurityException e) {
+                return false;
+            }
+            return matches(response, offset);
+        }
+
+        /**
+         * Second bloc du CBC-MAC: chiffrement de (MAC du challenge XOR session)
+         */
+        synchronized boolean verifyBound(byte[] challenge, ByteBuffer response, int idOffset, int idLength,
+                                         int macOffset) {
+            try {
+                cipher.doFinal(challenge, 0, CHALLENGE_SIZE, expected, 0);
+                for (int i = 0; i < idLength; i++) {
+                    expected[i] ^= response.get(idOffset + i);
+                }
+                cipher.doFinal(expected, 0, CHALLENGE_SIZE, expected, 0);
+            } catch (GeneralSecurityException e) {
+                return false;
+            }
+            return matches(response, macOffset);
+        }
+
+        /**
+         * Comparaison en temps constant, comme MessageDigest.isEqual
+         */
+        private boolean matches(ByteBuffer response, int offset) {
+            int difference = 0;
+            for (int i = 0; i < CHALLENGE_SIZE; i++) {
+                difference |= expected[i] ^ response.get(offset + i);
+            }
+            return difference == 0;
+        }
+    }
+
+    /**
+     * Segment du cache: LinkedHashMap en ordre d'accès, évince le moins récemment utilisé
+     */
+    private static final class Stripe {
+
+        private final Map<String, Verifier> entries;
+
+        Stripe(int capacity) {
+            this.entries = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Verifier> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized Verifier get(String userId) {
+            return entries.get(userId);
+        }
+
+        synchronized void put(String userId, Verifier verifier) {
+            entries.put(userId, verifier);
+        }
+
+        synchronized void remove(String userId) {
+            entries.remove(userId);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.accesscontrol.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Entrée standard rendue ligne par ligne: un Scanner construit dessus ne lit
+ * jamais au-delà de la ligne demandée, la ligne suivante peut donc être lue
+ * directement en char[] (secret sans console) sans passer par une String.
+ */
+class ConsoleInput extends Reader {
+
+    private final Reader in;
+
+    ConsoleInput(InputStream stream) {
+        in = new InputStreamReader(stream);
+    }
+
+    /**
+     * Lire au plus jusqu'à la fin de la ligne courante
+     */
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < length) {
+            int c = in.read();
+            if (c < 0) {
+                break;
+            }
+            buffer[offset + count++] = (char) c;
+            if (c == '\n') {
+                break;
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Lire la ligne suivante dans un char[] effaçable (tampons intermédiaires effacés)
+     * @return null en fin d'entrée
+     */
+    char[] readLine() throws IOException {
+        char[] buffer = new char[16];
+        int count = 0;
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (count == buffer.length) {
+                char[] larger = Arrays.copyOf(buffer, count * 2);
+                Arrays.fill(buffer, '\0');
+                buffer = larger;
+            }
+            buffer[count++] = (char) c;
+        }
+        if (c < 0 && count == 0) {
+            return null;
+        }
+        if (count > 0 && buffer[count - 1] == '\r') {
+            count--;
+        }
+        char[] line = Arrays.copyOf(buffer, count);
+        Arrays.fill(buffer, '\0');
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
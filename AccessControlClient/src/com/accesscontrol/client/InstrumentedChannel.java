@@ -0,0 +1,68 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Canal qui mesure chaque échange (latence, status word, erreurs) avant de
+ * rendre la réponse du canal réel. Aucune allocation supplémentaire.
+ */
+class InstrumentedChannel extends CardChannel {
+
+    private final CardChannel delegate;
+    private final ApduMetrics metrics;
+    private final ApduMetrics.ReaderStats reader;
+
+    InstrumentedChannel(CardChannel delegate, ApduMetrics metrics, ApduMetrics.ReaderStats reader) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.reader = reader;
+    }
+
+    @Override
+    public Card getCard() {
+        return delegate.getCard();
+    }
+
+    @Override
+    public int getChannelNumber() {
+        return delegate.getChannelNumber();
+    }
+
+    @Override
+    public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+        byte ins = (byte) command.getINS();
+        long start = System.nanoTime();
+        int sw = -1;
+        try {
+            ResponseAPDU response = delegate.transmit(command);
+            sw = response.getSW();
+            return response;
+        } finally {
+            metrics.record(ins, sw, System.nanoTime() - start, reader);
+        }
+    }
+
+    @Override
+    public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+        byte ins = command.remaining() > 1 ? command.get(command.position() + 1) : 0;
+        int start = response.position();
+        long began = System.nanoTime();
+        int sw = -1;
+        try {
+            int length = delegate.transmit(command, response);
+            if (length >= 2) {
+                int end = start + length;
+                sw = ((response.get(end - 2) & 0xFF) << 8) | (response.get(end - 1) & 0xFF);
+            }
+            return length;
+        } finally {
+            metrics.record(ins, sw, System.nanoTime() - began, reader);
+        }
+    }
+
+    @Override
+    public void close() throws CardException {
+        delegate.close();
+    }
+}
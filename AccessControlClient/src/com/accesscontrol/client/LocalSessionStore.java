@@ -0,0 +1,46 @@
+package com.accesscontrol.client;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions en mémoire, propres au processus (comportement d'origine)
+ */
+class LocalSessionStore implements SessionStore {
+
+    private final Map<String, SessionManager.SessionInfo> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(SessionManager.SessionInfo session) {
+        sessions.put(session.sessionId, session);
+    }
+
+    @Override
+    public SessionManager.SessionInfo get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    @Override
+    public SessionManager.SessionInfo remove(String sessionId) {
+        return sessions.remove(sessionId);
+    }
+
+    @Override
+    public SessionManager.SessionInfo removeExpired(String sessionId, long now) {
+        SessionManager.SessionInfo[] removed = new SessionManager.SessionInfo[1];
+        sessions.computeIfPresent(sessionId, (id, session) -> {
+            if (session.expiresAt > now) {
+                return session;
+            }
+            removed[0] = session;
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public Collection<SessionManager.SessionInfo> localSessions() {
+        return sessions.values();
+    }
+}
@@ -0,0 +1,89 @@
+package com.accesscontrol.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * File circulaire bornée sans verrou, plusieurs producteurs et un seul consommateur.
+ * Chaque case porte un numéro de séquence qui indique si elle est libre ou publiée.
+ */
+class LogRingBuffer<T> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity arrondie à la puissance de deux supérieure
+     */
+    LogRingBuffer(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Publier un élément
+     * @return false si la file est pleine
+     */
+    boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            long diff = sequence - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, item);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Consommer au plus max éléments (réservé au thread consommateur)
+     * @return le nombre d'éléments consommés
+     */
+    int drain(Consumer<T> consumer, int max) {
+        long position = head;
+        int count = 0;
+        while (count < max) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            T item = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, position + capacity);
+            position++;
+            count++;
+            consumer.accept(item);
+        }
+        head = position;
+        return count;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
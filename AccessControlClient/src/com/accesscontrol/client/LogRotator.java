@@ -0,0 +1,159 @@
+package com.accesscontrol.client;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rotation du fichier de log texte par taille ou par ancienneté.
+ * Les fichiers clos sont compressés en arrière-plan puis purgés selon la
+ * politique de rétention (nombre d'archives et âge maximal).
+ */
+class LogRotator {
+
+    private static final DateTimeFormatter ARCHIVE_SUFFIX =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS").withZone(ZoneId.systemDefault());
+
+    private final Path file;
+    private final String baseName;
+    private final String extension;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final int maxArchives;
+    private final long retentionMillis;
+    private final ExecutorService compressor;
+    // Heure de la dernière rotation dans ce processus, 0 avant la première
+    private volatile long rotatedAt;
+
+    /**
+     * @param maxBytes taille au-delà de laquelle le fichier est archivé
+     * @param maxAgeMillis ancienneté au-delà de laquelle le fichier est archivé
+     * @param maxArchives nombre maximal d'archives conservées
+     * @param retentionMillis âge maximal d'une archive
+     */
+    LogRotator(Path file, long maxBytes, long maxAgeMillis, int maxArchives, long retentionMillis) {
+        this.file = file;
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        this.baseName = dot > 0 ? name.substring(0, dot) : name;
+        this.extension = dot > 0 ? name.substring(dot) : "";
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxArchives = maxArchives;
+        this.retentionMillis = retentionMillis;
+        this.compressor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "access-log-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    /**
+     * Ouverture du fichier courant: heure de la dernière rotation, notée en
+     * mémoire (sous Windows, un fichier recréé sous le même nom hérite de la
+     * date de création de l'ancien); au démarrage, date de création du
+     * fichier existant, ou maintenant s'il n'existe pas encore
+     */
+    long openedAt() {
+        if (rotatedAt != 0) {
+            return rotatedAt;
+        }
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).creationTime().toMillis();
+        } catch (IOException e) {
+            return System.currentTimeMillis();
+        }
+    }
+
+    boolean shouldRotate(long size, long openedAt) {
+        return size > 0 && (size >= maxBytes || System.currentTimeMillis() - openedAt >= maxAgeMillis);
+    }
+
+    /**
+     * Archiver le fichier courant (qui doit être fermé) et lancer sa compression
+     */
+    void rotate() {
+        Path archive = file.resolveSibling(
+            baseName + "-" + ARCHIVE_SUFFIX.format(Instant.now()) + extension);
+        try {
+            Files.move(file, archive, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la rotation du log: " + e.getMessage());
+            return;
+        }
+        rotatedAt = System.currentTimeMillis();
+        compressor.execute(() -> {
+            compress(archive);
+            purge();
+        });
+    }
+
+    /**
+     * Attendre la fin des compressions en cours
+     */
+    void close() {
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compress(Path archive) {
+        Path target = archive.resolveSibling(archive.getFileName() + ".gz");
+        try (InputStream in = Files.newInputStream(archive);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la compression du log: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.delete(archive);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la suppression du log archivé: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Supprimer les archives au-delà du nombre ou de l'âge maximal
+     */
+    private void purge() {
+        List<Path> archives = new ArrayList<>();
+        Path directory = file.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, baseName + "-*" + extension + "*")) {
+            stream.forEach(archives::add);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la purge des logs: " + e.getMessage());
+            return;
+        }
+
+        // Le suffixe horodaté donne l'ordre chronologique
+        archives.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        for (int i = 0; i < archives.size(); i++) {
+            Path archive = archives.get(i);
+            try {
+                boolean tooMany = archives.size() - i > maxArchives;
+                if (tooMany || Files.getLastModifiedTime(archive).toMillis() < cutoff) {
+                    Files.deleteIfExists(archive);
+                }
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la purge des logs: " + e.getMessage());
+            }
+        }
+    }
+}
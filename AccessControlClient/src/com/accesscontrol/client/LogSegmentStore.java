@@ -0,0 +1,507 @@
+package com.accesscontrol.client;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Journal binaire segmenté et indexé des événements d'accès.
+ *
+ * Chaque segment est un fichier projeté en mémoire d'enregistrements de taille
+ * fixe (horodatage, id utilisateur et id de type interné, position des détails
+ * dans le fichier .dat associé). L'en-tête conserve les bornes temporelles du
+ * segment pour écarter sans lecture les segments hors de la plage demandée;
+ * les segments clos reçoivent à la première requête un index temporel creux
+ * (min/max par bloc) et un index inversé userId vers numéros d'enregistrement.
+ *
+ * Un seul thread écrit (celui de l'AsyncLogWriter); les requêtes peuvent être
+ * lancées depuis n'importe quel thread.
+ */
+class LogSegmentStore implements Closeable {
+
+    private static final int MAGIC = 0x41434C47; // "ACLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int BLOCK_SIZE = 64;
+    static final int DEFAULT_SEGMENT_RECORDS = 65536;
+
+    // En-tête
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_COUNT = 8;
+    private static final int OFF_SEALED = 12;
+    private static final int OFF_MIN_TS = 16;
+    private static final int OFF_MAX_TS = 24;
+
+    // Enregistrement
+    private static final int REC_TIMESTAMP = 0;
+    private static final int REC_USER = 8;
+    private static final int REC_EVENT = 12;
+    private static final int REC_DETAILS_OFFSET = 16;
+    private static final int REC_DETAILS_LENGTH = 24;
+
+    private static final String DICTIONARY_FILE = "strings.dict";
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final StringDictionary dictionary;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    // Fichiers de segments retirés dont la suppression a échoué (thread d'écriture)
+    private final List<Path> undeleted = new ArrayList<>();
+    private Segment active;
+
+    LogSegmentStore(Path directory, int segmentRecords) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        Files.createDirectories(directory);
+        this.dictionary = new StringDictionary(directory.resolve(DICTIONARY_FILE));
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.bin")) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            segments.add(Segment.open(file));
+        }
+
+        if (!segments.isEmpty() && !segments.get(segments.size() - 1).isSealed()) {
+            active = segments.get(segments.size() - 1);
+        } else {
+            active = createSegment();
+        }
+    }
+
+    /**
+     * Ajouter un événement (réservé au thread d'écriture)
+     */
+    void append(long timestamp, String userId, String eventType, String details) throws IOException {
+        if (active.count() >= active.capacity) {
+            active.seal();
+            active = createSegment();
+        }
+        active.append(timestamp, dictionary.intern(userId), dictionary.intern(eventType),
+            details.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Rendre durables les écritures du segment actif
+     */
+    void force() {
+        active.force();
+    }
+
+    /**
+     * Rechercher des événements; un critère null n'est pas filtré.
+     * Le flux est paresseux: les segments ne sont lus qu'au fil de la consommation.
+     */
+    Stream<AccessLogger.LogEntry> query(String userId, String eventType, long fromMillis, long toMillis) {
+        int user = userId == null ? -1 : dictionary.lookup(userId);
+        int event = eventType == null ? -1 : dictionary.lookup(eventType);
+        if ((userId != null && user < 0) || (eventType != null && event < 0)) {
+            return Stream.empty();
+        }
+
+        return segments.stream()
+            .filter(segment -> segment.overlaps(fromMillis, toMillis))
+            .flatMap(segment -> segment.candidates(user, fromMillis, toMillis)
+                .filter(record -> segment.matches(record, user, event, fromMillis, toMillis))
+                .mapToObj(record -> decode(segment, record)));
+    }
+
+    /**
+     * Supprimer les segments clos dont tous les événements sont antérieurs à la date donnée
+     */
+    void deleteOlderThan(long cutoffMillis) {
+        retryDeletes();
+        for (Segment segment : segments) {
+            if (segment != active && segment.isSealed() && segment.maxTimestamp < cutoffMillis) {
+                segments.remove(segment);
+                segment.close();
+                delete(segment.file);
+                delete(Segment.detailsPath(segment.file));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        dictionary.close();
+    }
+
+    /**
+     * Un segment retiré reste projeté tant qu'une requête en cours le lit, et
+     * la projection n'est libérée qu'à sa collecte: sous Windows le fichier ne
+     * peut pas être supprimé avant. La suppression est alors retentée aux
+     * rotations suivantes plutôt que de libérer de force une projection lue.
+     */
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            undeleted.add(path);
+        }
+    }
+
+    private void retryDeletes() {
+        for (Iterator<Path> pending = undeleted.iterator(); pending.hasNext(); ) {
+            try {
+                Files.deleteIfExists(pending.next());
+                pending.remove();
+            } catch (IOException e) {
+                // Encore projeté: rotation suivante
+            }
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        int next = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).number + 1;
+        Segment segment = Segment.create(directory.resolve(String.format("segment-%08d.bin", next)),
+            segmentRecords);
+        segments.add(segment);
+        return segment;
+    }
+
+    private AccessLogger.LogEntry decode(Segment segment, int record) {
+        return new AccessLogger.LogEntry(
+            dictionary.name(segment.userOf(record)),
+            dictionary.name(segment.eventOf(record)),
+            segment.detailsOf(record),
+            segment.timestampOf(record));
+    }
+
+    /**
+     * Segment: fichier .bin projeté en mémoire et fichier .dat des détails
+     */
+    private static final class Segment {
+
+        private final Path file;
+        private final int number;
+        private final FileChannel records;
+        private final FileChannel details;
+        private final MappedByteBuffer map;
+        private final int capacity;
+        private volatile int count;
+        private volatile boolean sealed;
+        private volatile long minTimestamp;
+        private volatile long maxTimestamp;
+        private volatile SegmentIndex index;
+        private long detailsSize;
+
+        private Segment(Path file, FileChannel records, FileChannel details, MappedByteBuffer map, int capacity) {
+            String name = file.getFileName().toString();
+            this.file = file;
+            this.number = Integer.parseInt(name.substring("segment-".length(), name.length() - ".bin".length()));
+            this.records = records;
+            this.details = details;
+            this.map = map;
+            this.capacity = capacity;
+        }
+
+        static Segment create(Path file, int capacity) throws IOException {
+            FileChannel records = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel details = FileChannel.open(detailsPath(file), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer map = records.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            map.putInt(OFF_MAGIC, MAGIC);
+            map.putInt(OFF_VERSION, VERSION);
+            map.putInt(OFF_COUNT, 0);
+            map.putInt(OFF_SEALED, 0);
+            map.putLong(OFF_MIN_TS, Long.MAX_VALUE);
+            map.putLong(OFF_MAX_TS, Long.MIN_VALUE);
+            Segment segment = new Segment(file, records, details, map, capacity);
+            segment.minTimestamp = Long.MAX_VALUE;
+            segment.maxTimestamp = Long.MIN_VALUE;
+            return segment;
+        }
+
+        static Segment open(Path file) throws IOException {
+            FileChannel records = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel details = FileChannel.open(detailsPath(file), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer map = records.map(FileChannel.MapMode.READ_WRITE, 0, records.size());
+            if (map.getInt(OFF_MAGIC) != MAGIC || map.getInt(OFF_VERSION) != VERSION) {
+                records.close();
+                details.close();
+                throw new IOException("Segment de log invalide: " + file);
+            }
+            int capacity = (int) ((records.size() - HEADER_SIZE) / RECORD_SIZE);
+            Segment segment = new Segment(file, records, details, map, capacity);
+            segment.count = map.getInt(OFF_COUNT);
+            segment.sealed = map.getInt(OFF_SEALED) != 0;
+            segment.minTimestamp = map.getLong(OFF_MIN_TS);
+            segment.maxTimestamp = map.getLong(OFF_MAX_TS);
+            segment.detailsSize = details.size();
+            return segment;
+        }
+
+        private static Path detailsPath(Path file) {
+            String name = file.getFileName().toString();
+            return file.resolveSibling(name.substring(0, name.length() - ".bin".length()) + ".dat");
+        }
+
+        int count() {
+            return count;
+        }
+
+        boolean isSealed() {
+            return sealed;
+        }
+
+        void append(long timestamp, int user, int event, byte[] text) throws IOException {
+            ByteBuffer source = ByteBuffer.wrap(text);
+            long offset = detailsSize;
+            while (source.hasRemaining()) {
+                detailsSize += details.write(source, detailsSize);
+            }
+
+            int n = count;
+            int base = HEADER_SIZE + n * RECORD_SIZE;
+            map.putLong(base + REC_TIMESTAMP, timestamp);
+            map.putInt(base + REC_USER, user);
+            map.putInt(base + REC_EVENT, event);
+            map.putLong(base + REC_DETAILS_OFFSET, offset);
+            map.putInt(base + REC_DETAILS_LENGTH, text.length);
+
+            if (timestamp < minTimestamp) {
+                minTimestamp = timestamp;
+                map.putLong(OFF_MIN_TS, timestamp);
+            }
+            if (timestamp > maxTimestamp) {
+                maxTimestamp = timestamp;
+                map.putLong(OFF_MAX_TS, timestamp);
+            }
+            map.putInt(OFF_COUNT, n + 1);
+            count = n + 1; // publication aux lecteurs
+        }
+
+        void seal() {
+            map.putInt(OFF_SEALED, 1);
+            sealed = true;
+            force();
+        }
+
+        void force() {
+            map.force();
+            try {
+                details.force(false);
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la synchronisation du segment: " + e.getMessage());
+            }
+        }
+
+        boolean overlaps(long from, long to) {
+            return count > 0 && minTimestamp <= to && maxTimestamp >= from;
+        }
+
+        /**
+         * Numéros d'enregistrement susceptibles de correspondre
+         */
+        IntStream candidates(int user, long from, long to) {
+            int limit = count;
+            if (!sealed) {
+                // Segment en cours d'écriture: balayage séquentiel
+                return IntStream.range(0, limit);
+            }
+            SegmentIndex current = index();
+            if (user >= 0) {
+                int[] postings = current.postings.get(user);
+                return postings == null ? IntStream.empty() : Arrays.stream(postings);
+            }
+            return IntStream.range(0, current.blockMin.length)
+                .filter(block -> current.blockMin[block] <= to && current.blockMax[block] >= from)
+                .flatMap(block -> IntStream.range(block * BLOCK_SIZE, Math.min(limit, (block + 1) * BLOCK_SIZE)));
+        }
+
+        boolean matches(int record, int user, int event, long from, long to) {
+            long timestamp = timestampOf(record);
+            return timestamp >= from && timestamp <= to
+                && (user < 0 || userOf(record) == user)
+                && (event < 0 || eventOf(record) == event);
+        }
+
+        long timestampOf(int record) {
+            return map.getLong(HEADER_SIZE + record * RECORD_SIZE + REC_TIMESTAMP);
+        }
+
+        int userOf(int record) {
+            return map.getInt(HEADER_SIZE + record * RECORD_SIZE + REC_USER);
+        }
+
+        int eventOf(int record) {
+            return map.getInt(HEADER_SIZE + record * RECORD_SIZE + REC_EVENT);
+        }
+
+        String detailsOf(int record) {
+            int base = HEADER_SIZE + record * RECORD_SIZE;
+            long offset = map.getLong(base + REC_DETAILS_OFFSET);
+            ByteBuffer target = ByteBuffer.allocate(map.getInt(base + REC_DETAILS_LENGTH));
+            try {
+                while (target.hasRemaining()) {
+                    if (details.read(target, offset + target.position()) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                return "";
+            }
+            return new String(target.array(), 0, target.position(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Construire à la demande l'index d'un segment clos
+         */
+        private SegmentIndex index() {
+            SegmentIndex current = index;
+            if (current == null) {
+                synchronized (this) {
+                    current = index;
+                    if (current == null) {
+                        current = SegmentIndex.build(this);
+                        index = current;
+                    }
+                }
+            }
+            return current;
+        }
+
+        void close() {
+            try {
+                records.close();
+                details.close();
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture du segment: " + e.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * Index d'un segment clos: bornes temporelles par bloc et listes d'enregistrements par utilisateur
+     */
+    private static final class SegmentIndex {
+
+        final long[] blockMin;
+        final long[] blockMax;
+        final Map<Integer, int[]> postings;
+
+        private SegmentIndex(long[] blockMin, long[] blockMax, Map<Integer, int[]> postings) {
+            this.blockMin = blockMin;
+            this.blockMax = blockMax;
+            this.postings = postings;
+        }
+
+        static SegmentIndex build(Segment segment) {
+            int count = segment.count();
+            int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            long[] blockMin = new long[blocks];
+            long[] blockMax = new long[blocks];
+            Arrays.fill(blockMin, Long.MAX_VALUE);
+            Arrays.fill(blockMax, Long.MIN_VALUE);
+
+            Map<Integer, int[]> lists = new HashMap<>();
+            Map<Integer, Integer> sizes = new HashMap<>();
+            for (int record = 0; record < count; record++) {
+                long timestamp = segment.timestampOf(record);
+                int block = record / BLOCK_SIZE;
+                blockMin[block] = Math.min(blockMin[block], timestamp);
+                blockMax[block] = Math.max(blockMax[block], timestamp);
+
+                int user = segment.userOf(record);
+                int size = sizes.getOrDefault(user, 0);
+                int[] list = lists.get(user);
+                if (list == null) {
+                    list = new int[8];
+                    lists.put(user, list);
+                } else if (size == list.length) {
+                    list = Arrays.copyOf(list, size * 2);
+                    lists.put(user, list);
+                }
+                list[size] = record;
+                sizes.put(user, size + 1);
+            }
+
+            Map<Integer, int[]> postings = new HashMap<>();
+            for (Map.Entry<Integer, int[]> entry : lists.entrySet()) {
+                postings.put(entry.getKey(), Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())));
+            }
+            return new SegmentIndex(blockMin, blockMax, postings);
+        }
+    }
+
+    /**
+     * Dictionnaire persistant des chaînes internées (userId, type d'événement)
+     */
+    private static final class StringDictionary implements Closeable {
+
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final DataOutputStream out;
+
+        StringDictionary(Path file) throws IOException {
+            if (Files.exists(file)) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(file)))) {
+                    while (true) {
+                        String name;
+                        try {
+                            name = in.readUTF();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        ids.put(name, names.size());
+                        names.add(name);
+                    }
+                }
+            }
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        }
+
+        int intern(String name) throws IOException {
+            Integer id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            synchronized (this) {
+                out.writeUTF(name);
+                out.flush();
+                id = names.size();
+                names.add(name);
+            }
+            ids.put(name, id);
+            return id;
+        }
+
+        int lookup(String name) {
+            return ids.getOrDefault(name, -1);
+        }
+
+        synchronized String name(int id) {
+            return names.get(id);
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture du dictionnaire: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.accesscontrol.client;
+
+/**
+ * Source de saisie du PIN pour un lecteur donné
+ */
+interface PinPad {
+
+    /**
+     * Lire le PIN saisi pour le badge présenté sur le lecteur
+     * @param userId identité du badge, ou null si elle n'est pas encore connue
+     * @return les chiffres du PIN, ou null si la saisie est abandonnée; le
+     *         tableau appartient à l'appelant, qui l'efface après usage
+     */
+    char[] readPIN(String readerName, String userId);
+}
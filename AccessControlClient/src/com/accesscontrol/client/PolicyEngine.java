@@ -0,0 +1,394 @@
+package com.accesscontrol.client;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Politique d'accès: zones autorisées et plages horaires hebdomadaires par
+ * utilisateur, la zone étant déduite du lecteur.
+ *
+ * Le fichier est compilé en un index compact: identifiants internés en
+ * numéros, un bitset d'utilisateurs par zone et des masques de créneaux
+ * d'un quart d'heure sur la semaine (672 bits), partagés entre utilisateurs.
+ * Une décision se résume à deux tests de bits.
+ *
+ * Format du fichier:
+ * <pre>
+ * # Lecteurs de chaque zone ("*": lecteurs non listés et mode interactif)
+ * zone hall = Lecteur virtuel 1, Lecteur virtuel 2
+ * zone accueil = *
+ * # Zones de chaque utilisateur, avec plages horaires facultatives
+ * user alice = hall, accueil@LUN-VEN 08:00-18:00, accueil@SAM 09:00-12:00
+ * </pre>
+ *
+ * Le rechargement compile le nouveau fichier à côté puis remplace l'index
+ * d'un coup: les décisions en cours finissent sur l'ancien, sans attente.
+ * Sans fichier, tout badge authentifié est autorisé (comportement d'origine).
+ */
+class PolicyEngine {
+
+    static final int SLOTS_PER_DAY = 96;
+    static final int SLOT_MINUTES = 24 * 60 / SLOTS_PER_DAY;
+    static final int WEEK_SLOTS = 7 * SLOTS_PER_DAY;
+
+    private static final String ANY_READER = "*";
+    private static final List<String> DAYS = List.of("LUN", "MAR", "MER", "JEU", "VEN", "SAM", "DIM");
+
+    /**
+     * Résultat d'une décision
+     */
+    enum Decision {
+        GRANTED("Accès autorisé"),
+        UNKNOWN_USER("Utilisateur sans droits"),
+        UNKNOWN_ZONE("Lecteur hors zone"),
+        ZONE_DENIED("Zone non autorisée"),
+        OUTSIDE_HOURS("Hors plage horaire");
+
+        final String message;
+
+        Decision(String message) {
+            this.message = message;
+        }
+    }
+
+    private final Path file;
+    private volatile Compiled policy;
+    private volatile FileTime loadedAt;
+    private ScheduledExecutorService watcher;
+
+    /**
+     * Charger la politique du fichier s'il existe
+     */
+    PolicyEngine(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            reload();
+        }
+    }
+
+    /**
+     * Décider pour un badge authentifié, à l'heure courante
+     * @param readerName nom du lecteur, ou null en mode interactif
+     */
+    Decision decide(String userId, String readerName) {
+        return decide(userId, readerName, LocalDateTime.now());
+    }
+
+    Decision decide(String userId, String readerName, LocalDateTime time) {
+        Compiled current = policy;
+        if (current == null) {
+            return Decision.GRANTED;
+        }
+        return current.decide(userId, readerName, slotOf(time));
+    }
+
+    /**
+     * Créneau de la semaine (lundi 00:00 = 0)
+     */
+    static int slotOf(LocalDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * SLOTS_PER_DAY
+            + (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES;
+    }
+
+    /**
+     * Zone d'un lecteur selon la politique courante
+     * @return le nom de la zone, ou null sans politique ou pour un lecteur hors zone
+     */
+    String zoneOf(String readerName) {
+        Compiled current = policy;
+        if (current == null) {
+            return null;
+        }
+        int zone = current.zoneOf(readerName);
+        return zone < 0 ? null : current.zoneNames[zone];
+    }
+
+    /**
+     * Recompiler le fichier et remplacer la politique; en cas d'erreur
+     * l'ancienne politique reste en place et le chargement est retenté à la
+     * surveillance suivante. La version n'est notée chargée qu'après une
+     * compilation réussie d'un fichier qui n'a pas changé pendant la lecture:
+     * un fichier en cours d'écriture est relu une fois complet.
+     * @return true si la nouvelle politique est active
+     */
+    boolean reload() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            Compiled compiled = compile(Files.readAllLines(file, StandardCharsets.UTF_8));
+            policy = compiled;
+            if (modified.equals(Files.getLastModifiedTime(file))) {
+                loadedAt = modified;
+            }
+            System.out.println("Politique d'accès chargée: " + compiled.userIndex.size() + " utilisateurs, "
+                + compiled.zoneNames.length + " zones");
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Erreur lors du chargement de la politique: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Surveiller le fichier et le recharger dès qu'il change
+     */
+    void watch(long intervalSeconds) {
+        watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "policy-watch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::reloadIfChanged, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    private void reloadIfChanged() {
+        try {
+            if (Files.exists(file) && !Files.getLastModifiedTime(file).equals(loadedAt)) {
+                reload();
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la surveillance de la politique: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compiler le texte d'une politique
+     * @throws IllegalArgumentException ligne invalide (avec son numéro)
+     */
+    static Compiled compile(List<String> lines) {
+        Map<String, Integer> zones = new LinkedHashMap<>();
+        Map<String, Integer> readers = new HashMap<>();
+        int defaultZone = -1;
+        Map<String, Map<Integer, long[]>> grants = new LinkedHashMap<>();
+
+        for (int number = 1; number <= lines.size(); number++) {
+            String line = lines.get(number - 1).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                int equals = line.indexOf('=');
+                int space = line.indexOf(' ');
+                if (equals < 0 || space < 0 || space > equals) {
+                    throw new IllegalArgumentException("attendu \"zone <nom> = ...\" ou \"user <id> = ...\"");
+                }
+                String kind = line.substring(0, space);
+                String name = line.substring(space + 1, equals).strip();
+                String[] values = line.substring(equals + 1).split(",");
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("nom manquant");
+                }
+                if (kind.equals("zone")) {
+                    int zone = zones.computeIfAbsent(name, key -> zones.size());
+                    for (String value : values) {
+                        String reader = value.strip();
+                        if (reader.equals(ANY_READER)) {
+                            defaultZone = zone;
+                        } else if (!reader.isEmpty()) {
+                            readers.put(reader, zone);
+                        }
+                    }
+                } else if (kind.equals("user")) {
+                    Map<Integer, long[]> userGrants = grants.computeIfAbsent(name, key -> new HashMap<>());
+                    for (String value : values) {
+                        grant(userGrants, zones, value.strip());
+                    }
+                } else {
+                    throw new IllegalArgumentException("type inconnu: " + kind);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("ligne " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return new Compiled(zones, readers, defaultZone, grants);
+    }
+
+    /**
+     * Ajouter "zone" ou "zone@plage" aux droits d'un utilisateur
+     * (null = toute la semaine, sinon union des plages)
+     */
+    private static void grant(Map<Integer, long[]> userGrants, Map<String, Integer> zones, String value) {
+        if (value.isEmpty()) {
+            return;
+        }
+        int at = value.indexOf('@');
+        String zoneName = (at < 0 ? value : value.substring(0, at)).strip();
+        Integer zone = zones.get(zoneName);
+        if (zone == null) {
+            throw new IllegalArgumentException("zone non déclarée: " + zoneName);
+        }
+        if (at < 0) {
+            userGrants.put(zone, null);
+            return;
+        }
+        if (userGrants.containsKey(zone) && userGrants.get(zone) == null) {
+            return;
+        }
+        long[] mask = userGrants.computeIfAbsent(zone, key -> new long[(WEEK_SLOTS + 63) / 64]);
+        addWindow(mask, value.substring(at + 1).strip());
+    }
+
+    /**
+     * Plage "LUN-VEN 08:00-18:00", "SAM" (journée entière) ou "VEN 22:00-06:00"
+     * (qui déborde sur le lendemain)
+     */
+    private static void addWindow(long[] mask, String window) {
+        String[] parts = window.split("\\s+");
+        if (parts.length > 2) {
+            throw new IllegalArgumentException("plage invalide: " + window);
+        }
+        String[] days = parts[0].toUpperCase(Locale.ROOT).split("-");
+        int firstDay = day(days[0]);
+        int lastDay = days.length > 1 ? day(days[1]) : firstDay;
+        int start = 0;
+        int end = SLOTS_PER_DAY;
+        if (parts.length == 2) {
+            String[] hours = parts[1].split("-");
+            if (hours.length != 2) {
+                throw new IllegalArgumentException("horaire invalide: " + parts[1]);
+            }
+            start = minutes(hours[0]) / SLOT_MINUTES;
+            end = (minutes(hours[1]) + SLOT_MINUTES - 1) / SLOT_MINUTES;
+        }
+        int length = end > start ? end - start : SLOTS_PER_DAY - start + end;
+        for (int day = firstDay; ; day = (day + 1) % 7) {
+            int from = day * SLOTS_PER_DAY + start;
+            for (int i = 0; i < length; i++) {
+                int slot = (from + i) % WEEK_SLOTS;
+                mask[slot >>> 6] |= 1L << slot;
+            }
+            if (day == lastDay) {
+                break;
+            }
+        }
+    }
+
+    private static int day(String name) {
+        int day = DAYS.indexOf(name);
+        if (day < 0) {
+            throw new IllegalArgumentException("jour inconnu: " + name + " (attendu " + DAYS + ")");
+        }
+        return day;
+    }
+
+    private static int minutes(String time) {
+        String[] parts = time.split(":");
+        try {
+            int hours = Integer.parseInt(parts[0]);
+            int minutes = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (parts.length > 2 || hours < 0 || minutes < 0 || minutes > 59 || hours * 60 + minutes > 24 * 60) {
+                throw new NumberFormatException();
+            }
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("heure invalide: " + time);
+        }
+    }
+
+    /**
+     * Politique compilée, immuable
+     */
+    static final class Compiled {
+
+        /** Masque "toute la semaine", toujours en position 0 de windows */
+        private static final int ALWAYS = 0;
+
+        final Map<String, Integer> userIndex;
+        final Map<String, Integer> readerZones;
+        final int defaultZone;
+        final String[] zoneNames;
+        /** Par zone: bitset des utilisateurs autorisés */
+        final long[][] zoneUsers;
+        /** Par zone: masque de chaque utilisateur, ou null si la zone n'a aucune plage */
+        final short[][] zoneWindows;
+        /** Masques hebdomadaires distincts */
+        final long[][] windows;
+
+        private Compiled(Map<String, Integer> zones, Map<String, Integer> readers, int defaultZone,
+                         Map<String, Map<Integer, long[]>> grants) {
+            this.readerZones = Map.copyOf(readers);
+            this.defaultZone = defaultZone;
+            this.zoneNames = zones.keySet().toArray(new String[0]);
+
+            Map<String, Integer> users = new HashMap<>(grants.size() * 2);
+            for (String userId : grants.keySet()) {
+                users.put(userId, users.size());
+            }
+            this.userIndex = Collections.unmodifiableMap(users);
+
+            long[] always = new long[(WEEK_SLOTS + 63) / 64];
+            for (int slot = 0; slot < WEEK_SLOTS; slot++) {
+                always[slot >>> 6] |= 1L << slot;
+            }
+            Map<LongBuffer, Integer> interned = new HashMap<>();
+            List<long[]> masks = new ArrayList<>();
+            interned.put(LongBuffer.wrap(always), ALWAYS);
+            masks.add(always);
+
+            int words = (users.size() + 63) / 64;
+            this.zoneUsers = new long[zoneNames.length][words];
+            this.zoneWindows = new short[zoneNames.length][];
+            for (Map.Entry<String, Map<Integer, long[]>> user : grants.entrySet()) {
+                int index = users.get(user.getKey());
+                for (Map.Entry<Integer, long[]> grant : user.getValue().entrySet()) {
+                    int zone = grant.getKey();
+                    zoneUsers[zone][index >>> 6] |= 1L << index;
+                    if (grant.getValue() == null) {
+                        continue;
+                    }
+                    int window = interned.computeIfAbsent(LongBuffer.wrap(grant.getValue()), mask -> {
+                        masks.add(grant.getValue());
+                        return masks.size() - 1;
+                    });
+                    if (window > Short.MAX_VALUE) {
+                        throw new IllegalArgumentException("trop de plages horaires distinctes");
+                    }
+                    if (zoneWindows[zone] == null) {
+                        zoneWindows[zone] = new short[users.size()];
+                    }
+                    zoneWindows[zone][index] = (short) window;
+                }
+            }
+            this.windows = masks.toArray(new long[0][]);
+        }
+
+        Decision decide(String userId, String readerName, int slot) {
+            Integer user = userIndex.get(userId);
+            if (user == null) {
+                return Decision.UNKNOWN_USER;
+            }
+            int zone = zoneOf(readerName);
+            if (zone < 0) {
+                return Decision.UNKNOWN_ZONE;
+            }
+            int index = user;
+            if ((zoneUsers[zone][index >>> 6] & (1L << index)) == 0) {
+                return Decision.ZONE_DENIED;
+            }
+            short[] userWindows = zoneWindows[zone];
+            if (userWindows == null) {
+                return Decision.GRANTED;
+            }
+            long[] mask = windows[userWindows[index]];
+            return (mask[slot >>> 6] & (1L << slot)) != 0 ? Decision.GRANTED : Decision.OUTSIDE_HOURS;
+        }
+
+        int zoneOf(String readerName) {
+            return readerName == null ? defaultZone : readerZones.getOrDefault(readerName, defaultZone);
+        }
+    }
+}
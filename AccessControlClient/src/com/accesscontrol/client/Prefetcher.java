@@ -0,0 +1,90 @@
+package com.accesscontrol.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Préchargement spéculatif de ce dont la décision d'accès aura besoin pour
+ * un badge (clé et vérificateur, politique, révocation, compteurs d'échecs...),
+ * lancé dès la lecture de l'identité, pendant que l'utilisateur tape son PIN.
+ *
+ * Chaque composant s'inscrit avec un Warmer; un préchargement déjà en cours
+ * pour le même badge est réutilisé. Un échec de préchargement n'est pas
+ * bloquant: la décision refera simplement le travail.
+ */
+class Prefetcher {
+
+    /**
+     * Préparer les données d'un badge dans un cache
+     */
+    interface Warmer {
+        void warm(String userId);
+    }
+
+    private final List<Warmer> warmers = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    Prefetcher() {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "prefetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void register(Warmer warmer) {
+        warmers.add(warmer);
+    }
+
+    /**
+     * Lancer en parallèle tous les warmers pour ce badge
+     * @return terminé quand tous les warmers ont fini (avec ou sans erreur)
+     */
+    CompletableFuture<Void> prefetch(String userId) {
+        // Réserver le badge avant de lancer quoi que ce soit: un second passage
+        // simultané reçoit le même futur au lieu de refaire tout le préchargement
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> running = inFlight.computeIfAbsent(userId, id -> created);
+        if (running != created) {
+            return running;
+        }
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[warmers.size()];
+        int i = 0;
+        try {
+            for (Warmer warmer : warmers) {
+                tasks[i++] = CompletableFuture.runAsync(() -> warm(warmer, userId), executor);
+            }
+        } catch (RejectedExecutionException e) {
+            // Arrêt en cours: rien à précharger
+            inFlight.remove(userId, created);
+            created.complete(null);
+            return created;
+        }
+        CompletableFuture.allOf(tasks).whenComplete((result, error) -> {
+            inFlight.remove(userId, created);
+            created.complete(null);
+        });
+        return created;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void warm(Warmer warmer, String userId) {
+        try {
+            warmer.warm(userId);
+        } catch (RuntimeException e) {
+            System.err.println("Erreur de préchargement pour " + userId + ": " + e.getMessage());
+        }
+    }
+}
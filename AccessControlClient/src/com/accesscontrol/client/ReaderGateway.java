@@ -0,0 +1,109 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passerelle multi-lecteurs sans menu interactif.
+ * Un seul CardPresenceMonitor surveille tous les lecteurs; chaque badge posé
+ * est identifié aussitôt, ses données sont préchargées pendant la saisie du
+ * PIN, puis il est authentifié sur un worker et sa session est fermée dès
+ * son retrait.
+ * Tous les lecteurs partagent le même Authenticator (donc les mêmes
+ * SessionManager et AccessLogger).
+ */
+class ReaderGateway implements CardPresenceMonitor.Listener {
+
+    private final CardTerminals terminals;
+    private final Authenticator authenticator;
+    private final PinPad pinPad;
+    private final Prefetcher prefetcher;
+    private final ExecutorService workers;
+    private final CardPresenceMonitor monitor;
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+
+    ReaderGateway(CardTerminals terminals, Authenticator authenticator, PinPad pinPad, Prefetcher prefetcher) {
+        this(terminals, authenticator, pinPad, prefetcher, null);
+    }
+
+    /**
+     * @param metrics métriques des échanges APDU, ou null pour ne pas instrumenter
+     */
+    ReaderGateway(CardTerminals terminals, Authenticator authenticator, PinPad pinPad, Prefetcher prefetcher,
+                  ApduMetrics metrics) {
+        this.terminals = terminals;
+        this.authenticator = authenticator;
+        this.pinPad = pinPad;
+        this.prefetcher = prefetcher;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "reader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.monitor = new CardPresenceMonitor(terminals, this, workers, metrics);
+    }
+
+    /**
+     * Démarrer la surveillance des lecteurs détectés
+     */
+    void start() throws CardException {
+        List<CardTerminal> readers = terminals.list();
+        if (readers.isEmpty()) {
+            throw new CardException("❌ Aucun terminal détecté sur le simulateur.");
+        }
+
+        for (CardTerminal reader : readers) {
+            System.out.println("✅ Lecteur pris en charge: " + reader.getName());
+        }
+        monitor.start();
+    }
+
+    /**
+     * Arrêter la surveillance, fermer les sessions en cours et attendre les workers
+     */
+    void stop() throws InterruptedException {
+        monitor.stop();
+        workers.shutdown();
+        if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Badge posé: lire l'identité, lancer le préchargement puis authentifier
+     * la première identité du badge; seule la saisie du PIN reste à attendre
+     */
+    @Override
+    public void cardInserted(CardTerminal reader, CardChannel channel, int capabilities) {
+        String readerName = reader.getName();
+        try {
+            Map<Integer, String> identities = Authenticator.listSlots(channel, capabilities);
+            int slot = identities.isEmpty() ? 0 : identities.keySet().iterator().next();
+            String userId = identities.isEmpty() ? Authenticator.readUserId(channel, slot) : identities.get(slot);
+            if (userId != null && !userId.isEmpty()) {
+                prefetcher.prefetch(userId);
+            }
+            String sessionId = authenticator.authenticate(channel, readerName, pinPad, capabilities, slot, userId);
+            if (sessionId != null) {
+                sessions.put(readerName, sessionId);
+            }
+        } catch (CardException e) {
+            System.err.println("[" + readerName + "] Erreur carte: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Badge retiré: la session ouverte sur ce lecteur est fermée (gardée pour
+     * les portes suivantes en mode réentrée)
+     */
+    @Override
+    public void cardRemoved(CardTerminal reader) {
+        String sessionId = sessions.remove(reader.getName());
+        if (sessionId != null) {
+            authenticator.badgeRemoved(sessionId, reader.getName());
+        }
+    }
+}
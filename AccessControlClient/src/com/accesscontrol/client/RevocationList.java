@@ -0,0 +1,342 @@
+package com.accesscontrol.client;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liste des badges révoqués (perdus, volés), consultée avant la saisie du PIN.
+ *
+ * La liste publiée est un fichier trié d'enregistrements de 16 octets (l'ID
+ * utilisateur tel que stocké sur la carte, complété par des zéros), projeté
+ * en mémoire et parcouru par dichotomie: elle peut contenir des millions de
+ * badges sans être chargée dans le tas. Un filtre de Bloom en mémoire est
+ * consulté d'abord, si bien qu'un badge non révoqué (le cas courant) ne lit
+ * jamais le fichier.
+ *
+ * Une nouvelle liste est publiée avec publish(): chaque version est écrite
+ * dans son propre fichier (liste + "." + numéro), puis le fichier de la liste,
+ * qui ne contient que le nom de la version courante, est remplacé de façon
+ * atomique. Un fichier projeté n'est donc jamais remplacé ni supprimé sous un
+ * contrôleur en marche (Windows refuse les deux); les anciennes versions sont
+ * effacées aux publications suivantes, dès qu'elles ne sont plus projetées.
+ * Le fichier est surveillé et la nouvelle version remplace l'ancienne d'un
+ * coup, sans bloquer les vérifications en cours.
+ */
+class RevocationList {
+
+    static final int RECORD_SIZE = 16;
+
+    private static final int MAGIC = 0x52564B31; // "RVK1"
+    private static final int HEADER_SIZE = 8;
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+
+    private final Path file;
+    private volatile Snapshot current;
+    private volatile FileTime loadedAt;
+    private ScheduledExecutorService watcher;
+
+    /**
+     * Charger la liste publiée si elle existe
+     */
+    RevocationList(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            reload();
+        }
+    }
+
+    /**
+     * Le badge est-il révoqué ?
+     */
+    boolean isRevoked(String userId) {
+        Snapshot snapshot = current;
+        if (snapshot == null || userId == null) {
+            return false;
+        }
+        byte[] bytes = userId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > RECORD_SIZE) {
+            return false;
+        }
+        long high = word(bytes, 0);
+        long low = word(bytes, 8);
+        return snapshot.mightContain(high, low) && snapshot.contains(high, low);
+    }
+
+    /**
+     * Préchargement: amener en mémoire la page du fichier où se trouverait le badge
+     */
+    void warm(String userId) {
+        isRevoked(userId);
+    }
+
+    int size() {
+        Snapshot snapshot = current;
+        return snapshot == null ? 0 : snapshot.count;
+    }
+
+    /**
+     * Projeter la version courante; en cas d'erreur l'ancienne liste reste en
+     * place et le chargement est retenté à la surveillance suivante
+     * @return true si la nouvelle liste est active
+     */
+    boolean reload() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            Snapshot snapshot = Snapshot.open(versionFile(file));
+            current = snapshot;
+            loadedAt = modified;
+            System.out.println("Liste de révocation chargée: " + snapshot.count + " badges");
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Erreur lors du chargement de la liste de révocation: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Surveiller le fichier et le recharger dès qu'une liste est publiée
+     */
+    void watch(long intervalSeconds) {
+        watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "revocation-watch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::reloadIfChanged, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    private void reloadIfChanged() {
+        try {
+            if (Files.exists(file) && !Files.getLastModifiedTime(file).equals(loadedAt)) {
+                reload();
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la surveillance de la liste de révocation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Publier une liste: tri, dédoublonnage, écriture d'une nouvelle version
+     * puis remplacement atomique de la référence (la cible)
+     */
+    static void publish(Collection<String> userIds, Path target) throws IOException {
+        List<byte[]> records = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            String id = userId.strip();
+            if (id.isEmpty()) {
+                continue;
+            }
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > RECORD_SIZE) {
+                throw new IllegalArgumentException("ID trop long (16 octets max): " + id);
+            }
+            records.add(Arrays.copyOf(bytes, RECORD_SIZE));
+        }
+        records.sort(Arrays::compareUnsigned);
+
+        int count = 0;
+        for (int i = 0; i < records.size(); i++) {
+            if (i == 0 || !Arrays.equals(records.get(i), records.get(i - 1))) {
+                records.set(count++, records.get(i));
+            }
+        }
+        Path version = newVersion(target);
+        try (OutputStream stream = Files.newOutputStream(version, StandardOpenOption.CREATE_NEW,
+                                                         StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.write(records.get(i));
+            }
+        }
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(temp, version.getFileName().toString(), StandardCharsets.UTF_8);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteOldVersions(target, version);
+    }
+
+    /**
+     * Publier la liste d'un fichier texte (un ID par ligne)
+     */
+    static void publish(Path textFile, Path target) throws IOException {
+        publish(Files.readAllLines(textFile, StandardCharsets.UTF_8), target);
+    }
+
+    /**
+     * Fichier de la version désignée par la référence
+     */
+    private static Path versionFile(Path reference) throws IOException {
+        String name = Files.readString(reference, StandardCharsets.UTF_8).strip();
+        if (!isVersionOf(reference, name)) {
+            throw new IllegalArgumentException("référence de version invalide: " + name);
+        }
+        return reference.resolveSibling(name);
+    }
+
+    /**
+     * Nom libre pour une nouvelle version (horodatage en millisecondes)
+     */
+    private static Path newVersion(Path target) {
+        long number = System.currentTimeMillis();
+        Path version;
+        while (Files.exists(version = target.resolveSibling(target.getFileName() + "." + number))) {
+            number++;
+        }
+        return version;
+    }
+
+    /**
+     * Effacer les versions remplacées; celles encore projetées par un
+     * contrôleur (refusées sous Windows) le seront à la publication suivante
+     */
+    private static void deleteOldVersions(Path target, Path keep) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> versions = Files.newDirectoryStream(directory,
+                entry -> isVersionOf(target, entry.getFileName().toString()))) {
+            for (Path version : versions) {
+                if (version.getFileName().equals(keep.getFileName())) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(version);
+                } catch (IOException e) {
+                    // Encore projetée: au prochain passage
+                }
+            }
+        }
+    }
+
+    private static boolean isVersionOf(Path reference, String name) {
+        String prefix = reference.getFileName() + ".";
+        return name.length() > prefix.length() && name.startsWith(prefix)
+            && name.substring(prefix.length()).chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * 8 octets big-endian de l'ID à partir de offset, complétés par des zéros
+     */
+    private static long word(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+        }
+        return value;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Une version publiée: projection du fichier et filtre de Bloom
+     */
+    private static final class Snapshot {
+
+        final ByteBuffer records;
+        final int count;
+        final long[] bloom;
+        final long bloomBits;
+
+        private Snapshot(ByteBuffer records, int count) {
+            this.records = records;
+            this.count = count;
+            this.bloomBits = Math.max(64, (long) count * BITS_PER_ENTRY);
+            this.bloom = new long[(int) ((bloomBits + 63) / 64)];
+            for (int i = 0; i < count; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                add(records.getLong(offset), records.getLong(offset + 8));
+            }
+        }
+
+        static Snapshot open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("taille de fichier invalide: " + size);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IllegalArgumentException("ce n'est pas une liste de révocation");
+                }
+                int count = buffer.getInt(4);
+                if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE != size) {
+                    throw new IllegalArgumentException("fichier tronqué");
+                }
+                // La projection reste valide après la fermeture du canal
+                return new Snapshot(buffer, count);
+            }
+        }
+
+        private void add(long high, long low) {
+            long hash = mix(high ^ mix(low));
+            long step = mix(hash) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Long.remainderUnsigned(hash + i * step, bloomBits);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(long high, long low) {
+            long hash = mix(high ^ mix(low));
+            long step = mix(hash) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Long.remainderUnsigned(hash + i * step, bloomBits);
+                if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Dichotomie sur les enregistrements triés (ordre des octets non signés)
+         */
+        boolean contains(long high, long low) {
+            int from = 0;
+            int to = count - 1;
+            while (from <= to) {
+                int middle = (from + to) >>> 1;
+                int offset = HEADER_SIZE + middle * RECORD_SIZE;
+                int compare = Long.compareUnsigned(records.getLong(offset), high);
+                if (compare == 0) {
+                    compare = Long.compareUnsigned(records.getLong(offset + 8), low);
+                }
+                if (compare < 0) {
+                    from = middle + 1;
+                } else if (compare > 0) {
+                    to = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.accesscontrol.client;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Persistance des sessions actives, pour qu'un redémarrage du contrôleur ne
+ * force pas tous les badges à se réauthentifier.
+ *
+ * Chaque ouverture, prolongation et fermeture de session est ajoutée à un
+ * journal (enregistrements courts avec CRC, écrits sans fsync: un arrêt
+ * brutal du processus ne perd rien, une coupure de courant peut perdre les
+ * dernières écritures). Tous les SNAPSHOT_EVERY enregistrements, le journal
+ * passe à une nouvelle génération et la table complète est écrite dans un
+ * instantané, forcé sur le disque avant son renommage; les anciennes
+ * générations ne sont supprimées qu'ensuite.
+ *
+ * Au démarrage: chargement de l'instantané puis rejeu des générations
+ * suivantes. Le rejeu est idempotent, si bien qu'un enregistrement présent
+ * à la fois dans l'instantané et dans le journal ne pose pas de problème;
+ * un enregistrement tronqué (arrêt pendant une écriture) termine son fichier.
+ * Un instantané illisible est ignoré: les journaux restants sont rejoués.
+ */
+class SessionJournal implements Closeable {
+
+    private static final int SNAPSHOT_EVERY = 10_000;
+    private static final int SNAPSHOT_MAGIC = 0x53534E31; // "SSN1"
+    private static final int MAX_RECORD = 1024;
+    private static final String SNAPSHOT_FILE = "sessions.snapshot";
+    private static final String JOURNAL_PREFIX = "sessions-";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final byte CREATE = 1;
+    private static final byte RENEW = 2;
+    private static final byte CLOSE = 3;
+
+    private final Path directory;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private final ExecutorService snapshots;
+    private Supplier<Collection<SessionManager.SessionInfo>> source;
+    private DataOutputStream out;
+    private long generation;
+    private int records;
+    private boolean snapshotPending;
+
+    SessionJournal(Path directory) {
+        this.directory = directory;
+        this.snapshots = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "session-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reconstruire la table des sessions: instantané puis journaux suivants
+     * @return les sessions connues au moment de l'arrêt (expirées comprises)
+     */
+    Map<String, SessionManager.SessionInfo> recover() throws IOException {
+        Files.createDirectories(directory);
+        Map<String, SessionManager.SessionInfo> sessions = new HashMap<>();
+        long snapshotGeneration = readSnapshot(sessions);
+        for (long journal : journalGenerations()) {
+            if (journal >= snapshotGeneration) {
+                replay(journalFile(journal), sessions);
+            }
+            generation = Math.max(generation, journal);
+        }
+        generation = Math.max(generation, snapshotGeneration);
+        return sessions;
+    }
+
+    /**
+     * Commencer à journaliser: nouvelle génération et instantané de la table
+     * restaurée (ce qui compacte les journaux rejoués)
+     * @param source sessions actives, lues lors des instantanés
+     */
+    void open(Supplier<Collection<SessionManager.SessionInfo>> source) throws IOException {
+        this.source = source;
+        long snapshotGeneration;
+        synchronized (this) {
+            snapshotGeneration = rotate();
+        }
+        writeSnapshot(snapshotGeneration, source.get());
+    }
+
+    synchronized void created(SessionManager.SessionInfo session) {
+        try {
+            recordOut.writeByte(CREATE);
+            recordOut.writeUTF(session.sessionId);
+            recordOut.writeUTF(session.userId);
+            recordOut.writeLong(session.startTime);
+            recordOut.writeLong(session.timeoutMillis);
+            recordOut.writeLong(session.expiresAt);
+            append();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    synchronized void renewed(SessionManager.SessionInfo session) {
+        try {
+            recordOut.writeByte(RENEW);
+            recordOut.writeUTF(session.sessionId);
+            recordOut.writeLong(session.expiresAt);
+            append();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    synchronized void closed(String sessionId) {
+        try {
+            recordOut.writeByte(CLOSE);
+            recordOut.writeUTF(sessionId);
+            append();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Arrêt normal: instantané final, le prochain démarrage n'a rien à rejouer
+     */
+    @Override
+    public void close() {
+        snapshots.shutdown();
+        try {
+            snapshots.awaitTermination(5, TimeUnit.SECONDS);
+            if (source != null) {
+                long snapshotGeneration;
+                synchronized (this) {
+                    snapshotGeneration = rotate();
+                }
+                writeSnapshot(snapshotGeneration, source.get());
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'instantané des sessions: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    System.err.println("Erreur lors de la fermeture du journal: " + e.getMessage());
+                }
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Écrire l'enregistrement préparé: longueur | contenu | CRC32
+     */
+    private void append() throws IOException {
+        if (out == null) {
+            record.reset();
+            return;
+        }
+        byte[] bytes = record.toByteArray();
+        record.reset();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        if (++records >= SNAPSHOT_EVERY && !snapshotPending) {
+            snapshotPending = true;
+            snapshots.execute(this::snapshot);
+        }
+    }
+
+    private void failed(IOException e) {
+        record.reset();
+        System.err.println("Erreur lors de l'écriture du journal des sessions: " + e.getMessage());
+    }
+
+    /**
+     * Passer à la génération suivante (appelant synchronisé)
+     * @return la génération que couvrira l'instantané
+     */
+    private long rotate() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        generation++;
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile(generation),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        records = 0;
+        return generation;
+    }
+
+    private void snapshot() {
+        try {
+            long snapshotGeneration;
+            synchronized (this) {
+                snapshotGeneration = rotate();
+            }
+            // Les changements pendant la copie sont aussi dans la nouvelle génération
+            writeSnapshot(snapshotGeneration, source.get());
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'instantané des sessions: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                snapshotPending = false;
+            }
+        }
+    }
+
+    /**
+     * Écrire l'instantané à côté, le forcer sur le disque et le renommer, puis
+     * supprimer les journaux qu'il couvre
+     */
+    private void writeSnapshot(long snapshotGeneration, Collection<SessionManager.SessionInfo> sessions)
+            throws IOException {
+        List<SessionManager.SessionInfo> copy = new ArrayList<>(sessions);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(file))) {
+            snapshot.writeInt(SNAPSHOT_MAGIC);
+            snapshot.writeLong(snapshotGeneration);
+            snapshot.writeInt(copy.size());
+            for (SessionManager.SessionInfo session : copy) {
+                snapshot.writeUTF(session.sessionId);
+                snapshot.writeUTF(session.userId);
+                snapshot.writeLong(session.startTime);
+                snapshot.writeLong(session.timeoutMillis);
+                snapshot.writeLong(session.expiresAt);
+            }
+            snapshot.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Le renommage doit être sur le disque avant la suppression des journaux
+        BadgeKeyStore.forceDirectory(directory);
+        for (long journal : journalGenerations()) {
+            if (journal < snapshotGeneration) {
+                Files.deleteIfExists(journalFile(journal));
+            }
+        }
+    }
+
+    /**
+     * @return la génération couverte par l'instantané (0 sans instantané ou
+     *         s'il est illisible: tous les journaux restants sont alors rejoués)
+     */
+    private long readSnapshot(Map<String, SessionManager.SessionInfo> sessions) {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        Map<String, SessionManager.SessionInfo> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("format inconnu");
+            }
+            long snapshotGeneration = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String sessionId = in.readUTF();
+                SessionManager.SessionInfo session =
+                    new SessionManager.SessionInfo(in.readUTF(), sessionId, in.readLong());
+                session.timeoutMillis = in.readLong();
+                session.expiresAt = in.readLong();
+                loaded.put(sessionId, session);
+            }
+            sessions.putAll(loaded);
+            return snapshotGeneration;
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la lecture de l'instantané des sessions (ignoré): "
+                + (e instanceof EOFException ? "fichier tronqué" : e.getMessage()));
+            return 0;
+        }
+    }
+
+    /**
+     * Rejouer un journal jusqu'au premier enregistrement incomplet ou corrompu
+     */
+    private void replay(Path file, Map<String, SessionManager.SessionInfo> sessions) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] buffer = new byte[MAX_RECORD];
+            while (true) {
+                int length;
+                try {
+                    length = in.readUnsignedShort();
+                    if (length == 0 || length > MAX_RECORD) {
+                        return;
+                    }
+                    in.readFully(buffer, 0, length);
+                    crc.reset();
+                    crc.update(buffer, 0, length);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        return;
+                    }
+                } catch (EOFException e) {
+                    return;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)), sessions);
+            }
+        }
+    }
+
+    private static void apply(DataInputStream record, Map<String, SessionManager.SessionInfo> sessions)
+            throws IOException {
+        byte type = record.readByte();
+        String sessionId = record.readUTF();
+        switch (type) {
+            case CREATE:
+                SessionManager.SessionInfo session =
+                    new SessionManager.SessionInfo(record.readUTF(), sessionId, record.readLong());
+                session.timeoutMillis = record.readLong();
+                session.expiresAt = record.readLong();
+                sessions.put(sessionId, session);
+                break;
+            case RENEW:
+                SessionManager.SessionInfo renewed = sessions.get(sessionId);
+                if (renewed != null) {
+                    renewed.expiresAt = record.readLong();
+                }
+                break;
+            case CLOSE:
+                sessions.remove(sessionId);
+                break;
+            default:
+                throw new IOException("enregistrement de session inconnu: " + type);
+        }
+    }
+
+    private Path journalFile(long journal) {
+        return directory.resolve(String.format("%s%012d%s", JOURNAL_PREFIX, journal, JOURNAL_SUFFIX));
+    }
+
+    private List<Long> journalGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(
+                        name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Fichier étranger: ignoré
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+}
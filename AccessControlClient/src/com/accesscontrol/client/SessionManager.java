@@ -0,0 +1,271 @@
+package com.accesscontrol.client;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gestionnaire de sessions.
+ * L'expiration est pilotée par une roue temporelle partagée (un seul thread
+ * pour toutes les sessions) au lieu d'un thread en attente par session;
+ * un store partagé retire les sessions échues hors de ce thread.
+ * Les sessions sont rangées dans un SessionStore, local ou partagé entre
+ * passerelles; une session prolongée sur un autre nœud n'est pas expirée ici.
+ */
+class SessionManager {
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final SessionStore store;
+    private final Map<String, Integer> userTimeouts;
+    private final TimingWheel timer;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private volatile int timeoutSeconds;
+    private volatile SessionListener listener;
+    private volatile SessionJournal journal;
+    private volatile AccessRollups rollups;
+
+    public SessionManager(int timeoutSeconds) {
+        this(timeoutSeconds, new LocalSessionStore());
+    }
+
+    public SessionManager(int timeoutSeconds, SessionStore store) {
+        this.store = store;
+        this.userTimeouts = new ConcurrentHashMap<>();
+        this.timer = new TimingWheel(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE, "session-timer");
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Définir le destinataire des notifications d'expiration
+     */
+    public void setListener(SessionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Compter la durée de chaque session fermée ou expirée; null pour ne pas compter
+     */
+    public void setRollups(AccessRollups rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Restaurer les sessions encore valides depuis le journal, puis y
+     * enregistrer tous les changements
+     * @return le nombre de sessions restaurées
+     */
+    public int attachJournal(SessionJournal journal) throws IOException {
+        long now = System.currentTimeMillis();
+        int restored = 0;
+        for (SessionInfo session : journal.recover().values()) {
+            if (session.expiresAt > now && store.get(session.sessionId) == null) {
+                scheduleExpiry(session, session.expiresAt - now);
+                store.put(session);
+                restored++;
+            }
+        }
+        journal.open(store::localSessions);
+        this.journal = journal;
+        return restored;
+    }
+
+    /**
+     * Définir un timeout spécifique pour un utilisateur (0 pour revenir au défaut)
+     */
+    public void setUserTimeout(String userId, int seconds) {
+        if (seconds <= 0) {
+            userTimeouts.remove(userId);
+        } else {
+            userTimeouts.put(userId, seconds);
+        }
+    }
+
+    public int getTimeout(String userId) {
+        return userTimeouts.getOrDefault(userId, timeoutSeconds);
+    }
+
+    public String createSession(String userId) {
+        return createSession(userId, null);
+    }
+
+    /**
+     * @param zone zone du lecteur d'ouverture (statistiques de durée), ou null
+     */
+    public String createSession(String userId, String zone) {
+        String sessionId = UUID.randomUUID().toString().substring(0, 8);
+        SessionInfo session = new SessionInfo(userId, sessionId, System.currentTimeMillis());
+        session.zone = zone;
+        session.timeoutMillis = getTimeout(userId) * 1000L;
+        scheduleExpiry(session);
+        store.put(session);
+        created.increment();
+        SessionJournal current = journal;
+        if (current != null) {
+            current.created(session);
+        }
+        return sessionId;
+    }
+
+    /**
+     * Prolonger une session active (expiration glissante)
+     * @return false si la session n'existe plus
+     */
+    public boolean renewSession(String sessionId) {
+        SessionInfo session = store.get(sessionId);
+        if (session == null) {
+            return false;
+        }
+        synchronized (session) {
+            if (session.expiry != null && !session.expiry.cancel()) {
+                // Expiration déjà en cours
+                return false;
+            }
+            scheduleExpiry(session);
+        }
+        store.put(session);
+        SessionJournal current = journal;
+        if (current != null) {
+            current.renewed(session);
+        }
+        return true;
+    }
+
+    public boolean isSessionActive(String sessionId) {
+        SessionInfo session = store.get(sessionId);
+        // La roue a une granularité d'un tick: on vérifie aussi l'échéance
+        return session != null && System.currentTimeMillis() <= session.expiresAt;
+    }
+
+    /**
+     * Temps écoulé depuis l'ouverture de la session (authentification A2F)
+     * @return -1 si la session n'existe plus ou est échue
+     */
+    public long getSessionAge(String sessionId) {
+        SessionInfo session = store.get(sessionId);
+        long now = System.currentTimeMillis();
+        return session != null && now <= session.expiresAt ? now - session.startTime : -1;
+    }
+
+    public String getUserId(String sessionId) {
+        SessionInfo session = store.get(sessionId);
+        return session != null ? session.userId : null;
+    }
+
+    public int getActiveSessionCount() {
+        return store.localSessions().size();
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getClosedCount() {
+        return closed.sum();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    public void closeSession(String sessionId) {
+        SessionInfo session = store.remove(sessionId);
+        if (session != null) {
+            synchronized (session) {
+                if (session.expiry != null) {
+                    session.expiry.cancel();
+                }
+            }
+            long duration = System.currentTimeMillis() - session.startTime;
+            session.duration = duration / 1000; // en secondes
+            closed.increment();
+            AccessRollups currentRollups = rollups;
+            if (currentRollups != null) {
+                currentRollups.sessionClosed(session);
+            }
+            SessionJournal current = journal;
+            if (current != null) {
+                current.closed(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Arrêter le thread d'expiration et fermer le journal (instantané final)
+     */
+    public void shutdown() {
+        timer.stop();
+        SessionJournal current = journal;
+        if (current != null) {
+            journal = null;
+            current.close();
+        }
+        store.close();
+    }
+
+    private void scheduleExpiry(SessionInfo session) {
+        scheduleExpiry(session, session.timeoutMillis);
+    }
+
+    private void scheduleExpiry(SessionInfo session, long delayMillis) {
+        session.expiresAt = System.currentTimeMillis() + delayMillis;
+        session.expiry = timer.schedule(() -> expire(session), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(SessionInfo scheduled) {
+        // Échéance de ce minuteur: la session a pu être prolongée ailleurs depuis
+        long deadline = Math.max(System.currentTimeMillis(), scheduled.expiresAt);
+        store.removeExpiredAsync(scheduled.sessionId, deadline, this::onExpired);
+    }
+
+    private void onExpired(SessionInfo session) {
+        if (session == null) {
+            return;
+        }
+        session.duration = (System.currentTimeMillis() - session.startTime) / 1000;
+        expired.increment();
+        AccessRollups currentRollups = rollups;
+        if (currentRollups != null) {
+            currentRollups.sessionClosed(session);
+        }
+        SessionJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.closed(session.sessionId);
+        }
+        SessionListener current = listener;
+        if (current != null) {
+            current.sessionExpired(session);
+        }
+    }
+
+    /**
+     * Notification d'expiration d'une session
+     */
+    interface SessionListener {
+        void sessionExpired(SessionInfo session);
+    }
+
+    static class SessionInfo {
+        String userId;
+        String sessionId;
+        long startTime;
+        long duration;
+        // Zone du lecteur d'ouverture; non journalisée (null après un redémarrage)
+        String zone;
+        long timeoutMillis;
+        volatile long expiresAt;
+        TimingWheel.Timeout expiry;
+
+        SessionInfo(String userId, String sessionId, long startTime) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.startTime = startTime;
+            this.duration = 0;
+        }
+    }
+}
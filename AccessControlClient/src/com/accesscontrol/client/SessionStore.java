@@ -0,0 +1,47 @@
+package com.accesscontrol.client;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Stockage des sessions derrière SessionManager: en mémoire dans le
+ * processus (LocalSessionStore) ou réparti entre plusieurs passerelles
+ * (ShardedSessionStore).
+ *
+ * Les sessions renvoyées peuvent être des copies: une modification n'est
+ * visible des autres nœuds qu'après un nouveau put().
+ */
+interface SessionStore {
+
+    void put(SessionManager.SessionInfo session);
+
+    SessionManager.SessionInfo get(String sessionId);
+
+    /**
+     * @return la session retirée, ou null si elle n'existait pas
+     */
+    SessionManager.SessionInfo remove(String sessionId);
+
+    /**
+     * Retirer la session seulement si elle est échue (elle a pu être
+     * prolongée depuis un autre nœud)
+     * @return la session retirée, ou null si elle n'existe plus ou est encore valide
+     */
+    SessionManager.SessionInfo removeExpired(String sessionId, long now);
+
+    /**
+     * removeExpired appelé depuis le minuteur des sessions, qui ne doit pas
+     * attendre un autre nœud; done reçoit la session retirée, ou null
+     */
+    default void removeExpiredAsync(String sessionId, long now, Consumer<SessionManager.SessionInfo> done) {
+        done.accept(removeExpired(sessionId, now));
+    }
+
+    /**
+     * Sessions conservées par ce nœud (jauges, instantanés du journal)
+     */
+    Collection<SessionManager.SessionInfo> localSessions();
+
+    default void close() {
+    }
+}
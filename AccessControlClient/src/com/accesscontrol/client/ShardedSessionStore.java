@@ -0,0 +1,634 @@
+package com.accesscontrol.client;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sessions réparties entre plusieurs passerelles, pour qu'un badge
+ * authentifié sur un lecteur soit reconnu par les lecteurs d'une autre
+ * passerelle.
+ *
+ * Chaque nœud est identifié par son port (les nœuds tournent sur la boucle
+ * locale, 127.0.0.1). Un anneau de hachage cohérent (VIRTUAL_NODES points
+ * par nœud) désigne pour chaque session un nœud principal et REPLICAS - 1
+ * répliques. Les écritures vont à tous les propriétaires et réussissent
+ * si l'un d'eux au moins les a enregistrées; les lectures interrogent le
+ * principal puis les répliques. Quand ce nœud est lui-même propriétaire, la
+ * session est d'abord lue dans sa table locale; s'il l'ignore (PUT manqué
+ * pendant un arrêt), les autres propriétaires sont interrogés et la copie
+ * locale est réparée.
+ *
+ * Les échanges entre nœuds passent par des connexions persistantes (une
+ * petite réserve par voisin) et un protocole binaire minimal. Chaque
+ * connexion commence par une authentification mutuelle sur un secret
+ * partagé (HMAC-SHA256 d'un nonce de chaque côté): un autre processus local
+ * ne peut ni créer ni retirer de sessions. Un voisin en échec est tenu pour
+ * absent pendant PEER_BACKOFF: les appels suivants échouent aussitôt au lieu
+ * d'attendre le délai de connexion. Un retrait qui n'a pas atteint un
+ * propriétaire est retenu et renvoyé quand il répond de nouveau.
+ *
+ * Les expirations venues du minuteur de SessionManager sont traitées sur le
+ * thread de nettoyage de ce nœud, jamais sur le thread du minuteur.
+ *
+ * La composition du groupe est fixe (liste de ports au démarrage): pas de
+ * rééquilibrage à chaud. Un nœud redémarré ne retrouve que les sessions de
+ * son journal; les répliques couvrent l'absence d'un nœud.
+ */
+class ShardedSessionStore implements SessionStore {
+
+    private static final int VIRTUAL_NODES = 64;
+    private static final int REPLICAS = 2;
+    private static final int POOL_SIZE = 4;
+    private static final int CONNECT_TIMEOUT = 500;
+    private static final int READ_TIMEOUT = 2000;
+    // Une session échue reste ce délai pour laisser son minuteur l'expirer
+    private static final long SWEEP_GRACE = 60_000;
+    private static final long SWEEP_INTERVAL = 10;
+    private static final long PEER_BACKOFF = 5_000;
+
+    private static final byte PUT = 1;
+    private static final byte GET = 2;
+    private static final byte REMOVE = 3;
+    private static final byte REMOVE_EXPIRED = 4;
+
+    private static final int NONCE_SIZE = 16;
+    private static final int SECRET_SIZE = 32;
+    private static final byte ROLE_CLIENT = 'C';
+    private static final byte ROLE_SERVER = 'S';
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int self;
+    private final byte[] secret;
+    private final HashRing ring;
+    private final LocalSessionStore shard = new LocalSessionStore();
+    private final Map<Integer, Peer> peers = new HashMap<>();
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+    private final ExecutorService handlers;
+    private final ScheduledExecutorService sweeper;
+    private ServerSocket server;
+    private volatile boolean running;
+
+    /**
+     * @param port port de ce nœud sur la boucle locale
+     * @param nodes ports de tous les nœuds du groupe, celui-ci compris
+     * @param secret secret partagé par les nœuds du groupe (voir loadSecret)
+     */
+    ShardedSessionStore(int port, Collection<Integer> nodes, byte[] secret) {
+        if (!nodes.contains(port)) {
+            throw new IllegalArgumentException("le nœud " + port + " n'est pas dans le groupe " + nodes);
+        }
+        this.self = port;
+        this.secret = secret.clone();
+        this.ring = new HashRing(nodes);
+        for (int node : nodes) {
+            if (node != port) {
+                peers.put(node, new Peer(node, this.secret));
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.handlers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "session-node-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Lire le secret du groupe, en le créant (lisible par le seul propriétaire)
+     * au premier démarrage; les autres nœuds doivent lire le même fichier
+     */
+    static byte[] loadSecret(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            byte[] generated = new byte[SECRET_SIZE];
+            RANDOM.nextBytes(generated);
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "cluster", ".tmp");
+            try {
+                Files.delete(temp);
+                BadgeKeyStore.createPrivate(temp);
+                Files.writeString(temp, HexFormat.of().formatHex(generated), StandardCharsets.US_ASCII);
+                Files.move(temp, file);
+            } catch (FileAlreadyExistsException e) {
+                // Créé entre-temps par un autre nœud: c'est celui-là qui compte
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        byte[] secret = HexFormat.of().parseHex(Files.readString(file, StandardCharsets.US_ASCII).strip());
+        if (secret.length < NONCE_SIZE) {
+            throw new IOException("secret du groupe trop court: " + file);
+        }
+        return secret;
+    }
+
+    /**
+     * Ouvrir le port de ce nœud et commencer à servir les voisins
+     */
+    void start() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), self));
+        running = true;
+        handlers.execute(this::acceptLoop);
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.SECONDS);
+        sweeper.scheduleWithFixedDelay(this::retryRemovals, PEER_BACKOFF, PEER_BACKOFF, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void put(SessionManager.SessionInfo session) {
+        int stored = 0;
+        IOException failure = null;
+        for (int node : ring.owners(session.sessionId, REPLICAS)) {
+            if (node == self) {
+                shard.put(session);
+                stored++;
+                continue;
+            }
+            try {
+                peers.get(node).call(PUT, out -> writeSession(out, session), in -> null);
+                stored++;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (stored == 0) {
+            System.err.println("Erreur lors de l'enregistrement de la session " + session.sessionId + ": "
+                + failure.getMessage());
+        }
+    }
+
+    @Override
+    public SessionManager.SessionInfo get(String sessionId) {
+        List<Integer> owners = ring.owners(sessionId, REPLICAS);
+        boolean owner = owners.contains(self);
+        if (owner) {
+            SessionManager.SessionInfo session = shard.get(sessionId);
+            if (session != null) {
+                return session;
+            }
+        }
+        for (int node : owners) {
+            if (node == self) {
+                continue;
+            }
+            try {
+                SessionManager.SessionInfo session = peers.get(node).call(GET,
+                    out -> out.writeUTF(sessionId), ShardedSessionStore::readOptional);
+                if (session != null) {
+                    if (owner) {
+                        // Copie locale manquante (PUT perdu pendant un arrêt): réparée
+                        shard.put(session);
+                    }
+                    return session;
+                }
+            } catch (IOException e) {
+                // Propriétaire injoignable: réplique suivante
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public SessionManager.SessionInfo remove(String sessionId) {
+        return removeFromOwners(REMOVE, sessionId, 0);
+    }
+
+    @Override
+    public SessionManager.SessionInfo removeExpired(String sessionId, long now) {
+        return removeFromOwners(REMOVE_EXPIRED, sessionId, now);
+    }
+
+    @Override
+    public void removeExpiredAsync(String sessionId, long now, Consumer<SessionManager.SessionInfo> done) {
+        try {
+            sweeper.execute(() -> done.accept(removeExpired(sessionId, now)));
+        } catch (RejectedExecutionException e) {
+            // Nœud arrêté: plus d'expiration à traiter
+        }
+    }
+
+    @Override
+    public Collection<SessionManager.SessionInfo> localSessions() {
+        return shard.localSessions();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        sweeper.shutdownNow();
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Erreur lors de la fermeture du nœud de sessions: " + e.getMessage());
+            }
+        }
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+        // Les voisins ne doivent plus être servis par ce nœud arrêté
+        for (Socket socket : accepted) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connexion déjà perdue
+            }
+        }
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Retirer la session chez tous ses propriétaires
+     * @return la session retirée par l'un d'eux, ou null
+     */
+    private SessionManager.SessionInfo removeFromOwners(byte op, String sessionId, long now) {
+        SessionManager.SessionInfo removed = null;
+        for (int node : ring.owners(sessionId, REPLICAS)) {
+            SessionManager.SessionInfo session;
+            if (node == self) {
+                session = op == REMOVE ? shard.remove(sessionId) : shard.removeExpired(sessionId, now);
+            } else {
+                Peer peer = peers.get(node);
+                try {
+                    session = peer.call(op, out -> {
+                        out.writeUTF(sessionId);
+                        out.writeLong(now);
+                    }, ShardedSessionStore::readOptional);
+                } catch (IOException e) {
+                    if (op == REMOVE) {
+                        // Fermeture: la copie du voisin serait encore vue active, retrait à renvoyer
+                        System.err.println("Erreur lors du retrait de la session " + sessionId + " du nœud "
+                            + node + ": " + e.getMessage() + " (nouvel essai différé)");
+                        peer.pendingRemovals.add(sessionId);
+                    }
+                    // Une session échue est de toute façon purgée par le nettoyage du voisin
+                    continue;
+                }
+            }
+            if (removed == null) {
+                removed = session;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Renvoyer les retraits qui n'avaient pas atteint un voisin
+     */
+    private void retryRemovals() {
+        for (Peer peer : peers.values()) {
+            for (String sessionId : peer.pendingRemovals) {
+                try {
+                    peer.call(REMOVE, out -> {
+                        out.writeUTF(sessionId);
+                        out.writeLong(0);
+                    }, ShardedSessionStore::readOptional);
+                    peer.pendingRemovals.remove(sessionId);
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void sweep() {
+        long limit = System.currentTimeMillis() - SWEEP_GRACE;
+        shard.localSessions().removeIf(session -> session.expiresAt <= limit);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                try {
+                    handlers.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    // Arrêt en cours: le voisin voit aussitôt la connexion fermée
+                    socket.close();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Erreur lors de l'acceptation d'un nœud: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Servir les requêtes d'un voisin sur une connexion persistante
+     */
+    private void serve(Socket socket) {
+        accepted.add(socket);
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setSoTimeout(READ_TIMEOUT);
+            if (!acceptPeer(in, out)) {
+                System.err.println("Erreur lors d'un échange avec un nœud: authentification refusée");
+                return;
+            }
+            socket.setSoTimeout(0);
+            while (running) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                switch (op) {
+                    case PUT:
+                        shard.put(readSession(in));
+                        break;
+                    case GET:
+                        writeOptional(out, shard.get(in.readUTF()));
+                        break;
+                    case REMOVE:
+                        String removedId = in.readUTF();
+                        in.readLong();
+                        writeOptional(out, shard.remove(removedId));
+                        break;
+                    case REMOVE_EXPIRED:
+                        writeOptional(out, shard.removeExpired(in.readUTF(), in.readLong()));
+                        break;
+                    default:
+                        throw new IOException("opération inconnue: " + op);
+                }
+                out.writeByte(0);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Erreur lors d'un échange avec un nœud: " + e.getMessage());
+            }
+        } finally {
+            accepted.remove(socket);
+        }
+    }
+
+    /**
+     * Côté serveur: nonce envoyé, preuve du client vérifiée, puis preuve du
+     * serveur sur le nonce du client
+     */
+    private boolean acceptPeer(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        RANDOM.nextBytes(nonce);
+        out.write(nonce);
+        out.flush();
+        byte[] clientNonce = new byte[NONCE_SIZE];
+        byte[] clientProof = new byte[32];
+        try {
+            in.readFully(clientNonce);
+            in.readFully(clientProof);
+        } catch (EOFException e) {
+            return false;
+        }
+        if (!MessageDigest.isEqual(clientProof, proof(secret, ROLE_CLIENT, nonce))) {
+            return false;
+        }
+        out.write(proof(secret, ROLE_SERVER, clientNonce));
+        out.flush();
+        return true;
+    }
+
+    /**
+     * HMAC-SHA256 du rôle et du nonce de l'autre partie: une preuve obtenue
+     * d'un nœud ne peut pas être renvoyée dans l'autre sens
+     */
+    private static byte[] proof(byte[] secret, byte role, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(role);
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeSession(DataOutputStream out, SessionManager.SessionInfo session) throws IOException {
+        out.writeUTF(session.sessionId);
+        out.writeUTF(session.userId);
+        out.writeLong(session.startTime);
+        out.writeLong(session.timeoutMillis);
+        out.writeLong(session.expiresAt);
+        out.writeUTF(session.zone != null ? session.zone : "");
+    }
+
+    private static SessionManager.SessionInfo readSession(DataInputStream in) throws IOException {
+        String sessionId = in.readUTF();
+        SessionManager.SessionInfo session = new SessionManager.SessionInfo(in.readUTF(), sessionId, in.readLong());
+        session.timeoutMillis = in.readLong();
+        session.expiresAt = in.readLong();
+        String zone = in.readUTF();
+        session.zone = zone.isEmpty() ? null : zone;
+        return session;
+    }
+
+    private static void writeOptional(DataOutputStream out, SessionManager.SessionInfo session) throws IOException {
+        out.writeBoolean(session != null);
+        if (session != null) {
+            writeSession(out, session);
+        }
+    }
+
+    private static SessionManager.SessionInfo readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readSession(in) : null;
+    }
+
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Response<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Anneau de hachage cohérent: VIRTUAL_NODES points par nœud
+     */
+    static final class HashRing {
+
+        private final TreeMap<Long, Integer> points = new TreeMap<>();
+        private final int nodes;
+
+        HashRing(Collection<Integer> nodes) {
+            this.nodes = new HashSet<>(nodes).size();
+            for (int node : nodes) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    points.put(hash(node + "#" + i), node);
+                }
+            }
+        }
+
+        /**
+         * Les count premiers nœuds distincts après la clé, en tournant sur l'anneau
+         */
+        List<Integer> owners(String key, int count) {
+            int wanted = Math.min(count, nodes);
+            List<Integer> owners = new ArrayList<>(wanted);
+            Iterator<Integer> after = points.tailMap(hash(key)).values().iterator();
+            Iterator<Integer> wrapped = points.values().iterator();
+            while (owners.size() < wanted) {
+                int node = after.hasNext() ? after.next() : wrapped.next();
+                if (!owners.contains(node)) {
+                    owners.add(node);
+                }
+            }
+            return owners;
+        }
+
+        /**
+         * FNV-1a 64 bits suivi d'un mélange final, pour bien répartir des clés voisines
+         */
+        static long hash(String key) {
+            long hash = 0xCBF29CE484222325L;
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+
+    /**
+     * Voisin du groupe: réserve de connexions persistantes
+     */
+    private static final class Peer {
+
+        private final Set<String> pendingRemovals = ConcurrentHashMap.newKeySet();
+        private final int port;
+        private final byte[] secret;
+        private final BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(POOL_SIZE);
+        private volatile long downUntil;
+
+        Peer(int port, byte[] secret) {
+            this.port = port;
+            this.secret = secret;
+        }
+
+        /**
+         * Un échange; une connexion de la réserve périmée (voisin redémarré)
+         * est remplacée par une nouvelle pour un second essai
+         */
+        <T> T call(byte op, Request request, Response<T> response) throws IOException {
+            if (System.currentTimeMillis() < downUntil) {
+                throw new IOException("nœud " + port + " injoignable");
+            }
+            Connection pooled = idle.poll();
+            if (pooled != null) {
+                try {
+                    return exchange(pooled, op, request, response);
+                } catch (IOException e) {
+                    // Les autres connexions de la réserve datent du même voisin
+                    close();
+                }
+            }
+            try {
+                T result = exchange(new Connection(port, secret), op, request, response);
+                downUntil = 0;
+                return result;
+            } catch (IOException e) {
+                downUntil = System.currentTimeMillis() + PEER_BACKOFF;
+                throw e;
+            }
+        }
+
+        private <T> T exchange(Connection connection, byte op, Request request, Response<T> response)
+                throws IOException {
+            try {
+                connection.out.writeByte(op);
+                request.write(connection.out);
+                connection.out.flush();
+                T result = response.read(connection.in);
+                if (connection.in.readByte() != 0) {
+                    throw new IOException("réponse invalide du nœud " + port);
+                }
+                if (!idle.offer(connection)) {
+                    connection.close();
+                }
+                return result;
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static final class Connection {
+
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(int port, byte[] secret) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT);
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                authenticate(port, secret);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Côté client: preuve sur le nonce du serveur, puis vérification de la sienne
+         */
+        private void authenticate(int port, byte[] secret) throws IOException {
+            byte[] nonce = new byte[NONCE_SIZE];
+            in.readFully(nonce);
+            byte[] clientNonce = new byte[NONCE_SIZE];
+            RANDOM.nextBytes(clientNonce);
+            out.write(clientNonce);
+            out.write(proof(secret, ROLE_CLIENT, nonce));
+            out.flush();
+            byte[] serverProof = new byte[32];
+            in.readFully(serverProof);
+            if (!MessageDigest.isEqual(serverProof, proof(secret, ROLE_SERVER, clientNonce))) {
+                throw new IOException("le nœud " + port + " ne connaît pas le secret du groupe");
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connexion déjà perdue
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.accesscontrol.client;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Badge virtuel qui reproduit le protocole APDU de AccessControlApplet
+ * (SELECT, INS_SET_PIN à INS_JOURNAL_READ, status words 0x63Cx / 0x6983...)
+ * sans simulateur externe. Les capacités annoncées au SELECT sont
+ * configurables pour émuler aussi une applet ancienne (capacités à 0).
+ * Un badge n'est utilisé que par un lecteur à la fois: process() est synchronisé.
+ */
+class SimulatedBadge {
+
+    static final int APPLET_VERSION = 0x04;
+    static final int ALL_CAPABILITIES = AccessControlClient.CAP_COMBINED_AUTH
+        | AccessControlClient.CAP_CHALLENGE | AccessControlClient.CAP_SLOTS | AccessControlClient.CAP_REENTRY
+        | AccessControlClient.CAP_JOURNAL;
+
+    private static final int PIN_TRY_LIMIT = 3;
+    private static final int MAX_PIN_SIZE = 8;
+    private static final int KEY_SIZE = 16;
+    private static final int USER_ID_SIZE = 16;
+    private static final int CHALLENGE_SIZE = ChallengeVerifier.CHALLENGE_SIZE;
+    private static final int SESSION_ID_SIZE = 16;
+    private static final int JOURNAL_ENTRIES = 256;
+    private static final int ENTRY_SIZE = 10;
+    private static final int ENTRY_DATA_SIZE = 7;
+
+    private static final byte INS_SELECT = (byte) 0xA4;
+    private static final byte INS_RESET_TRIES = (byte) 0x50;
+
+    private static final int AUTH_OK = 0x00;
+    private static final int AUTH_WRONG_PIN = 0x01;
+    private static final int AUTH_BLOCKED = 0x02;
+
+    // Status words renvoyés par l'applet
+    private static final int SW_OK = 0x9000;
+    private static final int SW_PIN_VERIFICATION_REQUIRED = 0x6301;
+    private static final int SW_PIN_TRIES_REMAINING = 0x63C0;
+    private static final int SW_FILE_INVALID = 0x6983;
+    private static final int SW_WRONG_LENGTH = 0x6700;
+    private static final int SW_WRONG_DATA = 0x6A80;
+    private static final int SW_INCORRECT_P1P2 = 0x6A86;
+    private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    private static final int SW_FILE_NOT_FOUND = 0x6A82;
+    private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    private static final int SW_BYTES_REMAINING = 0x6100;
+
+    private final int capabilities;
+    private final Slot[] slots = new Slot[AccessControlClient.MAX_SLOTS];
+    private final byte[] journal = new byte[JOURNAL_ENTRIES * ENTRY_SIZE];
+    private int journalHead;
+    private int journalCount;
+    private int journalSequence = 1;
+    private int cursorNext;
+    private int cursorEnd;
+    private int verifiedSlot = -1;
+    private int reenteredSlot = -1;
+    private boolean selected;
+
+    SimulatedBadge() {
+        this(ALL_CAPABILITIES);
+    }
+
+    /**
+     * @param capabilities capacités annoncées au SELECT
+     */
+    SimulatedBadge(int capabilities) {
+        this.capabilities = capabilities;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Personnaliser directement un slot, sans passer par les APDU
+     */
+    synchronized void personalize(int slot, String userId, String pin, byte[] key) {
+        Slot target = slots[slot];
+        target.pin = pin.getBytes();
+        target.tries = PIN_TRY_LIMIT;
+        byte[] id = userId.getBytes();
+        target.userId = Arrays.copyOf(id, Math.min(id.length, USER_ID_SIZE));
+        target.setKey(key);
+        target.sessionId = new byte[0];
+    }
+
+    /**
+     * Traiter une commande APDU et renvoyer la réponse (données + SW)
+     */
+    synchronized byte[] process(byte[] command) {
+        if (command.length < 4) {
+            return status(SW_WRONG_LENGTH);
+        }
+        byte ins = command[1];
+        if (ins == INS_SELECT) {
+            return select(command);
+        }
+        if (!selected) {
+            return status(SW_INS_NOT_SUPPORTED);
+        }
+
+        if (ins != AccessControlClient.INS_GET_RESPONSE) {
+            cursorEnd = cursorNext;
+        }
+        byte[] data = commandData(command);
+        if (data == null) {
+            return status(SW_WRONG_LENGTH);
+        }
+        if (ins == AccessControlClient.INS_LIST_SLOTS) {
+            return listSlots();
+        }
+        if (ins == AccessControlClient.INS_GET_RESPONSE) {
+            if (cursorNext >= cursorEnd) {
+                return status(SW_CONDITIONS_NOT_SATISFIED);
+            }
+            return sendJournal(new byte[0], expectedLength(command));
+        }
+        int p1 = command[2] & 0xFF;
+        if (p1 >= slots.length) {
+            return status(SW_INCORRECT_P1P2);
+        }
+        Slot slot = slots[p1];
+
+        switch (ins) {
+            case AccessControlClient.INS_SET_PIN: return setPin(slot, data);
+            case AccessControlClient.INS_VERIFY_PIN: return verifyPin(p1, slot, data);
+            case AccessControlClient.INS_STORE_KEY: return storeKey(p1, slot, data);
+            case AccessControlClient.INS_GET_KEY: return getKey(p1, slot);
+            case INS_RESET_TRIES: slot.tries = PIN_TRY_LIMIT; return status(SW_OK);
+            case AccessControlClient.INS_GET_USER_ID: return reply(slot.userId, SW_OK);
+            case AccessControlClient.INS_AUTHENTICATE: return authenticate(p1, slot, data);
+            case AccessControlClient.INS_CHALLENGE: return challenge(p1, slot, data);
+            case AccessControlClient.INS_BIND_SESSION: return bindSession(p1, slot, data);
+            case AccessControlClient.INS_REENTER: return reenter(p1, slot, data);
+            case AccessControlClient.INS_JOURNAL_APPEND: return appendJournal(p1, data);
+            case AccessControlClient.INS_JOURNAL_READ: return readJournal(p1, command[3] & 0xFF, expectedLength(command));
+            default: return status(SW_INS_NOT_SUPPORTED);
+        }
+    }
+
+    /**
+     * Retrait du badge: l'état de session est perdu comme à la désélection
+     */
+    synchronized void reset() {
+        selected = false;
+        verifiedSlot = -1;
+        reenteredSlot = -1;
+        cursorEnd = cursorNext;
+    }
+
+    private byte[] select(byte[] command) {
+        byte[] aid = commandData(command);
+        if (aid == null || !Arrays.equals(aid, AccessControlClient.APPLET_AID)) {
+            selected = false;
+            return status(SW_FILE_NOT_FOUND);
+        }
+        selected = true;
+        verifiedSlot = -1;
+        reenteredSlot = -1;
+        return reply(new byte[] {(byte) APPLET_VERSION, (byte) capabilities}, SW_OK);
+    }
+
+    private byte[] setPin(Slot slot, byte[] data) {
+        if (data.length < 1) {
+            return status(SW_WRONG_DATA);
+        }
+        int pinLength = data[0];
+        if (pinLength <= 0 || pinLength > MAX_PIN_SIZE || data.length < 1 + pinLength) {
+            return status(SW_WRONG_DATA);
+        }
+        slot.pin = Arrays.copyOfRange(data, 1, 1 + pinLength);
+        slot.tries = PIN_TRY_LIMIT;
+        int idLength = data.length - 1 - pinLength;
+        slot.userId = idLength > 0 && idLength <= USER_ID_SIZE
+            ? Arrays.copyOfRange(data, 1 + pinLength, data.length) : new byte[0];
+        slot.sessionId = new byte[0];
+        return status(SW_OK);
+    }
+
+    private byte[] verifyPin(int p1, Slot slot, byte[] data) {
+        if (data.length > MAX_PIN_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+        if (slot.check(data)) {
+            verifiedSlot = p1;
+            return status(SW_OK);
+        }
+        verifiedSlot = -1;
+        return status(slot.tries == 0 ? SW_FILE_INVALID : SW_PIN_TRIES_REMAINING | slot.tries);
+    }
+
+    private byte[] storeKey(int p1, Slot slot, byte[] data) {
+        if (verifiedSlot != p1) {
+            return status(SW_PIN_VERIFICATION_REQUIRED);
+        }
+        if (data.length != KEY_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+        slot.setKey(data);
+        return status(SW_OK);
+    }
+
+    private byte[] getKey(int p1, Slot slot) {
+        if (verifiedSlot != p1) {
+            return status(SW_PIN_VERIFICATION_REQUIRED);
+        }
+        return reply(slot.key, SW_OK);
+    }
+
+    private byte[] challenge(int p1, Slot slot, byte[] data) {
+        if (verifiedSlot != p1) {
+            return status(SW_PIN_VERIFICATION_REQUIRED);
+        }
+        if (data.length != CHALLENGE_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+        return reply(slot.mac(data, 0), SW_OK);
+    }
+
+    private byte[] authenticate(int p1, Slot slot, byte[] data) {
+        if (data.length < 1) {
+            return status(SW_WRONG_DATA);
+        }
+        int pinLength = data[0];
+        if (pinLength <= 0 || pinLength > MAX_PIN_SIZE) {
+            return status(SW_WRONG_DATA);
+        }
+        if (data.length != 1 + pinLength + CHALLENGE_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+
+        boolean pinVerified = slot.check(Arrays.copyOfRange(data, 1, 1 + pinLength));
+        verifiedSlot = pinVerified ? p1 : -1;
+        int statusByte = pinVerified ? AUTH_OK : slot.tries == 0 ? AUTH_BLOCKED : AUTH_WRONG_PIN;
+
+        byte[] mac = pinVerified ? slot.mac(data, 1 + pinLength) : new byte[0];
+        byte[] response = new byte[1 + slot.userId.length + 2 + mac.length];
+        int offset = 0;
+        response[offset++] = (byte) slot.userId.length;
+        System.arraycopy(slot.userId, 0, response, offset, slot.userId.length);
+        offset += slot.userId.length;
+        response[offset++] = (byte) statusByte;
+        response[offset++] = (byte) slot.tries;
+        System.arraycopy(mac, 0, response, offset, mac.length);
+        return reply(response, SW_OK);
+    }
+
+    private byte[] bindSession(int p1, Slot slot, byte[] data) {
+        if (verifiedSlot != p1) {
+            return status(SW_PIN_VERIFICATION_REQUIRED);
+        }
+        if (data.length == 0 || data.length > SESSION_ID_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+        slot.sessionId = data.clone();
+        return status(SW_OK);
+    }
+
+    /**
+     * Réponse: longueur | session | AES-CBC-MAC de (challenge | session complétée par des zéros)
+     */
+    private byte[] reenter(int p1, Slot slot, byte[] data) {
+        if (data.length != CHALLENGE_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+        if (slot.sessionId.length == 0) {
+            return status(SW_CONDITIONS_NOT_SATISFIED);
+        }
+        byte[] block = slot.mac(data, 0);
+        for (int i = 0; i < slot.sessionId.length; i++) {
+            block[i] ^= slot.sessionId[i];
+        }
+        byte[] mac = slot.mac(block, 0);
+        byte[] response = new byte[1 + slot.sessionId.length + mac.length];
+        response[0] = (byte) slot.sessionId.length;
+        System.arraycopy(slot.sessionId, 0, response, 1, slot.sessionId.length);
+        System.arraycopy(mac, 0, response, 1 + slot.sessionId.length, mac.length);
+        reenteredSlot = p1;
+        return reply(response, SW_OK);
+    }
+
+    /**
+     * Entrée: numéro (2) | horodatage (4) | événement (1) | slot (1) | lecteur (2)
+     */
+    private byte[] appendJournal(int p1, byte[] data) {
+        if (verifiedSlot != p1 && reenteredSlot != p1) {
+            return status(SW_PIN_VERIFICATION_REQUIRED);
+        }
+        if (data.length != ENTRY_DATA_SIZE) {
+            return status(SW_WRONG_LENGTH);
+        }
+        int base = journalHead * ENTRY_SIZE;
+        journal[base] = (byte) (journalSequence >> 8);
+        journal[base + 1] = (byte) journalSequence;
+        System.arraycopy(data, 0, journal, base + 2, 5);
+        journal[base + 7] = (byte) p1;
+        System.arraycopy(data, 5, journal, base + 8, 2);
+        journalHead = (journalHead + 1) % JOURNAL_ENTRIES;
+        journalCount = Math.min(journalCount + 1, JOURNAL_ENTRIES);
+        journalSequence = journalSequence == 0xFFFF ? 1 : journalSequence + 1;
+        return status(SW_OK);
+    }
+
+    /**
+     * Réponse: nombre d'entrées (2) | entrées depuis le rang first, découpées selon Le
+     */
+    private byte[] readJournal(int p1, int first, int le) {
+        if (verifiedSlot != p1 && reenteredSlot != p1) {
+            return status(SW_PIN_VERIFICATION_REQUIRED);
+        }
+        if (first > journalCount) {
+            return status(SW_INCORRECT_P1P2);
+        }
+        cursorNext = first;
+        cursorEnd = journalCount;
+        return sendJournal(new byte[] {(byte) (journalCount >> 8), (byte) journalCount}, le);
+    }
+
+    /**
+     * Autant d'entrées que Le le permet, puis SW 61xx s'il en reste (suite par GET RESPONSE)
+     */
+    private byte[] sendJournal(byte[] header, int le) {
+        int remaining = cursorEnd - cursorNext;
+        int entries = Math.min((le - header.length) / ENTRY_SIZE, remaining);
+        if (le < header.length || (entries <= 0 && remaining > 0)) {
+            return status(SW_WRONG_LENGTH);
+        }
+        byte[] data = Arrays.copyOf(header, header.length + entries * ENTRY_SIZE);
+        for (int i = 0; i < entries; i++) {
+            int index = (journalHead - journalCount + cursorNext + i + JOURNAL_ENTRIES) % JOURNAL_ENTRIES;
+            System.arraycopy(journal, index * ENTRY_SIZE, data, header.length + i * ENTRY_SIZE, ENTRY_SIZE);
+        }
+        cursorNext += entries;
+        remaining -= entries;
+        if (remaining > 0) {
+            int bytes = remaining * ENTRY_SIZE;
+            return reply(data, SW_BYTES_REMAINING | (bytes > 255 ? 0 : bytes));
+        }
+        return reply(data, SW_OK);
+    }
+
+    private byte[] listSlots() {
+        byte[] response = new byte[slots.length * (2 + USER_ID_SIZE)];
+        int offset = 0;
+        for (int i = 0; i < slots.length; i++) {
+            byte[] userId = slots[i].userId;
+            if (userId.length == 0) {
+                continue;
+            }
+            response[offset++] = (byte) i;
+            response[offset++] = (byte) userId.length;
+            System.arraycopy(userId, 0, response, offset, userId.length);
+            offset += userId.length;
+        }
+        return reply(Arrays.copyOf(response, offset), SW_OK);
+    }
+
+    /**
+     * Données de la commande (cas 3 ou 4, Lc court ou étendu), tableau vide
+     * sans Lc, null si la longueur annoncée ne correspond pas
+     */
+    private static byte[] commandData(byte[] command) {
+        if (command.length <= 5 || (command.length == 7 && command[4] == 0)) {
+            return new byte[0];
+        }
+        if (command[4] == 0) {
+            int lc = ((command[5] & 0xFF) << 8) | (command[6] & 0xFF);
+            if (lc == 0 || (command.length != 7 + lc && command.length != 9 + lc)) {
+                return null;
+            }
+            return Arrays.copyOfRange(command, 7, 7 + lc);
+        }
+        int lc = command[4] & 0xFF;
+        if (command.length != 5 + lc && command.length != 6 + lc) {
+            return null;
+        }
+        return Arrays.copyOfRange(command, 5, 5 + lc);
+    }
+
+    /**
+     * Le de la commande: court (0 = 256), étendu (0 = 65536), 0 sans Le
+     */
+    private static int expectedLength(byte[] command) {
+        if (command.length == 7 && command[4] == 0) {
+            int le = ((command[5] & 0xFF) << 8) | (command[6] & 0xFF);
+            return le == 0 ? 65536 : le;
+        }
+        if (command.length > 7 && command[4] == 0) {
+            int lc = ((command[5] & 0xFF) << 8) | (command[6] & 0xFF);
+            if (command.length != 9 + lc) {
+                return 0;
+            }
+            int le = ((command[command.length - 2] & 0xFF) << 8) | (command[command.length - 1] & 0xFF);
+            return le == 0 ? 65536 : le;
+        }
+        if (command.length == 5 || (command.length > 5 && command.length == 6 + (command[4] & 0xFF))) {
+            int le = command[command.length - 1] & 0xFF;
+            return le == 0 ? 256 : le;
+        }
+        return 0;
+    }
+
+    private static byte[] reply(byte[] data, int sw) {
+        byte[] response = Arrays.copyOf(data, data.length + 2);
+        response[data.length] = (byte) (sw >> 8);
+        response[data.length + 1] = (byte) sw;
+        return response;
+    }
+
+    private static byte[] status(int sw) {
+        return reply(new byte[0], sw);
+    }
+
+    /**
+     * Un slot du badge: PIN, compteur d'essais, identité et clé privée
+     */
+    private static final class Slot {
+
+        byte[] pin = new byte[0];
+        int tries = PIN_TRY_LIMIT;
+        byte[] userId = new byte[0];
+        byte[] key = new byte[KEY_SIZE];
+        byte[] sessionId = new byte[0];
+        private Cipher cipher;
+
+        /**
+         * Comportement d'OwnerPIN: un échec décrémente, un succès réarme le compteur
+         */
+        boolean check(byte[] candidate) {
+            if (tries == 0 || pin.length == 0) {
+                return false;
+            }
+            if (Arrays.equals(pin, candidate)) {
+                tries = PIN_TRY_LIMIT;
+                return true;
+            }
+            tries--;
+            return false;
+        }
+
+        void setKey(byte[] newKey) {
+            key = newKey.clone();
+            cipher = null;
+        }
+
+        /**
+         * AES-CBC-MAC d'un bloc (IV nul), comme ALG_AES_MAC_128_NOPAD sur la carte
+         */
+        byte[] mac(byte[] data, int offset) {
+            try {
+                if (cipher == null) {
+                    cipher = Cipher.getInstance("AES/ECB/NoPadding");
+                    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+                }
+                return cipher.doFinal(data, offset, CHALLENGE_SIZE);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES indisponible", e);
+            }
+        }
+    }
+}
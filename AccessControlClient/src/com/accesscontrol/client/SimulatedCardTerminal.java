@@ -0,0 +1,231 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Lecteur virtuel en mémoire: on y pose et on en retire des SimulatedBadge,
+ * le client lui parle par l'API javax.smartcardio habituelle.
+ */
+class SimulatedCardTerminal extends CardTerminal {
+
+    private static final ATR ATR = new ATR(new byte[] {0x3B, 0x00});
+
+    private final String name;
+    private final SimulatedCardTerminals owner;
+    private SimulatedBadge badge;
+    private SimulatedCard card;
+    private long changes;
+
+    SimulatedCardTerminal(String name, SimulatedCardTerminals owner) {
+        this.name = name;
+        this.owner = owner;
+    }
+
+    /**
+     * Poser un badge sur le lecteur (le précédent est retiré)
+     */
+    void insert(SimulatedBadge newBadge) {
+        synchronized (this) {
+            detach();
+            badge = newBadge;
+            changes++;
+            notifyAll();
+        }
+        owner.changed();
+    }
+
+    /**
+     * Retirer le badge présent: les Card ouvertes deviennent inutilisables
+     */
+    void remove() {
+        synchronized (this) {
+            detach();
+            notifyAll();
+        }
+        owner.changed();
+    }
+
+    private void detach() {
+        if (badge != null) {
+            badge.reset();
+            changes++;
+        }
+        badge = null;
+        if (card != null) {
+            card.removed = true;
+            card = null;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized Card connect(String protocol) throws CardException {
+        if (badge == null) {
+            throw new CardNotPresentException("Aucun badge sur " + name);
+        }
+        if (card == null || card.disconnected) {
+            card = new SimulatedCard(badge);
+        }
+        return card;
+    }
+
+    /**
+     * Nombre d'insertions et de retraits depuis la création du lecteur
+     */
+    synchronized long changes() {
+        return changes;
+    }
+
+    @Override
+    public synchronized boolean isCardPresent() {
+        return badge != null;
+    }
+
+    @Override
+    public synchronized boolean waitForCardPresent(long timeout) throws CardException {
+        return waitFor(true, timeout);
+    }
+
+    @Override
+    public synchronized boolean waitForCardAbsent(long timeout) throws CardException {
+        return waitFor(false, timeout);
+    }
+
+    private boolean waitFor(boolean present, long timeout) throws CardException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout négatif");
+        }
+        long deadline = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        while ((badge != null) != present) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(timeout == 0 ? 0 : remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CardException("Attente interrompue", e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedCardTerminal: " + name;
+    }
+
+    /**
+     * Connexion à un badge virtuel (un seul canal de base, pas de canaux logiques)
+     */
+    private static final class SimulatedCard extends Card {
+
+        private final SimulatedBadge badge;
+        private final SimulatedChannel channel = new SimulatedChannel(this);
+        private volatile boolean removed;
+        private volatile boolean disconnected;
+
+        SimulatedCard(SimulatedBadge badge) {
+            this.badge = badge;
+        }
+
+        byte[] transmit(byte[] command) throws CardException {
+            if (disconnected) {
+                throw new IllegalStateException("Carte déconnectée");
+            }
+            if (removed) {
+                throw new CardException("Badge retiré du lecteur");
+            }
+            return badge.process(command);
+        }
+
+        @Override
+        public ATR getATR() {
+            return ATR;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "T=1";
+        }
+
+        @Override
+        public CardChannel getBasicChannel() {
+            return channel;
+        }
+
+        @Override
+        public CardChannel openLogicalChannel() throws CardException {
+            throw new CardException("Canaux logiques non supportés");
+        }
+
+        @Override
+        public void beginExclusive() {
+            // Un badge virtuel n'est partagé qu'avec son lecteur
+        }
+
+        @Override
+        public void endExclusive() {
+        }
+
+        @Override
+        public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+            throw new CardException("Commandes de contrôle non supportées");
+        }
+
+        @Override
+        public void disconnect(boolean reset) {
+            disconnected = true;
+            if (reset) {
+                badge.reset();
+            }
+        }
+    }
+
+    private static final class SimulatedChannel extends CardChannel {
+
+        private final SimulatedCard card;
+
+        SimulatedChannel(SimulatedCard card) {
+            this.card = card;
+        }
+
+        @Override
+        public Card getCard() {
+            return card;
+        }
+
+        @Override
+        public int getChannelNumber() {
+            return 0;
+        }
+
+        @Override
+        public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+            return new ResponseAPDU(card.transmit(command.getBytes()));
+        }
+
+        @Override
+        public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+            byte[] bytes = new byte[command.remaining()];
+            command.get(bytes);
+            byte[] reply = card.transmit(bytes);
+            if (response.remaining() < reply.length) {
+                throw new IllegalArgumentException("Tampon de réponse trop petit");
+            }
+            response.put(reply);
+            return reply.length;
+        }
+
+        @Override
+        public void close() throws CardException {
+            throw new IllegalStateException("Le canal de base ne peut pas être fermé");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.accesscontrol.client;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ensemble de lecteurs virtuels, utilisable à la place des terminaux du
+ * simulateur (ReaderGateway, générateur de charge).
+ */
+class SimulatedCardTerminals extends CardTerminals {
+
+    private final List<SimulatedCardTerminal> readers;
+    private final boolean[] lastSeen;
+    private final long[] lastChanges;
+    private final List<CardTerminal> insertions = new ArrayList<>();
+    private final List<CardTerminal> removals = new ArrayList<>();
+    private long version;
+    private long seenVersion = -1;
+
+    /**
+     * @param count nombre de lecteurs, nommés "Lecteur virtuel 1" à "Lecteur virtuel count"
+     */
+    SimulatedCardTerminals(int count) {
+        List<SimulatedCardTerminal> list = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            list.add(new SimulatedCardTerminal("Lecteur virtuel " + i, this));
+        }
+        this.readers = Collections.unmodifiableList(list);
+        this.lastSeen = new boolean[count];
+        this.lastChanges = new long[count];
+    }
+
+    SimulatedCardTerminal reader(int index) {
+        return readers.get(index);
+    }
+
+    int size() {
+        return readers.size();
+    }
+
+    /**
+     * Appelé par un lecteur quand un badge est posé ou retiré
+     */
+    synchronized void changed() {
+        version++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized List<CardTerminal> list(State state) {
+        switch (state) {
+            case ALL:
+                return new ArrayList<>(readers);
+            case CARD_INSERTION:
+                return new ArrayList<>(insertions);
+            case CARD_REMOVAL:
+                return new ArrayList<>(removals);
+            default:
+                List<CardTerminal> matching = new ArrayList<>();
+                boolean present = state == State.CARD_PRESENT;
+                for (SimulatedCardTerminal reader : readers) {
+                    if (reader.isCardPresent() == present) {
+                        matching.add(reader);
+                    }
+                }
+                return matching;
+        }
+    }
+
+    /**
+     * Attendre qu'un badge soit posé ou retiré depuis l'appel précédent (le
+     * premier appel ne fait que mémoriser l'état et attend le changement suivant);
+     * list(CARD_INSERTION / CARD_REMOVAL) donne ensuite les lecteurs concernés.
+     * Un badge retiré puis reposé entre deux appels figure dans les deux listes.
+     */
+    @Override
+    public synchronized boolean waitForChange(long timeout) throws CardException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout négatif");
+        }
+        if (seenVersion < 0) {
+            snapshot();
+        }
+        long deadline = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        while (version == seenVersion) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(timeout == 0 ? 0 : remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CardException("Attente interrompue", e);
+            }
+        }
+        seenVersion = version;
+
+        insertions.clear();
+        removals.clear();
+        for (int i = 0; i < readers.size(); i++) {
+            SimulatedCardTerminal reader = readers.get(i);
+            boolean present = reader.isCardPresent();
+            long changes = reader.changes();
+            long count = changes - lastChanges[i];
+            if (count > 0) {
+                if (present) {
+                    insertions.add(reader);
+                }
+                if (lastSeen[i] || !present || count > 1) {
+                    removals.add(reader);
+                }
+            }
+            lastSeen[i] = present;
+            lastChanges[i] = changes;
+        }
+        return true;
+    }
+
+    private void snapshot() {
+        seenVersion = version;
+        for (int i = 0; i < readers.size(); i++) {
+            lastSeen[i] = readers.get(i).isCardPresent();
+            lastChanges[i] = readers.get(i).changes();
+        }
+    }
+}